@@ -9,7 +9,7 @@ import java.util.Iterator;
 import java.util.NoSuchElementException;
 
 /** Copied from Guava. */
-abstract class AbstractIterator<T> implements Iterator<T> {
+public abstract class AbstractIterator<T> implements Iterator<T> {
 	private State state = State.NOT_READY;
 
 	/** Constructor for use by subclasses. */
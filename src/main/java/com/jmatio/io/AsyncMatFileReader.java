@@ -0,0 +1,258 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.jmatio.types.MLArray;
+
+/**
+ * Reads the variables of a MAT-file on an executor, with one future per
+ * variable.
+ * <p>
+ * Each variable is read with positional reads of its own element, and is
+ * inflated and decoded by a task of the executor, so the reads and the
+ * decoding of several variables overlap.  Besides opening the file, which
+ * scans it unless it has a valid sidecar index, no method blocks the calling
+ * thread.  Callers which must not block on {@link Future#get()} either,
+ * such as event loops, pass a {@link Callback} which is called by the
+ * executor thread once the variable is decoded.
+ * <pre><code>
+ * AsyncMatFileReader reader = new AsyncMatFileReader(new File("mat_file.mat"), executor);
+ * reader.read("signal", new AsyncMatFileReader.Callback&lt;MLArray&gt;() {
+ *     public void completed(MLArray array) { ... }
+ *     public void failed(Throwable error) { ... }
+ * });
+ * </code></pre>
+ *
+ * MCOS objects are resolved against the subsystem data of the file, which is
+ * read along with each variable which may hold objects.
+ */
+public class AsyncMatFileReader implements Closeable {
+	/** Receives the outcome of an asynchronous read. */
+	public interface Callback<T> {
+		void completed(T result);
+
+		void failed(Throwable error);
+	}
+
+	private final RandomAccessFile raFile;
+	private final FileChannel channel;
+	private final Executor executor;
+	private final MatFileIndex index;
+	private final ByteBuffer header;
+	private final MatFileEntry subsysData;
+
+	/**
+	 * Opens the given MAT-file, whose variables are read by tasks of
+	 * <code>executor</code>.
+	 */
+	public AsyncMatFileReader(File file, Executor executor) throws IOException {
+		this.executor = executor;
+		raFile = new RandomAccessFile(file, "r");
+		try {
+			channel = raFile.getChannel();
+			MatFileIndex sidecar = MatFileSidecar.read(file, null);
+			index = sidecar != null ? sidecar : MatFileIndex.scan(channel);
+			header = MatFileIndex.read(channel, 0, MatFileIndex.HEADER_LENGTH);
+			header.order(index.getHeader().getByteOrder());
+			long subsysOffset = header.getLong(MatFileIndex.SUBSYS_OFFSET_POSITION);
+			MatFileEntry subsys = null;
+			for (MatFileEntry entry : index.getEntries()) {
+				if (entry.getOffset() == subsysOffset) {
+					subsys = entry;
+				}
+			}
+			subsysData = subsys;
+		} catch (IOException e) {
+			raFile.close();
+			throw e;
+		}
+	}
+
+	/** Returns the index of the file. */
+	public MatFileIndex getIndex() {
+		return index;
+	}
+
+	/** Reads the variable with the given name.  The future fails with an <code>IllegalArgumentException</code> if there is none. */
+	public Future<MLArray> read(String name) {
+		return read(name, null);
+	}
+
+	/**
+	 * Reads the variable with the given name, and calls <code>callback</code>
+	 * on the executor thread once it is read, or once it failed.
+	 */
+	public Future<MLArray> read(final String name, Callback<MLArray> callback) {
+		final MatFileEntry entry = index.getEntry(name);
+		FutureTask<MLArray> task = new CallbackTask<MLArray>(new Callable<MLArray>() {
+			@Override
+			public MLArray call() throws Exception {
+				if (entry == null) {
+					throw new IllegalArgumentException("There is no variable named " + name + ".");
+				}
+				return decode(entry);
+			}
+		}, callback);
+		if (entry == null) {
+			task.run();
+		} else {
+			executor.execute(task);
+		}
+		return task;
+	}
+
+	/** Reads all the variables which match <code>filter</code>. */
+	public Future<Map<String, MLArray>> readAll(MatFileFilter filter) {
+		return readAll(filter, null);
+	}
+
+	/**
+	 * Reads all the variables which match <code>filter</code>, each by its
+	 * own task, and calls <code>callback</code> once all of them are read,
+	 * or once one of them failed.  The map is in file order.
+	 */
+	public Future<Map<String, MLArray>> readAll(MatFileFilter filter, Callback<Map<String, MLArray>> callback) {
+		final List<String> names = new ArrayList<String>();
+		for (String name : index.getNames()) {
+			if (filter.matches(name) && (subsysData == null || index.getEntry(name) != subsysData)) {
+				names.add(name);
+			}
+		}
+		final List<Future<MLArray>> futures = new ArrayList<Future<MLArray>>();
+		// completed by the task of the last variable, so that no task waits for another
+		final FutureTask<Map<String, MLArray>> all = new CallbackTask<Map<String, MLArray>>(new Callable<Map<String, MLArray>>() {
+			@Override
+			public Map<String, MLArray> call() throws Exception {
+				Map<String, MLArray> content = new LinkedHashMap<String, MLArray>();
+				for (int i = 0; i < names.size(); i++) {
+					try {
+						content.put(names.get(i), futures.get(i).get());
+					} catch (ExecutionException e) {
+						throw rethrow(e.getCause());
+					}
+				}
+				return content;
+			}
+		}, callback);
+		if (names.isEmpty()) {
+			all.run();
+			return all;
+		}
+		final AtomicInteger remaining = new AtomicInteger(names.size());
+		Callback<MLArray> countdown = new Callback<MLArray>() {
+			@Override
+			public void completed(MLArray result) {
+				if (remaining.decrementAndGet() == 0) {
+					all.run();
+				}
+			}
+
+			@Override
+			public void failed(Throwable error) {
+				completed(null);
+			}
+		};
+		for (String name : names) {
+			futures.add(new CallbackTask<MLArray>(decoder(index.getEntry(name)), countdown));
+		}
+		for (Future<MLArray> future : futures) {
+			executor.execute((FutureTask<MLArray>) future);
+		}
+		return all;
+	}
+
+	/** Closes the file.  The reads which have not started yet will fail. */
+	@Override
+	public void close() throws IOException {
+		raFile.close();
+	}
+
+	private Callable<MLArray> decoder(final MatFileEntry entry) {
+		return new Callable<MLArray>() {
+			@Override
+			public MLArray call() throws Exception {
+				return decode(entry);
+			}
+		};
+	}
+
+	/** Reads and decodes a single variable, along with the subsystem data if it may hold objects. */
+	private MLArray decode(MatFileEntry entry) throws IOException {
+		boolean withSubsys = subsysData != null && MatFileCopier.mayHoldObjects(entry);
+		long length = MatFileIndex.HEADER_LENGTH + entry.getLength() + (withSubsys ? subsysData.getLength() : 0);
+		if (length > Integer.MAX_VALUE) {
+			throw new MatlabIOException("Variable " + entry.getName() + " is too large to be read at once.");
+		}
+		ByteBuffer buf = ByteBuffer.allocate((int) length);
+		buf.put(header.duplicate());
+		ByteBuffer element = buf.slice();
+		element.limit((int) entry.getLength());
+		MatFileIndex.readFully(channel, entry.getOffset(), element);
+		if (withSubsys) {
+			buf.position(MatFileIndex.HEADER_LENGTH + (int) entry.getLength());
+			MatFileIndex.readFully(channel, subsysData.getOffset(), buf.slice());
+		}
+		buf.clear();
+		return new MatFileReader().read(buf, new MatFileFilter()).get(entry.getName());
+	}
+
+	private static Exception rethrow(Throwable cause) {
+		if (cause instanceof Exception) {
+			return (Exception) cause;
+		}
+		throw (Error) cause;
+	}
+
+	/** A task which calls back once it is done. */
+	private static class CallbackTask<T> extends FutureTask<T> {
+		private final Callback<T> callback;
+
+		CallbackTask(Callable<T> callable, Callback<T> callback) {
+			super(callable);
+			this.callback = callback;
+		}
+
+		@Override
+		protected void done() {
+			if (callback == null) {
+				return;
+			}
+			T result;
+			try {
+				result = get();
+			} catch (CancellationException e) {
+				callback.failed(e);
+				return;
+			} catch (ExecutionException e) {
+				callback.failed(e.getCause());
+				return;
+			} catch (InterruptedException e) {
+				// cannot happen once the task is done
+				callback.failed(e);
+				return;
+			}
+			callback.completed(result);
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.io;
+
+import java.nio.ByteBuffer;
+
+import com.jmatio.common.MatDataTypes;
+
+/**
+ * Converts encoded data elements between big-endian and little-endian.
+ * <p>
+ * Every piece of an miMATRIX element is itself a tagged data element, so
+ * the conversion only needs to know the width of each data type, not the
+ * layout of each array class.
+ */
+class ByteSwapper {
+	private ByteSwapper() {}
+
+	/**
+	 * Swaps the byte order of the data elements in <code>[start, end)</code>,
+	 * in place.  The elements are parsed in the order of <code>buf</code>,
+	 * whose order is left unchanged.
+	 */
+	static void swapElements(ByteBuffer buf, int start, int end) {
+		int pos = start;
+		while (pos < end) {
+			int tag = buf.getInt(pos);
+			if (tag >>> 16 != 0) {
+				// small data element format: size and type share the first four bytes
+				int type = tag & 0xffff;
+				int size = tag >>> 16;
+				swapData(buf, pos + 4, size, widthOf(type));
+				swap(buf, pos, 4);
+				pos += 8;
+			} else {
+				int type = tag;
+				int size = buf.getInt(pos + 4);
+				if (type == MatDataTypes.miMATRIX) {
+					swapElements(buf, pos + 8, pos + 8 + size);
+				} else {
+					swapData(buf, pos + 8, size, widthOf(type));
+				}
+				swap(buf, pos, 4);
+				swap(buf, pos + 4, 4);
+				pos += 8 + size + (size % 8 == 0 ? 0 : 8 - size % 8);
+			}
+		}
+	}
+
+	private static void swapData(ByteBuffer buf, int pos, int size, int width) {
+		if (width == 1) {
+			return;
+		}
+		for (int end = pos + size - size % width; pos < end; pos += width) {
+			swap(buf, pos, width);
+		}
+	}
+
+	/** Reverses the <code>width</code> bytes at <code>pos</code>. */
+	private static void swap(ByteBuffer buf, int pos, int width) {
+		for (int lo = pos, hi = pos + width - 1; lo < hi; lo++, hi--) {
+			byte tmp = buf.get(lo);
+			buf.put(lo, buf.get(hi));
+			buf.put(hi, tmp);
+		}
+	}
+
+	/** Returns the number of bytes of a single value of the given data type. */
+	static int widthOf(int type) {
+		switch (type) {
+		case MatDataTypes.miINT16:
+		case MatDataTypes.miUINT16:
+		case MatDataTypes.miUTF16:
+			return 2;
+		case MatDataTypes.miINT32:
+		case MatDataTypes.miUINT32:
+		case MatDataTypes.miSINGLE:
+		case MatDataTypes.miUTF32:
+			return 4;
+		case MatDataTypes.miDOUBLE:
+		case MatDataTypes.miINT64:
+		case MatDataTypes.miUINT64:
+			return 8;
+		default:
+			return 1;
+		}
+	}
+}
@@ -0,0 +1,44 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.io;
+
+/**
+ * A point from which {@link ResumableInflater} can resume a zlib stream: the
+ * start of a deflate block, and the output which precedes it.
+ */
+class InflateCheckpoint {
+	private final long inputOffset;
+	private final int bitOffset;
+	private final long outputOffset;
+	private final byte[] window;
+
+	InflateCheckpoint(long inputOffset, int bitOffset, long outputOffset, byte[] window) {
+		this.inputOffset = inputOffset;
+		this.bitOffset = bitOffset;
+		this.outputOffset = outputOffset;
+		this.window = window;
+	}
+
+	/** Returns the offset within the compressed stream of the byte which holds the first bit of the block. */
+	long getInputOffset() {
+		return inputOffset;
+	}
+
+	/** Returns the number of bits of that byte which belong to the previous block. */
+	int getBitOffset() {
+		return bitOffset;
+	}
+
+	/** Returns the offset within the uncompressed stream of the block's first byte. */
+	long getOutputOffset() {
+		return outputOffset;
+	}
+
+	/** Returns the last 32 KB of output before the block, or all of it if there is less. */
+	byte[] getWindow() {
+		return window;
+	}
+}
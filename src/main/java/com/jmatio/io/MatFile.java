@@ -8,6 +8,7 @@ package com.jmatio.io;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
 import java.util.Map;
 
 import com.jmatio.types.MLArray;
@@ -62,6 +63,18 @@ public class MatFile {
 		return new MatFile(reader.getMatFileHeader(), reader.getContent());
 	}
 
+	/**
+	 * Reads a full MAT-file from a <code>FileChannel</code> or a
+	 * <code>SeekableByteChannel</code>, one element at a time.
+	 *
+	 * @see MatFileReader#read(ByteChannel, MatFileFilter)
+	 */
+	public static MatFile readFull(ByteChannel channel) throws IOException {
+		MatFileReader reader = new MatFileReader();
+		reader.read(channel, new MatFileFilter());
+		return new MatFile(reader.getMatFileHeader(), reader.getContent());
+	}
+
 	/** Reads a full set of bytes (including the header). */
 	public static MatFile readFull(RandomAccessFile file) throws IOException {
 		MatFileReader reader = new MatFileReader();
@@ -0,0 +1,19 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.io;
+
+/**
+ * Thrown when reading an array would allocate more memory than the limit
+ * of the read or the {@link MemoryBudget} of the reader allows.
+ *
+ * @see MatFileReader#setMemoryLimit(long)
+ */
+@SuppressWarnings("serial")
+public class MatFileBudgetException extends MatlabIOException {
+	public MatFileBudgetException(String s) {
+		super(s);
+	}
+}
@@ -0,0 +1,16 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.io;
+
+/**
+ * Thrown when a read or a write is cancelled by its {@link MatFileProgressListener}.
+ */
+@SuppressWarnings("serial")
+public class MatFileCancelledException extends MatlabIOException {
+	public MatFileCancelledException(String s) {
+		super(s);
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.io;
+
+import com.jmatio.types.MLArray;
+import com.jmatio.types.MLDouble;
+import com.jmatio.types.MLInt16;
+import com.jmatio.types.MLInt32;
+import com.jmatio.types.MLInt64;
+import com.jmatio.types.MLInt8;
+import com.jmatio.types.MLNumericArray;
+import com.jmatio.types.MLSingle;
+import com.jmatio.types.MLUInt16;
+import com.jmatio.types.MLUInt32;
+import com.jmatio.types.MLUInt64;
+import com.jmatio.types.MLUInt8;
+import com.jmatio.types.StorageAllocator;
+
+/**
+ * The class which a numeric variable is decoded into, instead of the class
+ * it was saved with, along with a gain and an offset applied to each real
+ * value.  The values are converted as they are decoded, so the variable is
+ * allocated once, in its target class.
+ * <p>
+ * Conversions to integer classes round to the nearest integer, and
+ * saturate at the bounds of the class, as MATLAB does.  The imaginary part
+ * of complex variables is scaled by the gain, but not shifted by the
+ * offset.  Values pass through a <code>double</code>, so 64-bit integers
+ * beyond 2^53 lose precision.
+ *
+ * @see MatFileReader#setConversion(String, MatFileConversion)
+ */
+public class MatFileConversion {
+	private final int targetClass;
+	private final double gain;
+	private final double offset;
+
+	private MatFileConversion(int targetClass, double gain, double offset) {
+		bounds(targetClass);
+		this.targetClass = targetClass;
+		this.gain = gain;
+		this.offset = offset;
+	}
+
+	/**
+	 * Decodes into <code>targetClass</code>, one of the numeric classes such
+	 * as <code>MLArray.mxSINGLE_CLASS</code>.
+	 */
+	public static MatFileConversion to(int targetClass) {
+		return new MatFileConversion(targetClass, 1, 0);
+	}
+
+	/** Decodes into <code>targetClass</code> the value <code>raw * gain + offset</code> of each element. */
+	public static MatFileConversion scaled(int targetClass, double gain, double offset) {
+		return new MatFileConversion(targetClass, gain, offset);
+	}
+
+	/** Returns the class which variables are decoded into. */
+	public int getTargetClass() {
+		return targetClass;
+	}
+
+	/** Returns the factor which the values are multiplied by. */
+	public double getGain() {
+		return gain;
+	}
+
+	/** Returns the value which is added to the real values. */
+	public double getOffset() {
+		return offset;
+	}
+
+	/** Returns true if this conversion changes a variable of the given class. */
+	boolean appliesTo(int type) {
+		if (type == MLArray.mxSPARSE_CLASS || !isNumeric(type)) {
+			return false;
+		}
+		return type != targetClass || gain != 1 || offset != 0;
+	}
+
+	/** Returns the lowest value of the target class, which converted values saturate at. */
+	double getMin() {
+		return bounds(targetClass)[0];
+	}
+
+	/** Returns the highest value of the target class, which converted values saturate at. */
+	double getMax() {
+		return bounds(targetClass)[1];
+	}
+
+	/** Returns true if the target class is an unsigned integer class. */
+	boolean isUnsigned() {
+		return targetClass == MLArray.mxUINT8_CLASS || targetClass == MLArray.mxUINT16_CLASS
+				|| targetClass == MLArray.mxUINT32_CLASS || targetClass == MLArray.mxUINT64_CLASS;
+	}
+
+	/** Creates the array which a variable is converted into.  It is no longer logical. */
+	MLNumericArray<?> createArray(String name, int[] dims, int attributes, StorageAllocator allocator) {
+		attributes = (attributes & ~(MLArray.mtFLAG_LOGICAL | MLArray.mtFLAG_TYPE)) | targetClass;
+		switch (targetClass) {
+		case MLArray.mxDOUBLE_CLASS:
+			return new MLDouble(name, dims, targetClass, attributes, allocator);
+		case MLArray.mxSINGLE_CLASS:
+			return new MLSingle(name, dims, targetClass, attributes, allocator);
+		case MLArray.mxINT8_CLASS:
+			return new MLInt8(name, dims, targetClass, attributes, allocator);
+		case MLArray.mxUINT8_CLASS:
+			return new MLUInt8(name, dims, targetClass, attributes, allocator);
+		case MLArray.mxINT16_CLASS:
+			return new MLInt16(name, dims, targetClass, attributes, allocator);
+		case MLArray.mxUINT16_CLASS:
+			return new MLUInt16(name, dims, targetClass, attributes, allocator);
+		case MLArray.mxINT32_CLASS:
+			return new MLInt32(name, dims, targetClass, attributes, allocator);
+		case MLArray.mxUINT32_CLASS:
+			return new MLUInt32(name, dims, targetClass, attributes, allocator);
+		case MLArray.mxINT64_CLASS:
+			return new MLInt64(name, dims, targetClass, attributes, allocator);
+		default:
+			return new MLUInt64(name, dims, targetClass, attributes, allocator);
+		}
+	}
+
+	private static boolean isNumeric(int type) {
+		return type == MLArray.mxDOUBLE_CLASS || type == MLArray.mxSINGLE_CLASS || (type >= MLArray.mxINT8_CLASS && type <= MLArray.mxUINT64_CLASS);
+	}
+
+	private static double[] bounds(int type) {
+		switch (type) {
+		case MLArray.mxDOUBLE_CLASS:
+		case MLArray.mxSINGLE_CLASS:
+			return new double[]{Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY};
+		case MLArray.mxINT8_CLASS:
+			return new double[]{Byte.MIN_VALUE, Byte.MAX_VALUE};
+		case MLArray.mxUINT8_CLASS:
+			return new double[]{0, 0xFF};
+		case MLArray.mxINT16_CLASS:
+			return new double[]{Short.MIN_VALUE, Short.MAX_VALUE};
+		case MLArray.mxUINT16_CLASS:
+			return new double[]{0, 0xFFFF};
+		case MLArray.mxINT32_CLASS:
+			return new double[]{Integer.MIN_VALUE, Integer.MAX_VALUE};
+		case MLArray.mxUINT32_CLASS:
+			return new double[]{0, 0xFFFFFFFFL};
+		case MLArray.mxINT64_CLASS:
+			return new double[]{Long.MIN_VALUE, Long.MAX_VALUE};
+		case MLArray.mxUINT64_CLASS:
+			// the largest double below 2^64
+			return new double[]{0, 0x1.fffffffffffffp63};
+		default:
+			throw new IllegalArgumentException("Cannot convert to " + MLArray.typeToString(type) + ", which is not a numeric class.");
+		}
+	}
+}
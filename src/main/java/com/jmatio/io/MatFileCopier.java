@@ -0,0 +1,244 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import com.jmatio.common.MatDataTypes;
+import com.jmatio.types.MLArray;
+
+/**
+ * Copies variables between MAT-files without decoding them.
+ * <p>
+ * Each top-level element is copied byte for byte, so only the few bytes
+ * which hold the name of each array are ever inflated.  Elements are only
+ * re-encoded when the byte order of a source differs from the target's.
+ * <pre><code>
+ * MatFileCopier copier = new MatFileCopier(new File("merged.mat"));
+ * for (File part : parts) {
+ *     copier.copy(part);
+ * }
+ * copier.close();
+ * </code></pre>
+ *
+ * The target takes the header, and thus the byte order, of the first source.
+ * Copying a variable whose name is already in the target fails before
+ * anything is copied from that source.
+ * <p>
+ * The subsystem data which holds the MCOS objects of a file is copied along
+ * with the first source whose selected variables may hold objects, that is
+ * objects, structures and cells.  The object references of a second source
+ * could not be resolved against it, so copying such variables from another
+ * source which has subsystem data fails.
+ */
+public class MatFileCopier {
+	private final FileChannel channel;
+	private final Set<String> varNames = new HashSet<String>();
+	private ByteOrder byteOrder = null;
+	private boolean hasSubsysData = false;
+
+	/** Creates a copier which writes a new MAT-file. */
+	@SuppressWarnings("resource") // the channel is closed when you call close()
+	public MatFileCopier(File target) throws IOException {
+		this.channel = new FileOutputStream(target).getChannel();
+	}
+
+	/** Copies all the variables of <code>source</code>. */
+	public void copy(File source) throws IOException {
+		copy(source, new MatFileFilter());
+	}
+
+	/**
+	 * Copies the variables of <code>source</code> which match <code>filter</code>.
+	 *
+	 * @throws IllegalArgumentException if one of the variables is already in the target
+	 * @throws MatlabIOException if <code>source</code> is not a valid MAT-file
+	 */
+	public synchronized void copy(File source, MatFileFilter filter) throws IOException {
+		RandomAccessFile raFile = new RandomAccessFile(source, "r");
+		try {
+			FileChannel sourceChannel = raFile.getChannel();
+			MatFileIndex index = MatFileIndex.scan(sourceChannel);
+			ByteBuffer header = MatFileIndex.read(sourceChannel, 0, MatFileIndex.HEADER_LENGTH);
+			header.order(index.getHeader().getByteOrder());
+			long subsysOffset = header.getLong(MatFileIndex.SUBSYS_OFFSET_POSITION);
+
+			// pick the elements first, so that a collision leaves the target untouched
+			List<MatFileEntry> selected = new ArrayList<MatFileEntry>();
+			MatFileEntry subsysData = null;
+			boolean hasObjects = false;
+			for (MatFileEntry entry : index.getEntries()) {
+				if (entry.getOffset() == subsysOffset) {
+					subsysData = entry;
+				} else if (filter.matches(entry.getName())) {
+					if (entry.getName().length() > 0 && varNames.contains(entry.getName())) {
+						throw new IllegalArgumentException("Error: variable " + entry.getName() + " from " + source + " is already in the target.");
+					}
+					selected.add(entry);
+					hasObjects |= mayHoldObjects(entry);
+				}
+			}
+			if (hasObjects && subsysData != null && hasSubsysData) {
+				throw new MatlabIOException("Cannot copy the objects of " + source + ": the target already holds the subsystem data of another file.");
+			}
+
+			if (byteOrder == null) {
+				writeHeader(header);
+			}
+			for (MatFileEntry entry : selected) {
+				copyEntry(sourceChannel, entry, index.getHeader().getByteOrder());
+				if (entry.getName().length() > 0) {
+					varNames.add(entry.getName());
+				}
+			}
+			if (hasObjects && subsysData != null) {
+				ByteBuffer offset = ByteBuffer.allocate(8).order(byteOrder);
+				offset.putLong(0, channel.position());
+				MatFileIndex.writeFully(channel, MatFileIndex.SUBSYS_OFFSET_POSITION, offset);
+				copyEntry(sourceChannel, subsysData, index.getHeader().getByteOrder());
+				hasSubsysData = true;
+			}
+		} finally {
+			raFile.close();
+		}
+	}
+
+	/** Closes the target file.  A copier which never copied anything leaves an empty file. */
+	public synchronized void close() throws IOException {
+		channel.close();
+	}
+
+	/** Copies the variables of <code>source</code> matching <code>filter</code> into a new file. */
+	public static void extract(File source, File target, MatFileFilter filter) throws IOException {
+		MatFileCopier copier = new MatFileCopier(target);
+		try {
+			copier.copy(source, filter);
+		} finally {
+			copier.close();
+		}
+	}
+
+	/**
+	 * Merges the variables of <code>sources</code> into a new file.
+	 *
+	 * @throws IllegalArgumentException if two sources have a variable with the same name
+	 */
+	public static void merge(List<File> sources, File target) throws IOException {
+		MatFileCopier copier = new MatFileCopier(target);
+		try {
+			for (File source : sources) {
+				copier.copy(source);
+			}
+		} finally {
+			copier.close();
+		}
+	}
+
+	/**
+	 * Splits <code>source</code> into one file per variable, named after the
+	 * variable, in <code>directory</code>.  Unnamed variables are skipped.
+	 *
+	 * @return the files which were written, in the order of the variables
+	 */
+	public static List<File> split(File source, File directory) throws IOException {
+		List<File> files = new ArrayList<File>();
+		for (String name : MatFileIndex.scan(source).getNames()) {
+			File target = new File(directory, name + ".mat");
+			extract(source, target, new MatFileFilter(new String[]{name}));
+			files.add(target);
+		}
+		return files;
+	}
+
+	/** Returns true if the array may refer to the MCOS objects in the subsystem data. */
+	static boolean mayHoldObjects(MatFileEntry entry) {
+		switch (entry.getType()) {
+		case MLArray.mxOPAQUE_CLASS:
+		case MLArray.mxOBJECT_CLASS:
+		case MLArray.mxSTRUCT_CLASS:
+		case MLArray.mxCELL_CLASS:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/** Writes the header of the first source, without its subsystem data offset. */
+	private void writeHeader(ByteBuffer header) throws IOException {
+		byteOrder = header.order();
+		header.putLong(MatFileIndex.SUBSYS_OFFSET_POSITION, 0);
+		while (header.hasRemaining()) {
+			channel.write(header);
+		}
+	}
+
+	/** Appends an element, converting it to the byte order of the target if needed. */
+	private void copyEntry(FileChannel source, MatFileEntry entry, ByteOrder sourceOrder) throws IOException {
+		if (sourceOrder == byteOrder) {
+			MatFileEditor.transferFully(source, entry.getOffset(), entry.getLength(), channel);
+			return;
+		}
+		// swapping needs the whole element, inflated, in a single array
+		if (entry.getLength() > Integer.MAX_VALUE || entry.getUncompressedLength() > Integer.MAX_VALUE) {
+			throw new MatlabIOException("Variable " + entry.getName() + " of " + Math.max(entry.getLength(), entry.getUncompressedLength())
+					+ " bytes is too large to be converted to another byte order.");
+		}
+		ByteBuffer element = MatFileIndex.read(source, entry.getOffset(), (int) entry.getLength());
+		element.order(sourceOrder);
+		if (entry.isCompressed()) {
+			ByteBuffer matrix = ByteBuffer.wrap(inflate(element.array(), 8, element.capacity() - 8, (int) entry.getUncompressedLength()));
+			matrix.order(sourceOrder);
+			ByteSwapper.swapElements(matrix, 0, matrix.capacity());
+			byte[] compressed = deflate(matrix.array());
+			ByteBuffer buf = ByteBuffer.allocate(8 + compressed.length).order(byteOrder);
+			buf.putInt(MatDataTypes.miCOMPRESSED).putInt(compressed.length).put(compressed);
+			element = buf;
+		} else {
+			ByteSwapper.swapElements(element, 0, element.capacity());
+		}
+		element.rewind();
+		while (element.hasRemaining()) {
+			channel.write(element);
+		}
+	}
+
+	private static byte[] inflate(byte[] input, int offset, int length, int inflatedLength) throws IOException {
+		InflaterInputStream iis = new InflaterInputStream(new ByteArrayInputStream(input, offset, length));
+		try {
+			ByteArrayOutputStream output = new ByteArrayOutputStream(inflatedLength);
+			byte[] buffer = new byte[1024];
+			int read;
+			while ((read = iis.read(buffer)) > 0) {
+				output.write(buffer, 0, read);
+			}
+			return output.toByteArray();
+		} finally {
+			iis.close();
+		}
+	}
+
+	private static byte[] deflate(byte[] input) throws IOException {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		DeflaterOutputStream dos = new DeflaterOutputStream(compressed);
+		dos.write(input);
+		dos.close();
+		return compressed.toByteArray();
+	}
+}
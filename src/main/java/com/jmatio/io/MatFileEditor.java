@@ -0,0 +1,350 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Adler32;
+
+import com.jmatio.common.MatDataTypes;
+import com.jmatio.types.MLArray;
+
+/**
+ * Replaces and deletes variables of an existing MAT-file without decoding
+ * the variables which are left untouched.
+ * <pre><code>
+ * MatFileEditor editor = new MatFileEditor(new File("mat_file.mat"));
+ * editor.put(new MLDouble("gain", new double[]{0.5}, 1));
+ * editor.delete("scratch");
+ * editor.commit();
+ * </code></pre>
+ *
+ * There are two ways to commit the edits:
+ * <ul>
+ * <li>{@link #commit()} writes a new file next to the original, copying the
+ * untouched elements byte for byte, and renames it over the original.  The
+ * cost is one sequential copy of the file, with no compression involved.</li>
+ * <li>{@link #commitInPlace()} appends the new variables to the end of the
+ * file and overwrites the elements they supersede with tombstones, so the
+ * cost only depends on the size of the edited variables.  The space taken by
+ * the tombstones is reclaimed by {@link #compact(File)}.</li>
+ * </ul>
+ *
+ * A tombstone is a valid <code>miCOMPRESSED</code> element holding a
+ * <code>uint8</code> array named {@value #TOMBSTONE_NAME}, which
+ * {@link MatFileReader} and {@link MatFileIndex} skip.  MATLAB rejects the
+ * name as invalid, so compact a file before handing it to other tools.
+ */
+public class MatFileEditor {
+	/** The name of the arrays which fill the space of superseded elements. */
+	public static final String TOMBSTONE_NAME = "__tombstone__";
+	/** Length of the tombstone's <code>miMATRIX</code> element, data excluded. */
+	private static final int TOMBSTONE_HEADER_LENGTH = 72;
+	/** Maximum number of bytes in a stored deflate block. */
+	private static final int MAX_STORED_BLOCK = 0xffff;
+	/** Length of the header of a stored deflate block. */
+	private static final int STORED_BLOCK_HEADER = 5;
+	/** Length of the zlib header plus the Adler-32 trailer. */
+	private static final int ZLIB_OVERHEAD = 6;
+	/** Maximum length of a single tombstone, whose array length is a signed 32-bit dimension. */
+	private static final long MAX_TOMBSTONE_LENGTH = 1L << 30;
+
+	private final File file;
+	/** Edits in the order they were made, mapped to null for deletions. */
+	private final Map<String, MLArray> edits = new LinkedHashMap<String, MLArray>();
+
+	/**
+	 * Creates an editor for an existing MAT-file.  The file is not read until
+	 * the edits are committed.
+	 */
+	public MatFileEditor(File file) {
+		this.file = file;
+	}
+
+	/** Stores <code>array</code> under its name, replacing any variable with the same name. */
+	public synchronized MatFileEditor put(MLArray array) {
+		if (isTombstone(array.getName())) {
+			throw new IllegalArgumentException("Error: " + TOMBSTONE_NAME + " is a reserved name.");
+		}
+		edits.put(array.getName(), array);
+		return this;
+	}
+
+	/** Deletes the variable with the given name.  Deleting a variable which does not exist is not an error. */
+	public synchronized MatFileEditor delete(String name) {
+		edits.put(name, null);
+		return this;
+	}
+
+	/**
+	 * Writes the edited content to a temporary file in the same directory,
+	 * then renames it over the original file.  Tombstones are dropped.
+	 *
+	 * @throws IOException if the file is not a valid MAT-file, or if it could not be replaced
+	 */
+	public synchronized void commit() throws IOException {
+		File tempFile = File.createTempFile("matfilerw", ".tmp", file.getAbsoluteFile().getParentFile());
+		boolean success = false;
+		try {
+			RandomAccessFile raFile = new RandomAccessFile(file, "r");
+			try {
+				FileOutputStream output = new FileOutputStream(tempFile);
+				try {
+					rewrite(raFile.getChannel(), output.getChannel());
+					output.getChannel().force(true);
+				} finally {
+					output.close();
+				}
+			} finally {
+				raFile.close();
+			}
+			replace(tempFile, file);
+			success = true;
+		} finally {
+			if (!success) {
+				tempFile.delete();
+			}
+		}
+		edits.clear();
+	}
+
+	/**
+	 * Appends the new variables to the file, then overwrites the elements
+	 * which were replaced or deleted with tombstones.
+	 * <p>
+	 * Unlike {@link #commit()} this is not atomic.  If it is interrupted, the
+	 * file holds both versions of a replaced variable and readers keep the
+	 * old one, which comes first.  When a superseded element is too small to
+	 * hold a tombstone, this falls back to {@link #commit()}.
+	 *
+	 * @throws IOException if the file is not a valid MAT-file
+	 */
+	public synchronized void commitInPlace() throws IOException {
+		RandomAccessFile raFile = new RandomAccessFile(file, "rw");
+		try {
+			FileChannel channel = raFile.getChannel();
+			MatFileIndex index = MatFileIndex.scan(channel);
+			for (MatFileEntry entry : index.getEntries()) {
+				if (edits.containsKey(entry.getName()) && tombstoneBlocks(entry.getLength()) < 0) {
+					raFile.close();
+					commit();
+					return;
+				}
+			}
+			ByteOrder byteOrder = index.getHeader().getByteOrder();
+			// append first, so that an interrupted edit never loses a variable
+			channel.position(index.getEndOffset());
+			MatFileIncrementalWriter writer = new MatFileIncrementalWriter(channel, byteOrder);
+			for (MLArray array : edits.values()) {
+				if (array != null) {
+					writer.write(array);
+				}
+			}
+			channel.force(true);
+			for (MatFileEntry entry : index.getEntries()) {
+				if (edits.containsKey(entry.getName())) {
+					writeTombstone(channel, entry.getOffset(), entry.getLength(), byteOrder);
+				}
+			}
+			channel.force(true);
+		} finally {
+			raFile.close();
+		}
+		edits.clear();
+	}
+
+	/**
+	 * Rewrites a MAT-file without its tombstones.
+	 *
+	 * @throws IOException if the file is not a valid MAT-file, or if it could not be replaced
+	 */
+	public static void compact(File file) throws IOException {
+		new MatFileEditor(file).commit();
+	}
+
+	/** Returns true if <code>name</code> is the name of a tombstone. */
+	static boolean isTombstone(String name) {
+		return TOMBSTONE_NAME.equals(name);
+	}
+
+	/** Copies the file behind <code>source</code> into <code>target</code>, applying the edits. */
+	private void rewrite(FileChannel source, FileChannel target) throws IOException {
+		MatFileIndex index = MatFileIndex.scan(source);
+		ByteOrder byteOrder = index.getHeader().getByteOrder();
+
+		ByteBuffer header = MatFileIndex.read(source, 0, MatFileIndex.HEADER_LENGTH);
+		header.order(byteOrder);
+		long subsysOffset = header.getLong(MatFileIndex.SUBSYS_OFFSET_POSITION);
+		while (header.hasRemaining()) {
+			target.write(header);
+		}
+
+		MatFileIncrementalWriter writer = new MatFileIncrementalWriter(target, byteOrder);
+		Set<String> written = new HashSet<String>();
+		for (MatFileEntry entry : index.getEntries()) {
+			String name = entry.getName();
+			if (entry.getOffset() == subsysOffset) {
+				// the subsystem data moves along with the elements before it
+				ByteBuffer offset = ByteBuffer.allocate(8).order(byteOrder);
+				offset.putLong(0, target.position());
+				MatFileIndex.writeFully(target, MatFileIndex.SUBSYS_OFFSET_POSITION, offset);
+			}
+			if (!edits.containsKey(name)) {
+				transferFully(source, entry.getOffset(), entry.getLength(), target);
+			} else if (edits.get(name) != null && written.add(name)) {
+				writer.write(edits.get(name));
+			}
+		}
+		for (MLArray array : edits.values()) {
+			if (array != null && written.add(array.getName())) {
+				writer.write(array);
+			}
+		}
+	}
+
+	/** Copies <code>[position, position + count)</code> of <code>source</code> to the current position of <code>target</code>. */
+	static void transferFully(FileChannel source, long position, long count, WritableByteChannel target) throws IOException {
+		while (count > 0) {
+			long transferred = source.transferTo(position, count, target);
+			if (transferred <= 0) {
+				throw new IOException("Could not copy " + count + " bytes at offset " + position);
+			}
+			position += transferred;
+			count -= transferred;
+		}
+	}
+
+	/** Renames <code>source</code> over <code>target</code>. */
+	static void replace(File source, File target) throws IOException {
+		if (source.renameTo(target)) {
+			return;
+		}
+		// some platforms won't rename over an existing file
+		if (!target.delete() || !source.renameTo(target)) {
+			throw new IOException("Could not rename " + source + " to " + target);
+		}
+	}
+
+	/**
+	 * Returns the number of stored deflate blocks a tombstone of the given
+	 * length is made of, or -1 if the length is too small for a tombstone.
+	 * <p>
+	 * The tombstone's compressed data is a zlib stream of stored blocks, each of
+	 * which costs 5 bytes on top of its content.  The uncompressed content must
+	 * be a multiple of 8 bytes, so empty blocks are added to absorb the rest.
+	 */
+	static int tombstoneBlocks(long length) {
+		long streamLength = length - 8 - ZLIB_OVERHEAD;
+		int blocks = (int) Math.max(1, (streamLength + MAX_STORED_BLOCK + STORED_BLOCK_HEADER - 1) / (MAX_STORED_BLOCK + STORED_BLOCK_HEADER));
+		for (int end = blocks + 8; blocks < end; blocks++) {
+			long content = streamLength - (long) STORED_BLOCK_HEADER * blocks;
+			if (content < TOMBSTONE_HEADER_LENGTH) {
+				return -1;
+			}
+			if (content % 8 == 0 && content <= (long) MAX_STORED_BLOCK * blocks) {
+				return blocks;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Overwrites the element at <code>offset</code> with tombstones of exactly
+	 * <code>length</code> bytes in all, each at most 1 GB long.
+	 */
+	static void writeTombstone(FileChannel channel, long offset, long length, ByteOrder byteOrder) throws IOException {
+		writeTombstones(channel, offset, length, byteOrder, MAX_TOMBSTONE_LENGTH);
+	}
+
+	/**
+	 * Overwrites <code>length</code> bytes at <code>offset</code> with consecutive
+	 * tombstones of at most <code>maxLength</code> bytes, none shorter than half
+	 * of it unless it is alone.
+	 */
+	static void writeTombstones(FileChannel channel, long offset, long length, ByteOrder byteOrder, long maxLength) throws IOException {
+		while (length > maxLength) {
+			// leave at least half the maximum, which is long enough for a tombstone
+			long piece = Math.min(maxLength, length - maxLength / 2);
+			writeSingleTombstone(channel, offset, piece, byteOrder);
+			offset += piece;
+			length -= piece;
+		}
+		writeSingleTombstone(channel, offset, length, byteOrder);
+	}
+
+	/** Overwrites the element at <code>offset</code> with a single tombstone of exactly <code>length</code> bytes. */
+	private static void writeSingleTombstone(FileChannel channel, long offset, long length, ByteOrder byteOrder) throws IOException {
+		int blocks = tombstoneBlocks(length);
+		if (blocks < 0) {
+			throw new IllegalArgumentException("An element of " + length + " bytes is too small for a tombstone.");
+		}
+		long content = length - 8 - ZLIB_OVERHEAD - (long) STORED_BLOCK_HEADER * blocks;
+		int dataBlocks = (int) ((content + MAX_STORED_BLOCK - 1) / MAX_STORED_BLOCK);
+
+		// the uncompressed miMATRIX element: a 1xN uint8 array of zeros
+		long dataLength = content - TOMBSTONE_HEADER_LENGTH;
+		ByteBuffer matrix = ByteBuffer.allocate(TOMBSTONE_HEADER_LENGTH).order(byteOrder);
+		matrix.putInt(MatDataTypes.miMATRIX).putInt((int) (content - 8));
+		matrix.putInt(MatDataTypes.miUINT32).putInt(8).putInt(MLArray.mxUINT8_CLASS).putInt(0);
+		matrix.putInt(MatDataTypes.miINT32).putInt(8).putInt(1).putInt((int) dataLength);
+		matrix.putInt(MatDataTypes.miINT8).putInt(TOMBSTONE_NAME.length());
+		matrix.put(TOMBSTONE_NAME.getBytes("US-ASCII"));
+		matrix.position(matrix.position() + 16 - TOMBSTONE_NAME.length());
+		matrix.putInt(MatDataTypes.miUINT8).putInt((int) dataLength);
+		byte[] head = matrix.array();
+
+		Adler32 adler = new Adler32();
+		adler.update(head);
+		byte[] zeros = new byte[MAX_STORED_BLOCK];
+		for (long remaining = dataLength; remaining > 0; remaining -= zeros.length) {
+			adler.update(zeros, 0, (int) Math.min(zeros.length, remaining));
+		}
+
+		ByteBuffer prefix = ByteBuffer.allocate(8 + 2 + STORED_BLOCK_HEADER * (blocks - dataBlocks));
+		prefix.order(byteOrder);
+		prefix.putInt(MatDataTypes.miCOMPRESSED).putInt((int) (length - 8));
+		// zlib header: deflate with a 32K window, no preset dictionary
+		prefix.put((byte) 0x78).put((byte) 0x01);
+		for (int i = dataBlocks; i < blocks; i++) {
+			putStoredBlockHeader(prefix, 0, false);
+		}
+		prefix.flip();
+		long position = offset + MatFileIndex.writeFully(channel, offset, prefix);
+
+		ByteBuffer buf = ByteBuffer.allocate(STORED_BLOCK_HEADER + MAX_STORED_BLOCK + 4);
+		long written = 0;
+		for (int i = 0; i < dataBlocks; i++) {
+			int blockLength = (int) Math.min(MAX_STORED_BLOCK, content - written);
+			putStoredBlockHeader(buf, blockLength, i == dataBlocks - 1);
+			for (int j = 0; j < blockLength; j++, written++) {
+				buf.put(written < head.length ? head[(int) written] : 0);
+			}
+			if (i == dataBlocks - 1) {
+				buf.putInt((int) adler.getValue());
+			}
+			buf.flip();
+			position += MatFileIndex.writeFully(channel, position, buf);
+			buf.clear();
+		}
+	}
+
+	/** Puts the header of a stored deflate block, whose length fields are little-endian. */
+	private static void putStoredBlockHeader(ByteBuffer buf, int length, boolean last) {
+		buf.put((byte) (last ? 1 : 0));
+		buf.put((byte) length).put((byte) (length >>> 8));
+		buf.put((byte) ~length).put((byte) (~length >>> 8));
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.io;
+
+import java.util.Arrays;
+
+import com.jmatio.common.MatDataTypes;
+import com.jmatio.types.MLArray;
+
+/**
+ * A top-level data element of a MAT-file, located by {@link MatFileIndex}
+ * without decoding its content.
+ * <p>
+ * The element occupies the bytes <code>[getOffset(), getOffset() + getLength())</code>
+ * of the file, tag included, so it can be copied verbatim into another
+ * MAT-file with the same byte order.
+ */
+public class MatFileEntry {
+	private final long offset;
+	private final int dataType;
+	private final long size;
+	private final String name;
+	private final int type;
+	private final int attributes;
+	private final int[] dims;
+	private final long uncompressedLength;
+
+	MatFileEntry(long offset, int dataType, long size, String name, int flags, int[] dims, long uncompressedLength) {
+		this.offset = offset;
+		this.dataType = dataType;
+		this.size = size;
+		this.name = name;
+		this.type = flags & MLArray.mtFLAG_TYPE;
+		this.attributes = flags;
+		this.dims = dims;
+		this.uncompressedLength = uncompressedLength;
+	}
+
+	/** Returns the file offset of the element's tag. */
+	public long getOffset() {
+		return offset;
+	}
+
+	/** Returns the number of bytes taken by the element, including its 8-byte tag. */
+	public long getLength() {
+		return 8 + size;
+	}
+
+	/** Returns the element's data type, either <code>miCOMPRESSED</code> or <code>miMATRIX</code>. */
+	public int getDataType() {
+		return dataType;
+	}
+
+	public boolean isCompressed() {
+		return dataType == MatDataTypes.miCOMPRESSED;
+	}
+
+	/** Returns the number of bytes of the <code>miMATRIX</code> element, tag included, once inflated. */
+	public long getUncompressedLength() {
+		return uncompressedLength;
+	}
+
+	/** Returns the name of the array, which is empty for unnamed arrays such as the MCOS subsystem data. */
+	public String getName() {
+		return name;
+	}
+
+	/** Returns the MATLAB array class, as in {@link MLArray#getType()}. */
+	public int getType() {
+		return type;
+	}
+
+	/** Returns the dimensions of the array, which are empty for opaque arrays because they are stored inside their content. */
+	public int[] getDimensions() {
+		return Arrays.copyOf(dims, dims.length);
+	}
+
+	public boolean isComplex() {
+		return (attributes & MLArray.mtFLAG_COMPLEX) == MLArray.mtFLAG_COMPLEX;
+	}
+
+	public boolean isLogical() {
+		return (attributes & MLArray.mtFLAG_LOGICAL) == MLArray.mtFLAG_LOGICAL;
+	}
+
+	/** Returns the array flags, of which the lowest byte is the class. */
+	int getAttributes() {
+		return attributes;
+	}
+
+	@Override
+	public String toString() {
+		return "[" + (name.length() == 0 ? "<unnamed>" : name) + " " + MLArray.typeToString(type)
+				+ " " + MatDataTypes.typeToString(dataType) + " at " + offset + ", " + getLength() + " bytes]";
+	}
+}
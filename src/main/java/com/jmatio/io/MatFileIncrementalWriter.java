@@ -10,7 +10,10 @@ import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.channels.WritableByteChannel;
 import java.util.Collection;
 import java.util.Set;
@@ -64,6 +67,11 @@ import com.jmatio.types.MLStructure;
  * >> save('mat_file.mat', 'char_arr', '-append');
  * </pre></code>
  * 
+ * An existing MAT-file can be extended in the same way with
+ * <code>new MatFileIncrementalWriter(file, true)</code>.  Only the tags
+ * and array names of the existing variables are read, and new variables
+ * are appended in the byte order of the existing file.
+ * 
  * @author 
  */
 public class MatFileIncrementalWriter {
@@ -72,6 +80,10 @@ public class MatFileIncrementalWriter {
 
 	private boolean headerWritten = false;
 	private Set<String> varNames = new TreeSet<String>();
+	/** The byte order of the file, which differs from the default only when appending. */
+	private ByteOrder byteOrder = MatFileHeader.DEFAULT_ENDIAN;
+	/** The progress of all the writes of this writer. */
+	private MatFileProgress progress = new MatFileProgress(null);
 
 	/**
 	 * Creates a writer to a file given the filename.
@@ -96,6 +108,39 @@ public class MatFileIncrementalWriter {
 		this((new FileOutputStream(file)).getChannel());
 	}
 
+	/**
+	 * Creates a writer to a file given the File object, optionally appending
+	 * to the variables already stored in it.
+	 * <p>
+	 * When appending to an existing, non-empty file its header is validated
+	 * and the names of its variables are scanned (see {@link MatFileIndex}),
+	 * so that writing a variable which already exists in the file fails.
+	 * The existing elements are neither decoded nor rewritten.
+	 * 
+	 * @param file - an output <code>File</code>
+	 * @param append - true to keep the existing content of <code>file</code>
+	 * @throws IOException if <code>file</code> is not a valid MAT-file
+	 */
+	@SuppressWarnings("resource") // the channel is closed when you call close()
+	public MatFileIncrementalWriter(File file, boolean append) throws IOException {
+		if (!append || !file.exists() || file.length() == 0) {
+			this.channel = (new FileOutputStream(file)).getChannel();
+			return;
+		}
+		FileChannel fileChannel = new RandomAccessFile(file, "rw").getChannel();
+		try {
+			MatFileIndex index = MatFileIndex.scan(fileChannel);
+			varNames.addAll(index.getNames());
+			byteOrder = index.getHeader().getByteOrder();
+			fileChannel.position(index.getEndOffset());
+		} catch (IOException e) {
+			fileChannel.close();
+			throw e;
+		}
+		this.channel = fileChannel;
+		headerWritten = true;
+	}
+
 	/**
 	 * Creates a writer for a file, given an output channel to the file..
 	 * 
@@ -109,6 +154,27 @@ public class MatFileIncrementalWriter {
 		this.channel = chan;
 	}
 
+	/**
+	 * Creates a writer which continues a MAT-file whose header has already
+	 * been written to <code>chan</code> with the given byte order.
+	 */
+	MatFileIncrementalWriter(WritableByteChannel chan, ByteOrder byteOrder) {
+		this.channel = chan;
+		this.byteOrder = byteOrder;
+		this.headerWritten = true;
+	}
+
+	/**
+	 * Sets the listener which follows the progress of the writes, and may
+	 * cancel them, or null for none.  The progress adds up over all the
+	 * writes of this writer.  A cancelled write throws a
+	 * {@link MatFileCancelledException} before anything of the array is
+	 * written, so the file remains valid.
+	 */
+	public synchronized void setProgressListener(MatFileProgressListener progressListener) {
+		progress = new MatFileProgress(progressListener);
+	}
+
 	public synchronized void write(MLArray data)
 			throws IOException {
 		String vName = data.getName();
@@ -116,9 +182,11 @@ public class MatFileIncrementalWriter {
 			throw new IllegalArgumentException("Error: variable " + vName + " specified more than once for file input.");
 		}
 		try {
+			progress.checkCancelled();
 			//write the header, but only once.
 			if (!headerWritten) {
 				writeHeader(channel);
+				progress.addFileBytes(MatFileIndex.HEADER_LENGTH);
 			}
 
 			//prepare buffer for MATRIX data
@@ -131,24 +199,38 @@ public class MatFileIncrementalWriter {
 			Deflater compresser = new Deflater();
 
 			byte[] input = baos.toByteArray();
+			if (byteOrder != ByteOrder.BIG_ENDIAN) {
+				//the MATRIX bytes are always written big-endian
+				ByteSwapper.swapElements(ByteBuffer.wrap(input), 0, input.length);
+			}
 
 			ByteArrayOutputStream compressed = new ByteArrayOutputStream();
-			DataOutputStream dout = new DataOutputStream(new DeflaterOutputStream(compressed, compresser));
+			try {
+				DataOutputStream dout = new DataOutputStream(progress.counting(new DeflaterOutputStream(compressed, compresser)));
 
-			dout.write(input);
+				dout.write(input);
 
-			dout.close();
-			compressed.close();
+				dout.close();
+				compressed.close();
+			} finally {
+				compresser.end();
+			}
 
 			//write COMPRESSED tag and compressed data into output channel
 			byte[] compressedBytes = compressed.toByteArray();
 			ByteBuffer buf = ByteBuffer.allocateDirect(2 * 4 /* Int size */ + compressedBytes.length);
+			buf.order(byteOrder);
 			buf.putInt(MatDataTypes.miCOMPRESSED);
 			buf.putInt(compressedBytes.length);
 			buf.put(compressedBytes);
 
 			buf.flip();
-			channel.write(buf);
+			while (buf.hasRemaining()) {
+				channel.write(buf);
+			}
+			varNames.add(vName);
+			progress.addFileBytes(buf.limit());
+			progress.elementDone(true);
 		} catch (IOException e) {
 			throw e;
 		} finally {}
@@ -245,9 +327,9 @@ public class MatFileIncrementalWriter {
 			//write char data
 			buffer = new ByteArrayOutputStream();
 			bufferDOS = new DataOutputStream(buffer);
-			Character[] ac = ((MLChar) array).exportChar();
-			for (int i = 0; i < ac.length; i++) {
-				bufferDOS.writeByte((byte) ac[i].charValue());
+			MLChar ac = (MLChar) array;
+			for (int i = 0; i < ac.getSize(); i++) {
+				bufferDOS.writeByte((byte) ac.getChar(i));
 			}
 			tag = new OSArrayTag(MatDataTypes.miUTF8, buffer.toByteArray());
 			tag.writeTo(dos);
@@ -256,78 +338,78 @@ public class MatFileIncrementalWriter {
 		case MLArray.mxDOUBLE_CLASS:
 
 			tag = new OSArrayTag(MatDataTypes.miDOUBLE,
-					((MLNumericArray<?>) array).getRealByteBuffer());
+					((MLNumericArray<?>) array).getRealView());
 			tag.writeTo(dos);
 
 			//write real imaginary
 			if (array.isComplex()) {
 				tag = new OSArrayTag(MatDataTypes.miDOUBLE,
-						((MLNumericArray<?>) array).getImaginaryByteBuffer());
+						((MLNumericArray<?>) array).getImaginaryView());
 				tag.writeTo(dos);
 			}
 			break;
 		case MLArray.mxUINT8_CLASS:
 
 			tag = new OSArrayTag(MatDataTypes.miUINT8,
-					((MLNumericArray<?>) array).getRealByteBuffer());
+					((MLNumericArray<?>) array).getRealView());
 			tag.writeTo(dos);
 
 			//write real imaginary
 			if (array.isComplex()) {
 				tag = new OSArrayTag(MatDataTypes.miUINT8,
-						((MLNumericArray<?>) array).getImaginaryByteBuffer());
+						((MLNumericArray<?>) array).getImaginaryView());
 				tag.writeTo(dos);
 			}
 			break;
 		case MLArray.mxINT8_CLASS:
 
 			tag = new OSArrayTag(MatDataTypes.miINT8,
-					((MLNumericArray<?>) array).getRealByteBuffer());
+					((MLNumericArray<?>) array).getRealView());
 			tag.writeTo(dos);
 
 			//write real imaginary
 			if (array.isComplex()) {
 				tag = new OSArrayTag(MatDataTypes.miINT8,
-						((MLNumericArray<?>) array).getImaginaryByteBuffer());
+						((MLNumericArray<?>) array).getImaginaryView());
 				tag.writeTo(dos);
 			}
 			break;
 		case MLArray.mxINT16_CLASS:
 
 			tag = new OSArrayTag(MatDataTypes.miINT16,
-					((MLNumericArray<?>) array).getRealByteBuffer());
+					((MLNumericArray<?>) array).getRealView());
 			tag.writeTo(dos);
 
 			//write real imaginary
 			if (array.isComplex()) {
 				tag = new OSArrayTag(MatDataTypes.miINT16,
-						((MLNumericArray<?>) array).getImaginaryByteBuffer());
+						((MLNumericArray<?>) array).getImaginaryView());
 				tag.writeTo(dos);
 			}
 			break;
 		case MLArray.mxINT64_CLASS:
 
 			tag = new OSArrayTag(MatDataTypes.miINT64,
-					((MLNumericArray<?>) array).getRealByteBuffer());
+					((MLNumericArray<?>) array).getRealView());
 			tag.writeTo(dos);
 
 			//write real imaginary
 			if (array.isComplex()) {
 				tag = new OSArrayTag(MatDataTypes.miINT64,
-						((MLNumericArray<?>) array).getImaginaryByteBuffer());
+						((MLNumericArray<?>) array).getImaginaryView());
 				tag.writeTo(dos);
 			}
 			break;
 		case MLArray.mxUINT64_CLASS:
 
 			tag = new OSArrayTag(MatDataTypes.miUINT64,
-					((MLNumericArray<?>) array).getRealByteBuffer());
+					((MLNumericArray<?>) array).getRealView());
 			tag.writeTo(dos);
 
 			//write real imaginary
 			if (array.isComplex()) {
 				tag = new OSArrayTag(MatDataTypes.miUINT64,
-						((MLNumericArray<?>) array).getImaginaryByteBuffer());
+						((MLNumericArray<?>) array).getImaginaryView());
 				tag.writeTo(dos);
 			}
 			break;
@@ -346,8 +428,10 @@ public class MatFileIncrementalWriter {
 			}
 			break;
 		case MLArray.mxCELL_CLASS:
-			for (MLArray a : ((MLCell) array).cells()) {
-				writeMatrix(dos, a);
+			// read through get(), which leaves frozen and retained cells untouched
+			MLCell cell = (MLCell) array;
+			for (int i = 0; i < cell.getSize(); i++) {
+				writeMatrix(dos, cell.get(i));
 			}
 			break;
 		case MLArray.mxSPARSE_CLASS:
@@ -0,0 +1,302 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.io;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import com.jmatio.common.MatDataTypes;
+import com.jmatio.types.MLArray;
+
+/**
+ * The directory of a MAT-file: its header and the location, name, class and
+ * dimensions of every top-level element.
+ * <p>
+ * Scanning only reads the element tags plus the few bytes at the start of each
+ * array that hold its flags, dimensions and name.  For <code>miCOMPRESSED</code>
+ * elements only that prefix is inflated, so the cost of a scan does not depend
+ * on the size of the variables.
+ * <pre><code>
+ * MatFileIndex index = MatFileIndex.scan(new File("mat_file.mat"));
+ * for (MatFileEntry entry : index.getEntries()) {
+ *     System.out.println(entry.getName() + " " + Arrays.toString(entry.getDimensions()));
+ * }
+ * </code></pre>
+ */
+public class MatFileIndex {
+	/** Length of the header of a regular MAT-file. */
+	static final int HEADER_LENGTH = 128;
+	/** Position of the subsystem data offset within the header. */
+	static final int SUBSYS_OFFSET_POSITION = 116;
+	/** Number of bytes of each array which are decoded on the first attempt. */
+	private static final int PREFIX_LENGTH = 256;
+	/** Number of compressed bytes handed to the inflater at once while decoding a prefix. */
+	private static final int INPUT_CHUNK = 1024;
+
+	private final MatFileHeader header;
+	private final List<MatFileEntry> entries;
+	private final long endOffset;
+	private final long tombstoneLength;
+
+	MatFileIndex(MatFileHeader header, List<MatFileEntry> entries, long endOffset, long tombstoneLength) {
+		this.header = header;
+		this.entries = Collections.unmodifiableList(entries);
+		this.endOffset = endOffset;
+		this.tombstoneLength = tombstoneLength;
+	}
+
+	/** Scans the given MAT-file. */
+	public static MatFileIndex scan(File file) throws IOException {
+		RandomAccessFile raFile = new RandomAccessFile(file, "r");
+		try {
+			return scan(raFile.getChannel());
+		} finally {
+			raFile.close();
+		}
+	}
+
+	/**
+	 * Scans the MAT-file behind the given channel, using positional reads only.
+	 * The position of the channel is not modified.
+	 *
+	 * @throws MatlabIOException if this is not a valid MAT-file, or if its last element is truncated
+	 */
+	public static MatFileIndex scan(FileChannel channel) throws IOException {
+		long size = channel.size();
+		MatFileHeader header = readHeader(channel);
+
+		List<MatFileEntry> entries = new ArrayList<MatFileEntry>();
+		long tombstoneLength = 0;
+		long offset = HEADER_LENGTH;
+		while (offset < size) {
+			if (size - offset < 8) {
+				throw new MatlabIOException("Truncated element tag at offset " + offset);
+			}
+			ByteBuffer tag = read(channel, offset, 8);
+			tag.order(header.getByteOrder());
+			int dataType = tag.getInt();
+			long elementSize = tag.getInt() & 0xffffffffL;
+			if (dataType != MatDataTypes.miCOMPRESSED && dataType != MatDataTypes.miMATRIX) {
+				throw new MatlabIOException("Incorrect data tag at offset " + offset + ": " + MatDataTypes.typeToString(dataType));
+			}
+			if (offset + 8 + elementSize > size) {
+				throw new MatlabIOException("Truncated element at offset " + offset + ": " + elementSize + " bytes declared, " + (size - offset - 8) + " present.");
+			}
+			MatFileEntry entry = readEntry(channel, header, offset, dataType, elementSize);
+			if (MatFileEditor.isTombstone(entry.getName())) {
+				tombstoneLength += entry.getLength();
+			} else {
+				entries.add(entry);
+			}
+			offset += 8 + elementSize;
+		}
+		return new MatFileIndex(header, entries, offset, tombstoneLength);
+	}
+
+	/**
+	 * Returns the index of the given MAT-file, which is read from its sidecar
+	 * index file if that is still valid, and scanned otherwise.
+	 *
+	 * @see #writeSidecar(File)
+	 */
+	public static MatFileIndex open(File file) throws IOException {
+		MatFileIndex index = MatFileSidecar.read(file, null);
+		return index != null ? index : scan(file);
+	}
+
+	/**
+	 * Writes this index into the sidecar index file of <code>file</code>,
+	 * which must be the file this index was scanned from.  The sidecar is
+	 * named after the file, with an <code>.idx</code> suffix, and is only
+	 * used while the length, modification time and header of the file are
+	 * unchanged.
+	 * <p>
+	 * Besides {@link #open(File)}, <code>MatFileReader</code> uses the sidecar
+	 * to skip the variables which its filter rejects without inflating them.
+	 *
+	 * @throws MatlabIOException if the file no longer matches this index
+	 */
+	public void writeSidecar(File file) throws IOException {
+		MatFileSidecar.write(file, this, null);
+	}
+
+	/** Returns the header of the file. */
+	public MatFileHeader getHeader() {
+		return header;
+	}
+
+	/** Returns the top-level elements in file order, excluding the tombstones left by {@link MatFileEditor#commitInPlace()}. */
+	public List<MatFileEntry> getEntries() {
+		return entries;
+	}
+
+	/** Returns the first element with the given name, or null if there is none. */
+	public MatFileEntry getEntry(String name) {
+		for (MatFileEntry entry : entries) {
+			if (entry.getName().equals(name)) {
+				return entry;
+			}
+		}
+		return null;
+	}
+
+	/** Returns the names of the named elements, in file order. */
+	public Set<String> getNames() {
+		Set<String> names = new LinkedHashSet<String>();
+		for (MatFileEntry entry : entries) {
+			if (entry.getName().length() > 0) {
+				names.add(entry.getName());
+			}
+		}
+		return names;
+	}
+
+	/** Returns the offset just past the last element, where a new element may be appended. */
+	public long getEndOffset() {
+		return endOffset;
+	}
+
+	/** Returns the number of bytes taken by tombstones, which {@link MatFileEditor#compact(File)} would reclaim. */
+	public long getTombstoneLength() {
+		return tombstoneLength;
+	}
+
+	/** Reads and validates the header of a regular MAT-file. */
+	static MatFileHeader readHeader(FileChannel channel) throws IOException {
+		if (channel.size() < HEADER_LENGTH) {
+			throw new MatlabIOException("This is not a valid MATLAB 5.0 MAT-file.");
+		}
+		ByteBuffer buf = read(channel, 0, HEADER_LENGTH);
+		MatFileReader reader = new MatFileReader();
+		try {
+			reader.readHeader(buf);
+		} catch (IllegalArgumentException e) {
+			throw new MatlabIOException("This is not a valid MATLAB 5.0 MAT-file: " + e.getMessage());
+		}
+		return reader.getMatFileHeader();
+	}
+
+	/** Decodes the flags, dimensions and name of the array stored in the given element. */
+	private static MatFileEntry readEntry(FileChannel channel, MatFileHeader header, long offset, int dataType, long elementSize) throws IOException {
+		boolean compressed = dataType == MatDataTypes.miCOMPRESSED;
+		int wanted = PREFIX_LENGTH;
+		while (true) {
+			ByteBuffer prefix;
+			if (compressed) {
+				prefix = inflatePrefix(channel, offset + 8, elementSize, wanted);
+			} else {
+				prefix = read(channel, offset, (int) Math.min(wanted, 8 + elementSize));
+			}
+			prefix.order(header.getByteOrder());
+			try {
+				return parseEntry(prefix, header, offset, dataType, elementSize);
+			} catch (BufferUnderflowException e) {
+				if (prefix.limit() < wanted) {
+					throw new MatlabIOException("Truncated array header at offset " + offset);
+				}
+				wanted *= 4;
+			}
+		}
+	}
+
+	/** Parses an entry from the start of an miMATRIX element, tag included. */
+	private static MatFileEntry parseEntry(ByteBuffer prefix, MatFileHeader header, long offset, int dataType, long elementSize) throws IOException {
+		int matrixType = prefix.getInt();
+		int matrixSize = prefix.getInt();
+		long uncompressedLength = 8 + (matrixSize & 0xffffffffL);
+		if (matrixType != MatDataTypes.miMATRIX) {
+			throw new MatlabIOException("Incorrect data tag at offset " + offset + ": " + MatDataTypes.typeToString(matrixType));
+		}
+		if (matrixSize == 0) {
+			return new MatFileEntry(offset, dataType, elementSize, "", 0, new int[]{0, 0}, uncompressedLength);
+		}
+		int[] flags = MatFileReader.readFlags(prefix);
+		int[] dims = MatFileReader.readDimension(prefix);
+		String name = MatFileReader.readName(prefix, header);
+		int attributes = flags.length != 0 ? flags[0] : 0;
+		if ((attributes & MLArray.mtFLAG_TYPE) == MLArray.mxOPAQUE_CLASS) {
+			// opaque arrays store their name where the dimensions would be,
+			// and the name of their type system ("MCOS", "java") as the name
+			byte[] nameBytes = new byte[dims.length];
+			for (int i = 0; i < dims.length; i++) {
+				nameBytes[i] = (byte) dims[i];
+			}
+			name = new String(nameBytes, MatDataTypes.CHARSET);
+			dims = new int[0];
+		}
+		return new MatFileEntry(offset, dataType, elementSize, name, attributes, dims, uncompressedLength);
+	}
+
+	/** Inflates at most <code>wanted</code> bytes from the start of a compressed element. */
+	private static ByteBuffer inflatePrefix(FileChannel channel, long position, long length, int wanted) throws IOException {
+		Inflater inflater = new Inflater();
+		try {
+			byte[] out = new byte[wanted];
+			byte[] in = new byte[(int) Math.min(length, INPUT_CHUNK)];
+			int produced = 0;
+			long consumed = 0;
+			while (produced < wanted && !inflater.finished()) {
+				if (inflater.needsInput()) {
+					if (consumed == length) {
+						break;
+					}
+					int chunk = (int) Math.min(in.length, length - consumed);
+					readFully(channel, position + consumed, ByteBuffer.wrap(in, 0, chunk));
+					consumed += chunk;
+					inflater.setInput(in, 0, chunk);
+				} else if (inflater.needsDictionary()) {
+					throw new MatlabIOException("Could not decompress data: a preset dictionary is required");
+				}
+				produced += inflater.inflate(out, produced, wanted - produced);
+			}
+			return ByteBuffer.wrap(out, 0, produced);
+		} catch (DataFormatException e) {
+			throw new MatlabIOException("Could not decompress data: " + e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/** Reads <code>length</code> bytes at the given position into a new buffer. */
+	static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(length);
+		readFully(channel, position, buf);
+		buf.flip();
+		return buf;
+	}
+
+	/** Fills the remaining space of <code>dst</code> with the bytes at the given position. */
+	static void readFully(FileChannel channel, long position, ByteBuffer dst) throws IOException {
+		while (dst.hasRemaining()) {
+			int read = channel.read(dst, position);
+			if (read < 0) {
+				throw new EOFException("Unexpected end of file at offset " + position);
+			}
+			position += read;
+		}
+	}
+
+	/** Writes the remaining bytes of <code>src</code> at the given position, and returns how many were written. */
+	static int writeFully(FileChannel channel, long position, ByteBuffer src) throws IOException {
+		int length = src.remaining();
+		while (src.hasRemaining()) {
+			position += channel.write(src, position);
+		}
+		return length;
+	}
+}
@@ -0,0 +1,250 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+
+import com.jmatio.common.AbstractIterator;
+import com.jmatio.types.MLArray;
+
+/**
+ * Reads the top-level arrays of a MAT-file one at a time, in file order,
+ * without keeping a reference to the arrays it returned.
+ * <p>
+ * The subsystem data, if the file has any, is read first so that the MCOS
+ * objects of each array are resolved before it is returned.  Errors while
+ * reading are thrown as an <code>IllegalStateException</code> whose cause is
+ * the <code>IOException</code>.
+ *
+ * @see MatFileReader#iterator(java.io.File, MatFileFilter)
+ */
+public class MatFileIterator extends AbstractIterator<MLArray> implements Closeable {
+	private final MatFileReader reader;
+	private final PositionalInput input;
+	private final Closeable owned;
+	private final long size;
+	private final long subsysOffset;
+	private long position;
+	private boolean started;
+	private Prefetcher prefetcher;
+
+	MatFileIterator(MatFileReader reader, PositionalInput input, MatFileFilter filter, Closeable owned) throws IOException {
+		this.reader = reader;
+		this.input = input;
+		this.owned = owned;
+		reader.startIteration(filter);
+		size = input.size();
+		position = reader.readHeader(input);
+		subsysOffset = subsysOffset();
+		if (subsysOffset > 0) {
+			reader.readSubsystem(input, subsysOffset);
+		}
+	}
+
+	/** Returns the offset of the subsystem data given by the header, or 0 if there is none. */
+	private long subsysOffset() throws IOException {
+		if (position < MatFileIndex.HEADER_LENGTH) {
+			// reduced headers have no subsystem data offset
+			return 0;
+		}
+		ByteBuffer offset = ByteBuffer.allocate(8);
+		offset.order(reader.getMatFileHeader().getByteOrder());
+		input.readFully(MatFileIndex.SUBSYS_OFFSET_POSITION, offset);
+		long value = offset.getLong(0);
+		// files without subsystem data hold zeros or spaces
+		return value >= position && value < size ? value : 0;
+	}
+
+	/** Returns the header of the file. */
+	public MatFileHeader getMatFileHeader() {
+		return reader.getMatFileHeader();
+	}
+
+	/**
+	 * Reads and decodes up to <code>depth</code> arrays ahead on a background
+	 * thread while the caller processes the current one, so that reading and
+	 * inflating overlap with the work of the caller.  The thread stops
+	 * reading ahead while the arrays waiting to be returned hold more than
+	 * <code>maxBytes</code> uncompressed bytes, and always reads at least one.
+	 * <p>
+	 * Must be called before the first array is read.
+	 *
+	 * @throws IllegalArgumentException if <code>depth</code> is not positive
+	 * @throws IllegalStateException if arrays were already read
+	 */
+	public MatFileIterator setReadAhead(int depth, long maxBytes) {
+		if (depth < 1) {
+			throw new IllegalArgumentException("The read-ahead depth must be positive.");
+		}
+		if (started) {
+			throw new IllegalStateException("Arrays were already read.");
+		}
+		prefetcher = new Prefetcher(depth, maxBytes);
+		return this;
+	}
+
+	@Override
+	protected MLArray computeNext() {
+		if (!started) {
+			started = true;
+			if (prefetcher != null) {
+				Thread thread = new Thread(prefetcher, "matfilerw-read-ahead");
+				thread.setDaemon(true);
+				prefetcher.thread = thread;
+				thread.start();
+			}
+		}
+		try {
+			MLArray array = prefetcher != null ? prefetcher.take() : readNext();
+			return array != null ? array : endOfData();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/** Reads the next array which matches the filter, or returns null at the end of the file. */
+	private MLArray readNext() throws IOException {
+		while (position < size) {
+			if (position == subsysOffset) {
+				// already read
+				ByteBuffer tag = ByteBuffer.allocate(8);
+				tag.order(reader.getMatFileHeader().getByteOrder());
+				input.readFully(position, tag);
+				position += 8 + (tag.getInt(4) & 0xffffffffL);
+				continue;
+			}
+			position += reader.readElement(input, position);
+			MLArray array = reader.takeElement();
+			if (array != null) {
+				return array;
+			}
+		}
+		return null;
+	}
+
+	/** Closes the file, if the iterator opened it, after stopping the read-ahead thread. */
+	@Override
+	public void close() throws IOException {
+		if (prefetcher != null) {
+			prefetcher.stop();
+		}
+		if (owned != null) {
+			owned.close();
+		}
+	}
+
+	/** Reads arrays ahead on a background thread. */
+	private class Prefetcher implements Runnable {
+		private final int depth;
+		private final long maxBytes;
+		private final LinkedList<Prefetched> queue = new LinkedList<Prefetched>();
+		private long queuedBytes;
+		private boolean stopped;
+		private Thread thread;
+
+		Prefetcher(int depth, long maxBytes) {
+			this.depth = depth;
+			this.maxBytes = maxBytes;
+		}
+
+		@Override
+		public void run() {
+			Prefetched prefetched;
+			try {
+				do {
+					synchronized (this) {
+						while (!stopped && (queue.size() >= depth || (!queue.isEmpty() && queuedBytes >= maxBytes))) {
+							wait();
+						}
+						if (stopped) {
+							return;
+						}
+					}
+					MLArray array = readNext();
+					prefetched = new Prefetched(array, array == null ? 0 : reader.getDecodedLength(), null);
+					put(prefetched);
+				} while (prefetched.array != null);
+			} catch (InterruptedException e) {
+				// stopped
+			} catch (Throwable e) {
+				put(new Prefetched(null, 0, e));
+			}
+		}
+
+		private synchronized void put(Prefetched prefetched) {
+			if (stopped) {
+				return;
+			}
+			queue.add(prefetched);
+			queuedBytes += prefetched.bytes;
+			notifyAll();
+		}
+
+		/**
+		 * Returns the next array, or null at the end of the file.
+		 *
+		 * @throws IllegalStateException if the iterator was closed
+		 */
+		synchronized MLArray take() throws IOException {
+			while (queue.isEmpty()) {
+				if (stopped) {
+					throw new IllegalStateException("The iterator is closed.");
+				}
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException(e);
+				}
+			}
+			Prefetched prefetched = queue.removeFirst();
+			queuedBytes -= prefetched.bytes;
+			notifyAll();
+			if (prefetched.error instanceof IOException) {
+				throw (IOException) prefetched.error;
+			} else if (prefetched.error instanceof RuntimeException) {
+				throw (RuntimeException) prefetched.error;
+			} else if (prefetched.error != null) {
+				throw (Error) prefetched.error;
+			}
+			return prefetched.array;
+		}
+
+		/** Stops the thread, and waits for it to finish the array it is reading. */
+		void stop() {
+			Thread started;
+			synchronized (this) {
+				stopped = true;
+				queue.clear();
+				notifyAll();
+				started = thread;
+			}
+			if (started != null) {
+				try {
+					started.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+
+	/** An array read ahead, or the error which stopped the read-ahead. */
+	private static class Prefetched {
+		final MLArray array;
+		final long bytes;
+		final Throwable error;
+
+		Prefetched(MLArray array, long bytes, Throwable error) {
+			this.array = array;
+			this.bytes = bytes;
+			this.error = error;
+		}
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+
+import com.jmatio.types.MLArray;
+
+/**
+ * The encoded top-level element which an {@link MLArray} was read from.
+ * <p>
+ * It is either a region of the file which was read, or a copy of the
+ * element's bytes when the array was read from a stream.  As long as the
+ * array is not modified and the file is not changed, {@link MatFileWriter}
+ * writes the element back verbatim instead of encoding the array again.
+ *
+ * @see MatFileReader#setRetainOrigins(boolean)
+ */
+public final class MatFileOrigin {
+	private final File file;
+	private final long fileLength;
+	private final long lastModified;
+	private final ByteBuffer bytes;
+	private final long offset;
+	private final long length;
+	private final ByteOrder byteOrder;
+	private final String name;
+	private final long modificationStamp;
+
+	/** Creates the origin of an array which was read from a region of a file. */
+	MatFileOrigin(File file, long offset, long length, ByteOrder byteOrder, MLArray array) {
+		this.file = file;
+		this.fileLength = file.length();
+		this.lastModified = file.lastModified();
+		this.bytes = null;
+		this.offset = offset;
+		this.length = length;
+		this.byteOrder = byteOrder;
+		this.name = array.getName();
+		this.modificationStamp = array.getModificationStamp();
+	}
+
+	/** Creates the origin of an array which was read from a copy of its element. */
+	MatFileOrigin(ByteBuffer bytes, ByteOrder byteOrder, MLArray array) {
+		this.file = null;
+		this.fileLength = 0;
+		this.lastModified = 0;
+		this.bytes = bytes;
+		this.offset = 0;
+		this.length = bytes.remaining();
+		this.byteOrder = byteOrder;
+		this.name = array.getName();
+		this.modificationStamp = array.getModificationStamp();
+	}
+
+	/** Returns the file which holds the element, or null if the element's bytes were retained. */
+	public File getFile() {
+		return file;
+	}
+
+	/** Returns the offset of the element in {@link #getFile()}. */
+	public long getOffset() {
+		return offset;
+	}
+
+	/** Returns the length of the element, tag included. */
+	public long getLength() {
+		return length;
+	}
+
+	public ByteOrder getByteOrder() {
+		return byteOrder;
+	}
+
+	/**
+	 * Returns true if the element still encodes <code>array</code>: the array
+	 * has the same name and has not been modified since it was read, and the
+	 * file holding the element has not changed.
+	 */
+	public boolean isCurrent(MLArray array) {
+		if (!name.equals(array.getName()) || modificationStamp != array.getModificationStamp()) {
+			return false;
+		}
+		return file == null || (file.length() == fileLength && file.lastModified() == lastModified);
+	}
+
+	/** Writes the element verbatim to <code>channel</code>. */
+	void writeTo(WritableByteChannel channel) throws IOException {
+		if (bytes != null) {
+			ByteBuffer buf = bytes.duplicate();
+			while (buf.hasRemaining()) {
+				channel.write(buf);
+			}
+			return;
+		}
+		RandomAccessFile raFile = new RandomAccessFile(file, "r");
+		try {
+			MatFileEditor.transferFully(raFile.getChannel(), offset, length, channel);
+		} finally {
+			raFile.close();
+		}
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.io;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/** Counts the progress of a read or write, and reports it to an optional {@link MatFileProgressListener}. */
+class MatFileProgress {
+	/** The number of inflated or deflated bytes between two reports. */
+	static final int INTERVAL = 1 << 16;
+
+	private final MatFileProgressListener listener;
+	private long fileBytes;
+	private long codedBytes;
+	private long reportedCodedBytes;
+	private int variables;
+
+	MatFileProgress(MatFileProgressListener listener) {
+		this.listener = listener;
+	}
+
+	/** Throws if the listener cancelled the operation. */
+	void checkCancelled() throws MatFileCancelledException {
+		if (listener != null && listener.isCancelled()) {
+			throw new MatFileCancelledException("Cancelled after " + variables + " variables and " + fileBytes + " bytes.");
+		}
+	}
+
+	/** Sets the number of bytes of the file read or written so far. */
+	void setFileBytes(long fileBytes) {
+		this.fileBytes = fileBytes;
+	}
+
+	/** Adds to the number of bytes of the file read or written so far. */
+	void addFileBytes(long bytes) {
+		fileBytes += bytes;
+	}
+
+	/**
+	 * Adds <code>bytes</code> inflated or deflated bytes, and every
+	 * {@link #INTERVAL} bytes reports them and checks for cancellation.
+	 */
+	void addCodedBytes(long bytes) throws MatFileCancelledException {
+		codedBytes += bytes;
+		if (codedBytes - reportedCodedBytes >= INTERVAL) {
+			report();
+			checkCancelled();
+		}
+	}
+
+	/**
+	 * Reports the end of a top-level element, which held a variable unless it
+	 * was filtered out.  Cancellation is checked before the next element, so
+	 * that the element is not reported as both done and cancelled.
+	 */
+	void elementDone(boolean variable) {
+		if (variable) {
+			variables++;
+		}
+		report();
+	}
+
+	private void report() {
+		reportedCodedBytes = codedBytes;
+		if (listener != null) {
+			listener.progress(fileBytes, codedBytes, variables);
+		}
+	}
+
+	/** Returns a stream which counts the bytes written into <code>out</code>, such as a deflater, as coded bytes. */
+	OutputStream counting(OutputStream out) {
+		return new FilterOutputStream(out) {
+			@Override
+			public void write(int b) throws IOException {
+				out.write(b);
+				addCodedBytes(1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				// in chunks, so that large arrays can be cancelled while they are deflated
+				while (len > 0) {
+					int chunk = Math.min(len, INTERVAL);
+					out.write(b, off, chunk);
+					addCodedBytes(chunk);
+					off += chunk;
+					len -= chunk;
+				}
+			}
+		};
+	}
+}
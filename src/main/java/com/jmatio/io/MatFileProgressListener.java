@@ -0,0 +1,36 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.io;
+
+/**
+ * Follows the progress of a read or a write, and may cancel it.
+ * <p>
+ * The listener is called by the reading or writing thread after each
+ * top-level element, and every 64 KB while an element is inflated or
+ * deflated.  {@link #isCancelled()} is checked at the same points, and a
+ * cancelled read or write fails with a {@link MatFileCancelledException}
+ * once the buffers it allocated are released.
+ *
+ * @see MatFileReader#setProgressListener(MatFileProgressListener)
+ * @see MatFileWriter#setProgressListener(MatFileProgressListener)
+ * @see MatFileIncrementalWriter#setProgressListener(MatFileProgressListener)
+ */
+public interface MatFileProgressListener {
+	/**
+	 * Called as the read or write progresses.
+	 *
+	 * @param fileBytes
+	 *            the number of bytes of the file read or written so far
+	 * @param codedBytes
+	 *            the number of bytes inflated or deflated so far
+	 * @param variables
+	 *            the number of top-level variables read or written so far
+	 */
+	void progress(long fileBytes, long codedBytes, int variables);
+
+	/** Returns true once the read or write should stop. */
+	boolean isCancelled();
+}
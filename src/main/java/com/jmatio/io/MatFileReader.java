@@ -5,16 +5,20 @@
  */
 package com.jmatio.io;
 
+import java.io.BufferedInputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.ByteChannel;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -22,6 +26,8 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
 
 import com.jmatio.common.MatDataTypes;
@@ -50,6 +56,7 @@ import com.jmatio.types.MLUInt16;
 import com.jmatio.types.MLUInt32;
 import com.jmatio.types.MLUInt64;
 import com.jmatio.types.MLUInt8;
+import com.jmatio.types.StorageAllocator;
 
 /**
  * MAT-file reader. Reads MAT-file into <code>MLArray</code> objects.
@@ -103,6 +110,69 @@ public class MatFileReader {
 	 * Holds the likely candidate for the MCOS extra data at the end of a MAT file.
 	 */
 	private MLUInt8 mcosData;
+	/**
+	 * Whether each top-level array keeps a reference to the element it was read from.
+	 */
+	private boolean retainOrigins = false;
+	/**
+	 * The file being read, if it is known.
+	 */
+	private File originFile;
+	/**
+	 * The offsets of the elements which the sidecar index of the file being read tells are filtered out.
+	 */
+	private Set<Long> skipped;
+	/**
+	 * The last top-level array decoded by <code>readData</code>.
+	 */
+	private MLArray lastRead;
+	/**
+	 * The uncompressed length of the element read by the last <code>readElement</code>.
+	 */
+	private long decodedLength;
+	/**
+	 * The number of bytes which a single read may allocate.
+	 */
+	private long memoryLimit = Long.MAX_VALUE;
+	/**
+	 * The budget shared with other readers, or null.
+	 */
+	private MemoryBudget memoryBudget;
+	/**
+	 * Whether the arrays which exceed the memory limit or budget are skipped instead of failing the read.
+	 */
+	private boolean skipOversized = false;
+	/**
+	 * The number of bytes allocated by the read in progress.
+	 */
+	private long charged;
+	/**
+	 * The listener of the progress of the reads, or null.
+	 */
+	private MatFileProgressListener progressListener;
+	/**
+	 * The allocator of the storage of numeric arrays.
+	 */
+	private StorageAllocator storageAllocator = StorageAllocator.HEAP;
+	/**
+	 * The classes which top-level numeric arrays are converted into while they are decoded, by name.
+	 */
+	private final Map<String, MatFileConversion> conversions = new HashMap<String, MatFileConversion>();
+	/**
+	 * The arrays which <code>readInto</code> decodes top-level variables into, by name, or null.
+	 */
+	private Map<String, ? extends MLNumericArray<?>> reuse;
+	/**
+	 * The buffers and inflater which <code>readInto</code> keeps from one call to the next.
+	 */
+	private ByteBuffer tagScratch;
+	private ByteBuffer elementScratch;
+	private ByteBuffer compressedScratch;
+	private Inflater inflater;
+	/**
+	 * The progress of the read in progress.
+	 */
+	private MatFileProgress progress = new MatFileProgress(null);
 
 	/**
 	 * Creates instance of <code>MatFileReader</code> and reads MAT-file 
@@ -303,9 +373,367 @@ public class MatFileReader {
 	 *             if error occurs during file processing
 	 */
 	private static final int DIRECT_BUFFER_LIMIT = 1 << 25;
+	/** Number of compressed bytes read at once when inflating from a channel. */
+	private static final int INPUT_BUFFER_SIZE = 1 << 16;
+	/** Number of inflated bytes which hold the header of a compressed matrix, for it to be streamed. */
+	private static final int STREAMING_HEAD_SIZE = 1 << 10;
+	/** Number of inflated bytes decoded at once into the storage of a streamed matrix. */
+	private static final int STREAMING_CHUNK_SIZE = 1 << 16;
 
 	public synchronized Map<String, MLArray> read(File file, MatFileFilter filter, int policy) throws IOException {
-		return read(new RandomAccessFile(file, "r"), filter, policy);
+		originFile = file;
+		try {
+			if (matType == MatFileType.Regular) {
+				skipped = skippedElements(MatFileSidecar.read(file, null), filter);
+			}
+			return read(new RandomAccessFile(file, "r"), filter, policy);
+		} finally {
+			originFile = null;
+			skipped = null;
+		}
+	}
+
+	/**
+	 * Decodes the variables of <code>file</code> named by the keys of
+	 * <code>targets</code> into the storage of the arrays they map to,
+	 * instead of allocating new arrays.  Meant for loops which read files of
+	 * the same layout over and over: the buffers used to read and inflate
+	 * the elements are kept by this reader for the next call, so that a read
+	 * allocates next to nothing once they have grown to size.
+	 * <p>
+	 * Each target must have the class of its variable, or the target class
+	 * of its {@link #setConversion(String, MatFileConversion) conversion},
+	 * along with its dimensions and complexity.  The headers of the variables
+	 * are checked against the targets before any of them is written to, and
+	 * the other variables of the file are skipped by length without being
+	 * inflated.  Primitive buffers can be decoded into by wrapping them, e.g.
+	 * with {@link MLDouble#wrap(String, int[], ByteBuffer)}.
+	 * <p>
+	 * The scratch buffers count against the {@link #setMemoryLimit(long) memory limit}.
+	 *
+	 * @throws MatlabIOException if a variable does not match its target, or is not in the file, or if a target is frozen
+	 */
+	public synchronized void readInto(File file, Map<String, ? extends MLNumericArray<?>> targets) throws IOException {
+		RandomAccessFile raFile = new RandomAccessFile(file, "r");
+		try {
+			readInto(raFile.getChannel(), targets);
+		} finally {
+			raFile.close();
+		}
+	}
+
+	/** Decodes the variables of the MAT-file <code>channel</code> into <code>targets</code>, as {@link #readInto(File, Map)} does. */
+	public synchronized void readInto(FileChannel channel, Map<String, ? extends MLNumericArray<?>> targets) throws IOException {
+		// the headers are checked first, so that a mismatch leaves every target untouched
+		List<MatFileEntry> entries = new ArrayList<MatFileEntry>();
+		Set<String> missing = new HashSet<String>(targets.keySet());
+		for (MatFileEntry entry : MatFileIndex.scan(channel).getEntries()) {
+			MLNumericArray<?> target = targets.get(entry.getName());
+			if (target != null) {
+				checkTarget(target, entry.getName(), entry.getType(), entry.isComplex(), entry.getDimensions());
+				entries.add(entry);
+				missing.remove(entry.getName());
+			}
+		}
+		if (!missing.isEmpty()) {
+			throw new MatlabIOException("Variables " + missing + " are not in the file.");
+		}
+
+		PositionalInput input = PositionalInput.of(channel);
+		filter = new MatFileFilter();
+		reuse = targets;
+		progress = new MatFileProgress(progressListener);
+		try {
+			readHeader(input);
+			charge(scratchCapacity(), "the scratch buffers");
+			for (MatFileEntry entry : entries) {
+				readElementInto(input, entry.getOffset());
+			}
+		} finally {
+			reuse = null;
+			lastRead = null;
+			data.clear();
+			mcosToFind.clear();
+			discharge(charged);
+		}
+	}
+
+	/** Returns the number of bytes held by the scratch buffers of <code>readInto</code>. */
+	private long scratchCapacity() {
+		long capacity = 0;
+		if (elementScratch != null) {
+			capacity += elementScratch.capacity();
+		}
+		if (compressedScratch != null) {
+			capacity += compressedScratch.capacity();
+		}
+		return capacity;
+	}
+
+	/** Reads the element at <code>position</code> with the scratch buffers of <code>readInto</code>, and returns its length. */
+	private long readElementInto(PositionalInput input, long position) throws IOException {
+		if (tagScratch == null) {
+			tagScratch = ByteBuffer.allocate(8);
+		}
+		tagScratch.clear();
+		tagScratch.order(matFileHeader.getByteOrder());
+		progress.checkCancelled();
+		input.readFully(position, tagScratch);
+		long length = 8 + (tagScratch.getInt(4) & 0xffffffffL);
+		if (length > Integer.MAX_VALUE) {
+			throw new MatlabIOException("An element of " + length + " bytes is too large to be read at once.");
+		}
+		ByteBuffer element;
+		if (tagScratch.getInt(0) == MatDataTypes.miCOMPRESSED) {
+			element = inflateScratch(input, position + 8, (int) length - 8);
+		} else {
+			element = elementScratch((int) length);
+			input.readFully(position, element);
+			element.flip();
+		}
+		element.order(matFileHeader.getByteOrder());
+		lastRead = null;
+		readData(element);
+		progress.setFileBytes(position + length);
+		progress.elementDone(lastRead != null);
+		return length;
+	}
+
+	/** Returns the scratch buffer for elements, grown to hold at least <code>capacity</code> bytes, with its limit set to <code>capacity</code>. */
+	private ByteBuffer elementScratch(int capacity) throws MatFileBudgetException {
+		if (elementScratch == null || elementScratch.capacity() < capacity) {
+			charge(capacity - (elementScratch == null ? 0 : elementScratch.capacity()), "an element of " + capacity + " bytes");
+			elementScratch = ByteBuffer.allocate(capacity);
+		}
+		elementScratch.clear();
+		elementScratch.limit(capacity);
+		return elementScratch;
+	}
+
+	/** Inflates the compressed element of <code>length</code> bytes at <code>position</code> into the scratch buffer for elements. */
+	private ByteBuffer inflateScratch(PositionalInput input, long position, int length) throws IOException {
+		if (compressedScratch == null || compressedScratch.capacity() < length) {
+			charge(length - (compressedScratch == null ? 0 : compressedScratch.capacity()), "a compressed element of " + length + " bytes");
+			compressedScratch = ByteBuffer.allocate(length);
+		}
+		compressedScratch.clear();
+		compressedScratch.limit(length);
+		input.readFully(position, compressedScratch);
+		if (inflater == null) {
+			inflater = new Inflater();
+		} else {
+			inflater.reset();
+		}
+		inflater.setInput(compressedScratch.array(), 0, length);
+		ByteBuffer out = elementScratch(elementScratch == null ? Math.max(1024, 2 * length) : elementScratch.capacity());
+		int size = 0;
+		try {
+			while (!inflater.finished()) {
+				if (size == out.capacity()) {
+					long grown = Math.min(Integer.MAX_VALUE - 8, 2L * size);
+					charge(grown - size, "an inflated element of more than " + size + " bytes");
+					// the larger buffer is kept for the next call
+					ByteBuffer larger = ByteBuffer.allocate((int) grown);
+					larger.put(out.array(), 0, size);
+					elementScratch = larger;
+					out = larger;
+				}
+				int inflated = inflater.inflate(out.array(), size, out.capacity() - size);
+				if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new MatlabIOException("Could not decompress data: the element is truncated.");
+				}
+				size += inflated;
+				progress.addCodedBytes(inflated);
+			}
+		} catch (DataFormatException e) {
+			throw new MatlabIOException("Could not decompress data: " + e);
+		}
+		out.clear();
+		out.limit(size);
+		return out;
+	}
+
+	/**
+	 * Returns the offsets of the named elements of <code>index</code> which
+	 * <code>filter</code> rejects, or null if there are none.
+	 */
+	private static Set<Long> skippedElements(MatFileIndex index, MatFileFilter filter) {
+		if (index == null) {
+			return null;
+		}
+		Set<Long> offsets = new HashSet<Long>();
+		for (MatFileEntry entry : index.getEntries()) {
+			// unnamed elements may be the subsystem data, which the others refer to
+			if (entry.getName().length() > 0 && !filter.matches(entry.getName())) {
+				offsets.add(entry.getOffset());
+			}
+		}
+		return offsets.isEmpty() ? null : offsets;
+	}
+
+	/**
+	 * Sets whether the arrays read afterwards keep a reference to the element
+	 * they were read from, which {@link MatFileWriter} uses to write the arrays
+	 * which were not modified without encoding them again.
+	 * <p>
+	 * Arrays read from a <code>File</code> refer to a region of the file, so
+	 * retaining them costs no memory.  Arrays read from a stream, or from a
+	 * <code>RandomAccessFile</code>, keep a copy of their compressed bytes.
+	 * MCOS objects, and arrays which contain them, never keep their origin
+	 * because they depend on the subsystem data of their file.
+	 * 
+	 * @see MLArray#getOrigin()
+	 */
+	public synchronized void setRetainOrigins(boolean retainOrigins) {
+		this.retainOrigins = retainOrigins;
+	}
+
+	/**
+	 * Sets the number of bytes which a single read may allocate for arrays
+	 * and inflated data, or for a single array when iterating.  The dimensions
+	 * declared by each array are checked against the limit before its storage
+	 * is allocated, and inflation stops as soon as its output exceeds the
+	 * limit, so that a corrupt or malicious file fails with a
+	 * {@link MatFileBudgetException} instead of exhausting the heap.  A file
+	 * read into a heap or direct buffer counts as well.  The storage which a
+	 * {@link SpillingStorageAllocator} places in files is not counted.
+	 */
+	public synchronized void setMemoryLimit(long memoryLimit) {
+		if (memoryLimit < 0) {
+			throw new IllegalArgumentException("The memory limit must not be negative.");
+		}
+		this.memoryLimit = memoryLimit;
+	}
+
+	/**
+	 * Sets the budget which the reads of this reader share with other
+	 * readers, or null for none.  The bytes are reserved in the budget as
+	 * they are allocated, and released once each read is done.
+	 */
+	public synchronized void setMemoryBudget(MemoryBudget memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * Sets whether the top-level arrays which exceed the memory limit or
+	 * budget are left out of the content, instead of failing the read.
+	 */
+	public synchronized void setSkipOversized(boolean skipOversized) {
+		this.skipOversized = skipOversized;
+	}
+
+	/**
+	 * Sets the listener which follows the progress of the reads, and may
+	 * cancel them, or null for none.  A cancelled read throws a
+	 * {@link MatFileCancelledException} after releasing its buffers.
+	 */
+	public synchronized void setProgressListener(MatFileProgressListener progressListener) {
+		this.progressListener = progressListener;
+	}
+
+	/**
+	 * Sets the allocator of the storage of the numeric arrays which are read,
+	 * such as {@link StorageAllocator#DIRECT} to keep large arrays off the
+	 * heap, or a {@link SpillingStorageAllocator} to decode arrays larger than
+	 * the heap.  Their storage goes back to the allocator when they are closed.
+	 */
+	public synchronized void setStorageAllocator(StorageAllocator storageAllocator) {
+		if (storageAllocator == null) {
+			throw new IllegalArgumentException("The allocator must not be null.");
+		}
+		this.storageAllocator = storageAllocator;
+	}
+
+	/**
+	 * Sets the conversion which the numeric variable with the given name is
+	 * decoded with, such as <code>MatFileConversion.to(MLArray.mxSINGLE_CLASS)</code>
+	 * to halve the memory of a double variable, or null for none.  The
+	 * values are converted as they are decoded, without a copy in the class
+	 * the variable was saved with.  Other classes of variables are not
+	 * converted.
+	 */
+	public synchronized void setConversion(String name, MatFileConversion conversion) {
+		if (conversion == null) {
+			conversions.remove(name);
+		} else {
+			conversions.put(name, conversion);
+		}
+	}
+
+	/** Accounts for <code>bytes</code> more bytes allocated for <code>what</code>. */
+	private void charge(long bytes, String what) throws MatFileBudgetException {
+		if (bytes > memoryLimit - charged) {
+			throw new MatFileBudgetException("Reading " + what + " exceeds the memory limit of " + memoryLimit + " bytes.");
+		}
+		if (memoryBudget != null && !memoryBudget.tryReserve(bytes)) {
+			throw new MatFileBudgetException("Reading " + what + " exceeds the shared memory budget of " + memoryBudget.getMaxBytes() + " bytes.");
+		}
+		charged += bytes;
+	}
+
+	/** Accounts for <code>bytes</code> bytes which are no longer used. */
+	private void discharge(long bytes) {
+		charged -= bytes;
+		if (memoryBudget != null) {
+			memoryBudget.release(bytes);
+		}
+	}
+
+	/**
+	 * Checks the declared size of an array against the memory limit before
+	 * allocating it, and accounts for it.  The storage which a
+	 * {@link SpillingStorageAllocator} places in files is not accounted for.
+	 */
+	private void chargeDeclared(String name, int type, int attributes, int nzmax, int[] dims) throws MatlabIOException {
+		double declared = declaredBytes(type, attributes, nzmax, dims);
+		int parts = (attributes & MLArray.mtFLAG_COMPLEX) != 0 ? 2 : 1;
+		if (storageAllocator instanceof SpillingStorageAllocator && type != MLArray.mxSPARSE_CLASS
+				&& ((SpillingStorageAllocator) storageAllocator).spills(declared / parts)) {
+			return;
+		}
+		if (declared > memoryLimit - charged) {
+			throw new MatFileBudgetException("Array " + name + " of " + Arrays.toString(dims) + " declares " + (long) declared + " bytes, which exceeds the memory limit of " + memoryLimit + " bytes.");
+		}
+		charge((long) declared, "array " + name);
+	}
+
+	/** Returns the number of bytes which an array with the given flags and dimensions allocates. */
+	private static double declaredBytes(int type, int attributes, int nzmax, int[] dims) throws MatlabIOException {
+		double size = 1;
+		for (int dim : dims) {
+			if (dim < 0) {
+				throw new MatlabIOException("Invalid dimensions: " + Arrays.toString(dims));
+			}
+			size *= dim;
+		}
+		int complex = (attributes & MLArray.mtFLAG_COMPLEX) != 0 ? 2 : 1;
+		switch (type) {
+		case MLArray.mxDOUBLE_CLASS:
+		case MLArray.mxINT64_CLASS:
+		case MLArray.mxUINT64_CLASS:
+			return size * 8 * complex;
+		case MLArray.mxSINGLE_CLASS:
+		case MLArray.mxINT32_CLASS:
+		case MLArray.mxUINT32_CLASS:
+			return size * 4 * complex;
+		case MLArray.mxINT16_CLASS:
+		case MLArray.mxUINT16_CLASS:
+		case MLArray.mxCHAR_CLASS:
+			return size * 2 * complex;
+		case MLArray.mxINT8_CLASS:
+		case MLArray.mxUINT8_CLASS:
+			return size * complex;
+		case MLArray.mxSPARSE_CLASS:
+			// a row index and a value per nonzero element
+			return (double) nzmax * (4 + 8 * complex);
+		case MLArray.mxCELL_CLASS:
+		case MLArray.mxSTRUCT_CLASS:
+		case MLArray.mxOBJECT_CLASS:
+			// a reference per element, the elements themselves are accounted for as they are read
+			return size * 8;
+		default:
+			return 0;
+		}
 	}
 
 	public synchronized Map<String, MLArray> read(RandomAccessFile raFile, MatFileFilter filter, int policy) throws IOException {
@@ -322,6 +750,9 @@ public class MatFileReader {
 			// The bug disables re-opening the memory mapped files for writing
 			// or deleting until the VM stops working. In real life I need to open
 			// and update files
+			if (policy == DIRECT_BYTE_BUFFER || policy == HEAP_BYTE_BUFFER) {
+				charge(roChannel.size(), "a file of " + roChannel.size() + " bytes");
+			}
 			switch (policy) {
 			case DIRECT_BYTE_BUFFER:
 				buf = ByteBuffer.allocateDirect((int) roChannel.size());
@@ -380,16 +811,273 @@ public class MatFileReader {
 			if (raFile != null) {
 				raFile.close();
 			}
+			discharge(charged);
 		}
 	}
 
+	/**
+	 * Reads the MAT-file behind a <code>FileChannel</code> or a
+	 * <code>SeekableByteChannel</code>, such as a file in a zip or in-memory
+	 * file system, using positional reads.  The file is read one element at
+	 * a time and compressed elements are inflated straight from the channel,
+	 * so the file is never copied as a whole.
+	 * <p>
+	 * The position of a <code>SeekableByteChannel</code> is changed, and the
+	 * channel is not closed.
+	 *
+	 * @param channel
+	 *            a <code>FileChannel</code> or a <code>SeekableByteChannel</code>
+	 * @param filter
+	 *            the array filter applied during reading
+	 * @return the same as <code>{@link #getContent()}</code>
+	 * @throws IllegalArgumentException
+	 *             if the channel is not seekable
+	 * @throws IOException
+	 *             if error occurs during file processing
+	 */
+	public synchronized Map<String, MLArray> read(ByteChannel channel, MatFileFilter filter) throws IOException {
+		this.filter = filter;
+		data.clear();
+		parseData(PositionalInput.of(channel));
+		return getContent();
+	}
+
+	/**
+	 * Reads the MAT-file in the bytes of <code>buffer</code> between its
+	 * position and its limit, such as a memory-mapped segment owned by other
+	 * code.  The arrays are decoded straight from the buffer, which is not
+	 * copied, whose position and order are left unchanged, and which is never
+	 * freed.
+	 *
+	 * @param buffer
+	 *            the bytes of a MAT-file
+	 * @param filter
+	 *            the array filter applied during reading
+	 * @return the same as <code>{@link #getContent()}</code>
+	 * @throws IOException
+	 *             if error occurs during file processing
+	 */
+	public synchronized Map<String, MLArray> read(ByteBuffer buffer, MatFileFilter filter) throws IOException {
+		this.filter = filter;
+		data.clear();
+		parseData(buffer.slice());
+		return getContent();
+	}
+
 	private void parseData(ByteBuffer buf) throws IOException {
+		progress = new MatFileProgress(progressListener);
+		try {
+			parseElements(buf);
+		} finally {
+			discharge(charged);
+		}
+	}
+
+	private void parseElements(ByteBuffer buf) throws IOException {
 		//read in file header
 		readHeader(buf);
 
 		while (buf.remaining() > 0) {
-			readData(buf);
+			int start = buf.position();
+			if (skipped != null && skipped.contains((long) start)) {
+				// skip the element without inflating it, as the sidecar index tells it is filtered out
+				buf.position(start + 8 + buf.getInt(start + 4));
+				continue;
+			}
+			progress.checkCancelled();
+			int placeholders = mcosToFind.size();
+			lastRead = null;
+			long before = charged;
+			try {
+				readData(buf);
+			} catch (MatFileBudgetException e) {
+				if (!skipOversized) {
+					throw e;
+				}
+				discharge(charged - before);
+				lastRead = null;
+				buf.position(start + 8 + buf.getInt(start + 4));
+			}
+			if (retainOrigins && lastRead != null && mcosToFind.size() == placeholders && !lastRead.isOpaque() && lastRead != mcosData) {
+				retainOrigin(lastRead, buf, start, buf.position() - start);
+			}
+			progress.setFileBytes(buf.position());
+			progress.elementDone(lastRead != null);
 		}
+		resolveMCOS();
+	}
+
+	/**
+	 * Reads the elements of <code>input</code> one at a time, so that the
+	 * input is never held in memory as a whole.  Compressed elements are
+	 * inflated straight from the input.
+	 */
+	private void parseData(PositionalInput input) throws IOException {
+		progress = new MatFileProgress(progressListener);
+		try {
+			long size = input.size();
+			long position = readHeader(input);
+			while (position < size) {
+				position += readElement(input, position);
+			}
+			resolveMCOS();
+		} finally {
+			discharge(charged);
+		}
+	}
+
+	/** Reads the header of <code>input</code>, and returns the offset of its first element. */
+	long readHeader(PositionalInput input) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate((int) Math.min(input.size(), MatFileIndex.HEADER_LENGTH));
+		input.readFully(0, header);
+		header.flip();
+		readHeader(header);
+		return header.position();
+	}
+
+	/**
+	 * Reads the element of <code>input</code> at <code>position</code>, and
+	 * returns its length.  Compressed elements are inflated straight from the
+	 * input.
+	 */
+	long readElement(PositionalInput input, long position) throws IOException {
+		ByteBuffer tag = ByteBuffer.allocate(8);
+		tag.order(matFileHeader.getByteOrder());
+		progress.checkCancelled();
+		input.readFully(position, tag);
+		long length = 8 + (tag.getInt(4) & 0xffffffffL);
+		int placeholders = mcosToFind.size();
+		lastRead = null;
+		long before = charged;
+		try {
+			if (tag.getInt(0) == MatDataTypes.miCOMPRESSED && !retainOrigins) {
+				decodedLength = readCompressed(new BufferedInputStream(input.openStream(position + 8, length - 8), INPUT_BUFFER_SIZE));
+			} else {
+				decodedLength = length;
+				charge(length, "an element of " + length + " bytes");
+				try {
+					ByteBuffer element = ByteBuffer.allocate((int) length);
+					element.order(matFileHeader.getByteOrder());
+					input.readFully(position, element);
+					element.flip();
+					readData(element);
+					if (retainOrigins && lastRead != null && mcosToFind.size() == placeholders && !lastRead.isOpaque() && lastRead != mcosData) {
+						retainOrigin(lastRead, element, 0, (int) length);
+					}
+				} finally {
+					discharge(length);
+				}
+			}
+		} catch (MatFileBudgetException e) {
+			if (!skipOversized) {
+				throw e;
+			}
+			discharge(charged - before);
+			lastRead = null;
+		}
+		progress.setFileBytes(position + length);
+		progress.elementDone(lastRead != null);
+		return length;
+	}
+
+	/** Returns the uncompressed length of the element read by the last <code>readElement</code>. */
+	long getDecodedLength() {
+		return decodedLength;
+	}
+
+	/**
+	 * Reads the subsystem data element of <code>input</code> at <code>position</code>
+	 * regardless of the filter, so that the MCOS objects of the elements read
+	 * afterwards can be resolved one element at a time.
+	 */
+	void readSubsystem(PositionalInput input, long position) throws IOException {
+		MatFileFilter previous = filter;
+		filter = new MatFileFilter();
+		try {
+			readElement(input, position);
+		} finally {
+			filter = previous;
+			lastRead = null;
+			data.clear();
+			discharge(charged);
+		}
+	}
+
+	/**
+	 * Returns the top-level array read by the last <code>readElement</code>,
+	 * or null if it was filtered out, with its MCOS objects resolved against
+	 * the subsystem data, and keeps no reference to it.
+	 *
+	 * @throws MatlabIOException if the array holds objects but there is no subsystem data
+	 */
+	MLArray takeElement() throws IOException {
+		MLArray array = lastRead;
+		lastRead = null;
+		data.clear();
+		discharge(charged);
+		if (!mcosToFind.isEmpty()) {
+			try {
+				if (mcosData == null) {
+					throw new MatlabIOException("The objects of " + array.getName() + " cannot be resolved: the file has no subsystem data.");
+				}
+				parseMCOS(mcosData, mcosToFind);
+			} finally {
+				mcosToFind.clear();
+			}
+		}
+		return array;
+	}
+
+	/**
+	 * Returns an iterator which reads the arrays of <code>file</code> which
+	 * match <code>filter</code> one at a time, in file order.  Only the array
+	 * being returned is held in memory, along with the subsystem data which
+	 * MCOS objects are resolved against, so a file can be processed an array
+	 * at a time with the memory of its largest array.
+	 * <p>
+	 * The iterator uses this reader, which must not be used for anything else
+	 * until the iterator is closed.  On Java 8, <code>Spliterators.spliteratorUnknownSize</code>
+	 * turns it into a <code>Stream</code>.
+	 *
+	 * @throws IOException
+	 *             if error occurs while reading the header
+	 */
+	public MatFileIterator iterator(File file, MatFileFilter filter) throws IOException {
+		RandomAccessFile raFile = new RandomAccessFile(file, "r");
+		try {
+			return new MatFileIterator(this, PositionalInput.of(raFile.getChannel()), filter, raFile);
+		} catch (IOException e) {
+			raFile.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns an iterator which reads the arrays of a <code>FileChannel</code>
+	 * or of a <code>SeekableByteChannel</code> one at a time, as
+	 * {@link #iterator(File, MatFileFilter)} does.  The channel is not closed
+	 * with the iterator.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the channel is not seekable
+	 * @throws IOException
+	 *             if error occurs while reading the header
+	 */
+	public MatFileIterator iterator(ByteChannel channel, MatFileFilter filter) throws IOException {
+		return new MatFileIterator(this, PositionalInput.of(channel), filter, null);
+	}
+
+	/** Prepares this reader for an iteration with <code>filter</code>. */
+	void startIteration(MatFileFilter filter) {
+		this.filter = filter;
+		progress = new MatFileProgress(progressListener);
+		data.clear();
+		mcosData = null;
+		mcosToFind.clear();
+	}
+
+	/** Resolves the MCOS objects which were read against the subsystem data. */
+	private void resolveMCOS() throws IOException {
 		if (!mcosToFind.isEmpty()) {
 			parseMCOS(mcosData, mcosToFind);
 			if (data.get("@") == mcosData) {
@@ -406,9 +1094,25 @@ public class MatFileReader {
 		mcosToFind.clear();
 	}
 
+	/** Records the <code>length</code> bytes at <code>start</code> as the origin of <code>array</code>. */
+	private void retainOrigin(MLArray array, ByteBuffer buf, int start, int length) {
+		if (originFile != null) {
+			array.setOrigin(new MatFileOrigin(originFile, start, length, matFileHeader.getByteOrder(), array));
+		} else {
+			ByteBuffer element = buf.duplicate();
+			element.limit(start + length).position(start);
+			ByteBuffer copy = ByteBuffer.allocate(length);
+			copy.put(element);
+			copy.flip();
+			array.setOrigin(new MatFileOrigin(copy, matFileHeader.getByteOrder(), array));
+		}
+	}
+
 	private static void parseMCOS(MLUInt8 mcosData, Set<MLObjectPlaceholder> mcosPlaceholders) throws IOException {
 		// First, parse back out the mcosData.
-		ByteBuffer buffer = mcosData.getRealByteBuffer();
+		// a duplicate, as the subsystem data is parsed again for each array when iterating
+		ByteBuffer buffer = mcosData.getRealByteBuffer().duplicate();
+		buffer.rewind();
 		ByteBufferInputStream dataStream = new ByteBufferInputStream(buffer, buffer.limit());
 
 		MatFileReader matFile = new MatFileReader(dataStream, MatFileType.ReducedHeader);
@@ -706,61 +1410,18 @@ public class MatFileReader {
 			if (buf.remaining() < numOfBytes) {
 				throw new MatlabIOException("Compressed buffer length miscalculated!");
 			}
-			//instead of standard Inlater class instance I use an inflater input
-			//stream... gives a great boost to the performance
-			InflaterInputStream iis = new InflaterInputStream(new ByteBufferInputStream(buf, numOfBytes));
-
-			//process data decompression
-			byte[] result = new byte[1024];
-
-			HeapBufferDataOutputStream dos = new HeapBufferDataOutputStream();
-			int i;
-			try {
-				do {
-					i = iis.read(result, 0, result.length);
-					int len = Math.max(0, i);
-					dos.write(result, 0, len);
-				} while (i > 0);
-			} catch (EOFException eofe) {
-				System.out.println("EOFException detected!");
-			} catch (IOException e) {
-				throw new MatlabIOException("Could not decompress data: " + e);
-			} finally {
-				iis.close();
-				dos.flush();
-			}
-			//create a ByteBuffer from the deflated data
-			ByteBuffer out = dos.getByteBuffer();
-
-			//with proper byte ordering
-			out.order(matFileHeader.getByteOrder());
-
-			try {
-				readData(out);
-			} catch (IOException e) {
-				throw e;
-			} finally {
-				dos.close();
-			}
+			int start = buf.position();
+			readCompressed(new ByteBufferInputStream(buf, numOfBytes));
+			buf.position(start + numOfBytes);
 			break;
 		case MatDataTypes.miMATRIX:
 			//read in the matrix
 			int pos = buf.position();
 
 			MLArray element = readMatrix(buf, true);
+			lastRead = element;
 			if (element != null) {
-				// Sometimes a MAT file will contain more than one unnamed
-				// element.  This ensures that all of them will be accessible
-				// in the end result.
-				if (!data.containsKey(element.getName())) {
-					data.put(element.getName(), element);
-				}
-				if (element.getName() == MLArray.DEFAULT_NAME) {
-					// identity comparison is okay because we assigned it in the first place
-					int nextIndex = 0;
-					for (; data.containsKey("@" + nextIndex); nextIndex++) {}
-					data.put(MLArray.DEFAULT_NAME + nextIndex, element);
-				}
+				register(element);
 			} else {
 				int read = buf.position() - pos;
 				int toRead = tag.size - read;
@@ -777,6 +1438,286 @@ public class MatFileReader {
 		}
 	}
 
+	/** Adds a top-level array to the content of the file. */
+	private void register(MLArray element) {
+		// Sometimes a MAT file will contain more than one unnamed
+		// element.  This ensures that all of them will be accessible
+		// in the end result.
+		if (!data.containsKey(element.getName())) {
+			data.put(element.getName(), element);
+		}
+		if (element.getName() == MLArray.DEFAULT_NAME) {
+			// identity comparison is okay because we assigned it in the first place
+			int nextIndex = 0;
+			for (; data.containsKey("@" + nextIndex); nextIndex++) {}
+			data.put(MLArray.DEFAULT_NAME + nextIndex, element);
+		}
+	}
+
+	/**
+	 * Inflates the content of an <code>miCOMPRESSED</code> element and reads
+	 * it, and returns its inflated length.
+	 * <p>
+	 * A named top-level numeric array is inflated a chunk at a time straight
+	 * into its storage, so that the heap never holds it inflated as a whole,
+	 * which is what lets a {@link SpillingStorageAllocator} decode variables
+	 * larger than the heap.  The other elements are inflated whole, then read.
+	 */
+	private long readCompressed(InputStream compressed) throws IOException {
+		//instead of standard Inlater class instance I use an inflater input
+		//stream... gives a great boost to the performance
+		InflaterInputStream iis = new InflaterInputStream(compressed);
+		try {
+			ByteBuffer head = ByteBuffer.allocate(STREAMING_HEAD_SIZE);
+			head.order(matFileHeader.getByteOrder());
+			int length = 0;
+			for (int read = 0; read >= 0 && length < head.capacity(); length += Math.max(0, read)) {
+				read = iis.read(head.array(), length, head.capacity() - length);
+			}
+			head.limit(length);
+			long streamed = readStreamed(head, iis);
+			if (streamed >= 0) {
+				return streamed;
+			}
+			head.rewind();
+			ByteBuffer inflated = readInflated(new SequenceInputStream(new ByteBufferInputStream(head, length), iis));
+			try {
+				readData(inflated);
+			} finally {
+				discharge(inflated.capacity());
+			}
+			return inflated.limit();
+		} catch (MatlabIOException e) {
+			throw e;
+		} catch (IOException e) {
+			throw new MatlabIOException("Could not decompress data: " + e);
+		} finally {
+			iis.close();
+		}
+	}
+
+	/**
+	 * Decodes the inflated matrix which starts with <code>head</code> and
+	 * goes on in <code>rest</code> straight into the storage of a new numeric
+	 * array, and returns its length, or returns -1 without consuming
+	 * <code>rest</code> if the matrix is not a named, dense numeric array
+	 * read as is, or if its header does not fit in <code>head</code>.
+	 */
+	private long readStreamed(ByteBuffer head, InputStream rest) throws IOException {
+		if (head.limit() < 8 || head.getInt(0) != MatDataTypes.miMATRIX || reuse != null) {
+			return -1;
+		}
+		// the flags, dimensions, name, and the tag of the real part
+		int dataStart = 8;
+		for (int i = 0; i < 3 && dataStart >= 0; i++) {
+			dataStart = subelementEnd(head, dataStart);
+		}
+		if (dataStart < 0 || dataStart + 8 > head.limit()) {
+			return -1;
+		}
+		head.position(8);
+		int[] flags = readFlags(head);
+		int attributes = flags.length != 0 ? flags[0] : 0;
+		int type = attributes & 0xff;
+		int[] dims = readDimension(head);
+		String name = readName(head, matFileHeader);
+		if (type < MLArray.mxDOUBLE_CLASS || type > MLArray.mxUINT64_CLASS || name.length() == 0 || conversions.containsKey(name)) {
+			return -1;
+		}
+		long length = 8 + (head.getInt(4) & 0xffffffffL);
+		progress.addCodedBytes(dataStart);
+		if (!filter.matches(name) || MatFileEditor.isTombstone(name)) {
+			// the rest is inflated to be counted, but never held
+			skipFully(rest, length - head.limit());
+			progress.addCodedBytes(length - dataStart);
+			return length;
+		}
+		chargeDeclared(name, type, attributes, flags.length != 0 ? flags[1] : 0, dims);
+		MLNumericArray<?> array = newNumericArray(name, dims, type, attributes);
+		head.position(dataStart);
+		charge(STREAMING_CHUNK_SIZE, "a chunk of " + name);
+		try {
+			byte[] chunk = new byte[STREAMING_CHUNK_SIZE];
+			InputStream data = new SequenceInputStream(new ByteBufferInputStream(head, head.remaining()), rest);
+			long decoded = dataStart + streamInto(data, array.getRealByteBuffer(), array, chunk);
+			if (array.isComplex()) {
+				decoded += streamInto(data, array.getImaginaryByteBuffer(), array, chunk);
+			}
+			if (decoded != length) {
+				throw new MatlabIOException("Matrix was not read fully! " + (length - decoded) + " remaining in the buffer.");
+			}
+		} finally {
+			discharge(STREAMING_CHUNK_SIZE);
+		}
+		lastRead = array;
+		register(array);
+		return length;
+	}
+
+	/** Returns the end of the sub-element which starts at <code>position</code> of <code>buf</code>, or -1 if its tag is past the limit. */
+	private static int subelementEnd(ByteBuffer buf, int position) {
+		if (position + 8 > buf.limit()) {
+			return -1;
+		}
+		if (buf.getInt(position) >> 16 != 0) {
+			// small data element, packed in the tag
+			return position + 8;
+		}
+		int size = buf.getInt(position + 4);
+		return size < 0 ? -1 : position + 8 + size + (8 - size % 8) % 8;
+	}
+
+	/**
+	 * Decodes the data sub-element at the start of <code>data</code> into
+	 * <code>storage</code>, a chunk at a time, and returns its length.
+	 */
+	private int streamInto(InputStream data, ByteBuffer storage, MLNumericArray<?> array, byte[] chunk) throws IOException {
+		ByteBuffer tag = ByteBuffer.wrap(new byte[8]);
+		tag.order(matFileHeader.getByteOrder());
+		readFully(data, tag.array(), 8);
+		int type = tag.getInt(0);
+		int size;
+		boolean small = type >> 16 != 0;
+		if (small) {
+			size = type >> 16;
+			type &= 0xffff;
+		} else {
+			size = tag.getInt(4);
+		}
+		int width = ByteSwapper.widthOf(type);
+		int elements = array.getSize();
+		if (size != (long) elements * width) {
+			throw new MatlabIOException("Array " + array.getName() + " of " + elements + " elements has " + size + " bytes of " + MatDataTypes.typeToString(type) + ".");
+		}
+		int bytesAllocated = array.getBytesAllocated();
+		int perChunk = chunk.length / width;
+		ByteBuffer source = small ? tag : ByteBuffer.wrap(chunk);
+		source.order(matFileHeader.getByteOrder());
+		for (int done = 0; done < elements;) {
+			int count = small ? elements : Math.min(elements - done, perChunk);
+			if (small) {
+				source.position(4);
+			} else {
+				readFully(data, chunk, count * width);
+				source.clear();
+			}
+			source.limit(source.position() + count * width);
+			ByteBuffer dest = storage.duplicate();
+			dest.clear();
+			dest.position(done * bytesAllocated);
+			dest.limit((done + count) * bytesAllocated);
+			new MatFileInputStream(source.slice().order(source.order()), type).readToByteBuffer(dest.slice(), count, array);
+			done += count;
+		}
+		if (small) {
+			return 8;
+		}
+		int padding = (8 - size % 8) % 8;
+		readFully(data, chunk, padding);
+		progress.addCodedBytes(8 + size + padding);
+		return 8 + size + padding;
+	}
+
+	/** Fills the first <code>length</code> bytes of <code>bytes</code> from <code>input</code>. */
+	private static void readFully(InputStream input, byte[] bytes, int length) throws IOException {
+		for (int done = 0; done < length;) {
+			int read = input.read(bytes, done, length - done);
+			if (read < 0) {
+				throw new MatlabIOException("Could not decompress data: the element is truncated.");
+			}
+			done += read;
+		}
+	}
+
+	/** Skips <code>length</code> bytes of <code>input</code>. */
+	private static void skipFully(InputStream input, long length) throws IOException {
+		byte[] skipped = new byte[(int) Math.min(length, INPUT_BUFFER_SIZE)];
+		for (long done = 0; done < length;) {
+			int read = input.read(skipped, 0, (int) Math.min(length - done, skipped.length));
+			if (read < 0) {
+				throw new MatlabIOException("Could not decompress data: the element is truncated.");
+			}
+			done += read;
+		}
+	}
+
+	/** Creates a numeric array of the given class, whose storage comes from the storage allocator. */
+	private MLNumericArray<?> newNumericArray(String name, int[] dims, int type, int attributes) {
+		switch (type) {
+		case MLArray.mxDOUBLE_CLASS:
+			return new MLDouble(name, dims, type, attributes, storageAllocator);
+		case MLArray.mxSINGLE_CLASS:
+			return new MLSingle(name, dims, type, attributes, storageAllocator);
+		case MLArray.mxINT8_CLASS:
+			return new MLInt8(name, dims, type, attributes, storageAllocator);
+		case MLArray.mxUINT8_CLASS:
+			return new MLUInt8(name, dims, type, attributes, storageAllocator);
+		case MLArray.mxINT16_CLASS:
+			return new MLInt16(name, dims, type, attributes, storageAllocator);
+		case MLArray.mxUINT16_CLASS:
+			return new MLUInt16(name, dims, type, attributes, storageAllocator);
+		case MLArray.mxINT32_CLASS:
+			return new MLInt32(name, dims, type, attributes, storageAllocator);
+		case MLArray.mxUINT32_CLASS:
+			return new MLUInt32(name, dims, type, attributes, storageAllocator);
+		case MLArray.mxINT64_CLASS:
+			return new MLInt64(name, dims, type, attributes, storageAllocator);
+		default:
+			return new MLUInt64(name, dims, type, attributes, storageAllocator);
+		}
+	}
+
+	/**
+	 * Reads the inflated content of an miCOMPRESSED element into a buffer with
+	 * the byte order of the file.  The whole capacity of the buffer is charged,
+	 * since it doubles as it grows, and the caller discharges
+	 * <code>capacity()</code> of the result once it is decoded.
+	 */
+	private ByteBuffer readInflated(InputStream iis) throws IOException {
+		//process data decompression
+		byte[] result = new byte[1024];
+
+		HeapBufferDataOutputStream dos = new HeapBufferDataOutputStream();
+		long held = dos.capacity();
+		charge(held, "a compressed element");
+		int i;
+		try {
+			do {
+				i = iis.read(result, 0, result.length);
+				int len = Math.max(0, i);
+				if (dos.size() + len > held) {
+					// charged before the stream doubles its buffer, as ByteArrayOutputStream does
+					long grown = Math.max(2 * held, dos.size() + len);
+					charge(grown - held, "a compressed element");
+					held = grown;
+				}
+				dos.write(result, 0, len);
+				if (dos.capacity() != held) {
+					// settle up with the capacity which the stream actually chose
+					charge(dos.capacity() - held, "a compressed element");
+					held = dos.capacity();
+				}
+				progress.addCodedBytes(len);
+			} while (i > 0);
+		} catch (EOFException eofe) {
+			System.out.println("EOFException detected!");
+		} catch (MatlabIOException e) {
+			throw e;
+		} catch (IOException e) {
+			throw new MatlabIOException("Could not decompress data: " + e);
+		} finally {
+			iis.close();
+			dos.flush();
+		}
+		//create a ByteBuffer from the deflated data
+		ByteBuffer out = dos.getByteBuffer();
+		out.limit(dos.size());
+
+		//with proper byte ordering
+		out.order(matFileHeader.getByteOrder());
+		return out;
+	}
+
 	/**
 	 * Reads miMATRIX from from input stream.
 	 * 
@@ -815,10 +1756,37 @@ public class MatFileReader {
 		String name = readName(buf, matFileHeader);
 
 		//if this array is filtered out return immediately
-		if (isRoot && !filter.matches(name)) {
+		if (isRoot && (!filter.matches(name) || MatFileEditor.isTombstone(name))) {
 			return null;
 		}
 
+		if (isRoot && reuse != null) {
+			MLNumericArray<?> target = reuse.get(name);
+			if (target == null) {
+				return null;
+			}
+			readMatrixInto(buf, target, name, type, attributes, dims);
+			return target;
+		}
+
+		MatFileConversion conversion = isRoot ? conversions.get(name) : null;
+		if (conversion != null && !conversion.appliesTo(type)) {
+			conversion = null;
+		}
+
+		chargeDeclared(name, conversion != null ? conversion.getTargetClass() : type, attributes, nzmax, dims);
+
+		if (conversion != null) {
+			MLNumericArray<?> converted = conversion.createArray(name, dims, attributes, storageAllocator);
+			tag = new ISMatTag(buf);
+			tag.readToByteBuffer(converted.getRealByteBuffer(), converted, conversion.getGain(), conversion.getOffset(), conversion.getMin(), conversion.getMax(), conversion.isUnsigned());
+			if (converted.isComplex()) {
+				tag = new ISMatTag(buf);
+				tag.readToByteBuffer(converted.getImaginaryByteBuffer(), converted, conversion.getGain(), 0, conversion.getMin(), conversion.getMax(), conversion.isUnsigned());
+			}
+			return converted;
+		}
+
 		//read data >> consider changing it to stategy pattern
 		switch (type) {
 		case MLArray.mxSTRUCT_CLASS:
@@ -874,7 +1842,7 @@ public class MatFileReader {
 			mlArray = cell;
 			break;
 		case MLArray.mxDOUBLE_CLASS:
-			mlArray = new MLDouble(name, dims, type, attributes);
+			mlArray = new MLDouble(name, dims, type, attributes, storageAllocator);
 			//read real
 			tag = new ISMatTag(buf);
 			tag.readToByteBuffer(((MLNumericArray<?>) mlArray).getRealByteBuffer(), (MLNumericArray<?>) mlArray);
@@ -886,7 +1854,7 @@ public class MatFileReader {
 			}
 			break;
 		case MLArray.mxSINGLE_CLASS:
-			mlArray = new MLSingle(name, dims, type, attributes);
+			mlArray = new MLSingle(name, dims, type, attributes, storageAllocator);
 			//read real
 			tag = new ISMatTag(buf);
 			tag.readToByteBuffer(((MLNumericArray<?>) mlArray).getRealByteBuffer(), (MLNumericArray<?>) mlArray);
@@ -898,7 +1866,7 @@ public class MatFileReader {
 			}
 			break;
 		case MLArray.mxUINT8_CLASS:
-			mlArray = new MLUInt8(name, dims, type, attributes);
+			mlArray = new MLUInt8(name, dims, type, attributes, storageAllocator);
 			//read real
 			tag = new ISMatTag(buf);
 			tag.readToByteBuffer(((MLNumericArray<?>) mlArray).getRealByteBuffer(), (MLNumericArray<?>) mlArray);
@@ -916,7 +1884,7 @@ public class MatFileReader {
 
 			break;
 		case MLArray.mxINT8_CLASS:
-			mlArray = new MLInt8(name, dims, type, attributes);
+			mlArray = new MLInt8(name, dims, type, attributes, storageAllocator);
 			//read real
 			tag = new ISMatTag(buf);
 			tag.readToByteBuffer(((MLNumericArray<?>) mlArray).getRealByteBuffer(), (MLNumericArray<?>) mlArray);
@@ -928,7 +1896,7 @@ public class MatFileReader {
 			}
 			break;
 		case MLArray.mxINT16_CLASS:
-			mlArray = new MLInt16(name, dims, type, attributes);
+			mlArray = new MLInt16(name, dims, type, attributes, storageAllocator);
 			//read real
 			tag = new ISMatTag(buf);
 			tag.readToByteBuffer(((MLNumericArray<?>) mlArray).getRealByteBuffer(), (MLNumericArray<?>) mlArray);
@@ -940,7 +1908,7 @@ public class MatFileReader {
 			}
 			break;
 		case MLArray.mxUINT16_CLASS:
-			mlArray = new MLUInt16(name, dims, type, attributes);
+			mlArray = new MLUInt16(name, dims, type, attributes, storageAllocator);
 			//read real
 			tag = new ISMatTag(buf);
 			tag.readToByteBuffer(((MLNumericArray<?>) mlArray).getRealByteBuffer(), (MLNumericArray<?>) mlArray);
@@ -952,7 +1920,7 @@ public class MatFileReader {
 			}
 			break;
 		case MLArray.mxINT32_CLASS:
-			mlArray = new MLInt32(name, dims, type, attributes);
+			mlArray = new MLInt32(name, dims, type, attributes, storageAllocator);
 			//read real
 			tag = new ISMatTag(buf);
 			tag.readToByteBuffer(((MLNumericArray<?>) mlArray).getRealByteBuffer(), (MLNumericArray<?>) mlArray);
@@ -964,7 +1932,7 @@ public class MatFileReader {
 			}
 			break;
 		case MLArray.mxUINT32_CLASS:
-			mlArray = new MLUInt32(name, dims, type, attributes);
+			mlArray = new MLUInt32(name, dims, type, attributes, storageAllocator);
 			//read real
 			tag = new ISMatTag(buf);
 			tag.readToByteBuffer(((MLNumericArray<?>) mlArray).getRealByteBuffer(), (MLNumericArray<?>) mlArray);
@@ -976,7 +1944,7 @@ public class MatFileReader {
 			}
 			break;
 		case MLArray.mxINT64_CLASS:
-			mlArray = new MLInt64(name, dims, type, attributes);
+			mlArray = new MLInt64(name, dims, type, attributes, storageAllocator);
 			//read real
 			tag = new ISMatTag(buf);
 			tag.readToByteBuffer(((MLNumericArray<?>) mlArray).getRealByteBuffer(), (MLNumericArray<?>) mlArray);
@@ -988,7 +1956,7 @@ public class MatFileReader {
 			}
 			break;
 		case MLArray.mxUINT64_CLASS:
-			mlArray = new MLUInt64(name, dims, type, attributes);
+			mlArray = new MLUInt64(name, dims, type, attributes, storageAllocator);
 			//read real
 			tag = new ISMatTag(buf);
 			tag.readToByteBuffer(((MLNumericArray<?>) mlArray).getRealByteBuffer(), (MLNumericArray<?>) mlArray);
@@ -1181,6 +2149,53 @@ public class MatFileReader {
 		return mlArray;
 	}
 
+	/**
+	 * Checks that the variable <code>name</code>, of the given class, complexity
+	 * and dimensions, can be decoded into <code>target</code>, which must not be
+	 * frozen, and returns the
+	 * conversion which applies to it, or null.
+	 */
+	private MatFileConversion checkTarget(MLNumericArray<?> target, String name, int type, boolean complex, int[] dims) throws MatlabIOException {
+		if (target.isFrozen()) {
+			throw new MatlabIOException("The target of variable " + name + " is frozen.");
+		}
+		MatFileConversion conversion = conversions.get(name);
+		if (conversion != null && !conversion.appliesTo(type)) {
+			conversion = null;
+		}
+		int expected = conversion != null ? conversion.getTargetClass() : type;
+		if (target.getType() != expected || target.isSparse() || target.isComplex() != complex || !Arrays.equals(dims, target.getDimensions())) {
+			throw new MatlabIOException("Variable " + name + " is " + (complex ? "a complex " : "a ") + MLArray.typeToString(expected) + " of " + Arrays.toString(dims)
+					+ ", which does not match its target " + target + ".");
+		}
+		return conversion;
+	}
+
+	/** Decodes the data of a numeric array into the storage of <code>target</code>, which must match its shape. */
+	private void readMatrixInto(ByteBuffer buf, MLNumericArray<?> target, String name, int type, int attributes, int[] dims) throws IOException {
+		boolean complex = (attributes & MLArray.mtFLAG_COMPLEX) != 0;
+		MatFileConversion conversion = checkTarget(target, name, type, complex, dims);
+		// the storage is filled from its start, wherever the caller left its position
+		ByteBuffer real = target.getRealByteBuffer().duplicate();
+		real.clear();
+		ISMatTag tag = new ISMatTag(buf);
+		if (conversion == null) {
+			tag.readToByteBuffer(real, target);
+		} else {
+			tag.readToByteBuffer(real, target, conversion.getGain(), conversion.getOffset(), conversion.getMin(), conversion.getMax(), conversion.isUnsigned());
+		}
+		if (complex) {
+			ByteBuffer imaginary = target.getImaginaryByteBuffer().duplicate();
+			imaginary.clear();
+			tag = new ISMatTag(buf);
+			if (conversion == null) {
+				tag.readToByteBuffer(imaginary, target);
+			} else {
+				tag.readToByteBuffer(imaginary, target, conversion.getGain(), 0, conversion.getMin(), conversion.getMax(), conversion.isUnsigned());
+			}
+		}
+	}
+
 	/**
 	 * Converts byte array to <code>String</code>. 
 	 * 
@@ -1207,7 +2222,7 @@ public class MatFileReader {
 	 * @return flags int array
 	 * @throws IOException if reading from buffer fails
 	 */
-	private static int[] readFlags(ByteBuffer buf) throws IOException {
+	static int[] readFlags(ByteBuffer buf) throws IOException {
 		ISMatTag tag = new ISMatTag(buf);
 		int[] flags = tag.readToIntArray();
 		return flags;
@@ -1222,7 +2237,7 @@ public class MatFileReader {
 	 * @return dimensions int array
 	 * @throws IOException if reading from buffer fails
 	 */
-	private static int[] readDimension(ByteBuffer buf) throws IOException {
+	static int[] readDimension(ByteBuffer buf) throws IOException {
 		ISMatTag tag = new ISMatTag(buf);
 		int[] dims = tag.readToIntArray();
 		return dims;
@@ -1237,7 +2252,7 @@ public class MatFileReader {
 	 * @return name <code>String</code>
 	 * @throws IOException if reading from buffer fails
 	 */
-	private static String readName(ByteBuffer buf, MatFileHeader header) throws IOException {
+	static String readName(ByteBuffer buf, MatFileHeader header) throws IOException {
 		ISMatTag tag = new ISMatTag(buf);
 		return tag.readToString(header.getByteOrder());
 	}
@@ -1298,7 +2313,7 @@ public class MatFileReader {
 	 * 
 	 * @author Wojciech Gradkowski (<a href="mailto:wgradkowski@gmail.com">wgradkowski@gmail.com</a>)
 	 */
-	private static class ISMatTag extends MatTag {
+	static class ISMatTag extends MatTag {
 		private final MatFileInputStream mfis;
 		private final int padding;
 		private final boolean compressed;
@@ -1328,6 +2343,13 @@ public class MatFileReader {
 			mfis.skip(padding);
 		}
 
+		/** Reads the values into the storage of another class, scaled and saturated as they are read. */
+		public void readToByteBuffer(ByteBuffer buff, ByteStorageSupport<?> storage, double gain, double offset, double min, double max, boolean unsigned) throws IOException {
+			int elements = size / sizeOf();
+			mfis.readToByteBuffer(buff, elements, storage, gain, offset, min, max, unsigned);
+			mfis.skip(padding);
+		}
+
 		public byte[] readToByteArray() throws IOException {
 			//allocate memory for array elements
 			int elements = size / sizeOf();
@@ -0,0 +1,176 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes the sidecar index file of a MAT-file, which holds its
+ * {@link MatFileIndex} and optionally the {@link InflateCheckpoint inflate checkpoints}
+ * of its compressed elements.
+ * <p>
+ * The sidecar is keyed by the length and modification time of the file and
+ * by a checksum of its header, and is ignored as soon as one of them changes.
+ */
+class MatFileSidecar {
+	private static final int MAGIC = 0x4d494458; // "MIDX"
+	private static final int VERSION = 1;
+
+	private MatFileSidecar() {}
+
+	/** Returns the sidecar index file of <code>file</code>. */
+	static File fileOf(File file) {
+		return new File(file.getPath() + ".idx");
+	}
+
+	/**
+	 * Reads the index of <code>file</code> from its sidecar, and the checkpoints
+	 * it holds into <code>checkpoints</code>, by element offset, unless that is null.
+	 *
+	 * @return the index, or null if there is no valid sidecar
+	 */
+	static MatFileIndex read(File file, Map<Long, List<InflateCheckpoint>> checkpoints) throws IOException {
+		File sidecar = fileOf(file);
+		if (!sidecar.isFile()) {
+			return null;
+		}
+		RandomAccessFile raFile = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raFile.getChannel();
+			DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar)));
+			try {
+				if (input.readInt() != MAGIC || input.readInt() != VERSION
+						|| input.readLong() != channel.size() || input.readLong() != file.lastModified()
+						|| input.readLong() != headerChecksum(channel)) {
+					return null;
+				}
+				MatFileHeader header = MatFileIndex.readHeader(channel);
+				long endOffset = input.readLong();
+				long tombstoneLength = input.readLong();
+				int count = input.readInt();
+				List<MatFileEntry> entries = new ArrayList<MatFileEntry>(count);
+				for (int i = 0; i < count; i++) {
+					long offset = input.readLong();
+					int dataType = input.readInt();
+					long size = input.readLong();
+					String name = input.readUTF();
+					int attributes = input.readInt();
+					int[] dims = new int[input.readInt()];
+					for (int j = 0; j < dims.length; j++) {
+						dims[j] = input.readInt();
+					}
+					long uncompressedLength = input.readLong();
+					entries.add(new MatFileEntry(offset, dataType, size, name, attributes, dims, uncompressedLength));
+
+					List<InflateCheckpoint> list = new ArrayList<InflateCheckpoint>();
+					int checkpointCount = input.readInt();
+					for (int j = 0; j < checkpointCount; j++) {
+						long inputOffset = input.readLong();
+						int bitOffset = input.readByte();
+						long outputOffset = input.readLong();
+						byte[] window = new byte[input.readInt()];
+						input.readFully(window);
+						list.add(new InflateCheckpoint(inputOffset, bitOffset, outputOffset, window));
+					}
+					if (checkpoints != null && !list.isEmpty()) {
+						checkpoints.put(offset, list);
+					}
+				}
+				return new MatFileIndex(header, entries, endOffset, tombstoneLength);
+			} catch (IOException e) {
+				// a truncated or corrupt sidecar is as good as none
+				return null;
+			} finally {
+				input.close();
+			}
+		} finally {
+			raFile.close();
+		}
+	}
+
+	/**
+	 * Writes the sidecar of <code>file</code>, with the checkpoints of its
+	 * elements by offset unless <code>checkpoints</code> is null.
+	 *
+	 * @throws MatlabIOException if the file no longer matches the index
+	 */
+	static void write(File file, MatFileIndex index, Map<Long, List<InflateCheckpoint>> checkpoints) throws IOException {
+		File sidecar = fileOf(file);
+		File temp = new File(sidecar.getPath() + ".tmp");
+		RandomAccessFile raFile = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raFile.getChannel();
+			if (channel.size() != index.getEndOffset()) {
+				throw new MatlabIOException(file + " has changed since it was indexed.");
+			}
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			try {
+				output.writeInt(MAGIC);
+				output.writeInt(VERSION);
+				output.writeLong(channel.size());
+				output.writeLong(file.lastModified());
+				output.writeLong(headerChecksum(channel));
+				output.writeLong(index.getEndOffset());
+				output.writeLong(index.getTombstoneLength());
+				output.writeInt(index.getEntries().size());
+				for (MatFileEntry entry : index.getEntries()) {
+					output.writeLong(entry.getOffset());
+					output.writeInt(entry.getDataType());
+					output.writeLong(entry.getLength() - 8);
+					output.writeUTF(entry.getName());
+					output.writeInt(entry.getAttributes());
+					int[] dims = entry.getDimensions();
+					output.writeInt(dims.length);
+					for (int dim : dims) {
+						output.writeInt(dim);
+					}
+					output.writeLong(entry.getUncompressedLength());
+
+					List<InflateCheckpoint> list = checkpoints == null ? null : checkpoints.get(entry.getOffset());
+					output.writeInt(list == null ? 0 : list.size());
+					if (list != null) {
+						for (InflateCheckpoint checkpoint : list) {
+							output.writeLong(checkpoint.getInputOffset());
+							output.writeByte(checkpoint.getBitOffset());
+							output.writeLong(checkpoint.getOutputOffset());
+							output.writeInt(checkpoint.getWindow().length);
+							output.write(checkpoint.getWindow());
+						}
+					}
+				}
+			} finally {
+				output.close();
+			}
+		} finally {
+			raFile.close();
+		}
+		MatFileEditor.replace(temp, sidecar);
+	}
+
+	private static long headerChecksum(FileChannel channel) throws IOException {
+		if (channel.size() < MatFileIndex.HEADER_LENGTH) {
+			throw new MatlabIOException("This is not a valid MATLAB 5.0 MAT-file.");
+		}
+		ByteBuffer header = MatFileIndex.read(channel, 0, MatFileIndex.HEADER_LENGTH);
+		CRC32 crc = new CRC32();
+		crc.update(header.array(), 0, MatFileIndex.HEADER_LENGTH);
+		return crc.getValue();
+	}
+}
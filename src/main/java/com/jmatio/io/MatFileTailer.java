@@ -0,0 +1,116 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.jmatio.types.MLArray;
+
+/**
+ * Follows a MAT-file which is still being appended to, for instance by a
+ * {@link MatFileIncrementalWriter} in another process, and returns each
+ * top-level array once it is completely written.
+ * <p>
+ * The tailer remembers the offset of the first element it has not read, so
+ * each call to {@link #poll()} only reads the elements appended since the
+ * previous one.  An element whose tag tells it extends past the end of the
+ * file is still being written, and is read by a later poll.
+ * <pre><code>
+ * MatFileTailer tailer = new MatFileTailer(new File("acquisition.mat"));
+ * while (running) {
+ *     for (MLArray array : tailer.poll()) {
+ *         ...
+ *     }
+ *     Thread.sleep(1000);
+ * }
+ * tailer.close();
+ * </code></pre>
+ *
+ * The arrays are expected to be appended, not rewritten: MCOS objects, which
+ * depend on subsystem data written once the file is complete, cannot be
+ * followed.
+ */
+public class MatFileTailer implements Closeable {
+	private final File file;
+	private final RandomAccessFile raFile;
+	private final PositionalInput input;
+	private final MatFileReader reader = new MatFileReader();
+	/** The offset of the first element which has not been read, or 0 until the header is read. */
+	private long offset = 0;
+
+	/** Follows all the arrays of <code>file</code>. */
+	public MatFileTailer(File file) throws IOException {
+		this(file, new MatFileFilter());
+	}
+
+	/** Follows the arrays of <code>file</code> which match <code>filter</code>. */
+	public MatFileTailer(File file, MatFileFilter filter) throws IOException {
+		this.file = file;
+		raFile = new RandomAccessFile(file, "r");
+		input = PositionalInput.of(raFile.getChannel());
+		reader.startIteration(filter);
+	}
+
+	/** Returns the offset up to which the file has been read. */
+	public synchronized long getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Reads the arrays which were completely written since the previous poll,
+	 * and returns those which match the filter, in file order.
+	 *
+	 * @throws MatlabIOException if the file became shorter than what was already read
+	 */
+	public synchronized List<MLArray> poll() throws IOException {
+		List<MLArray> arrays = new ArrayList<MLArray>();
+		long size = input.size();
+		if (size < offset) {
+			throw new MatlabIOException(file + " was truncated to " + size + " bytes, but " + offset + " bytes were already read.");
+		}
+		if (offset == 0) {
+			if (size < MatFileIndex.HEADER_LENGTH) {
+				// the header is not written yet
+				return arrays;
+			}
+			offset = reader.readHeader(input);
+		}
+		ByteBuffer tag = ByteBuffer.allocate(8);
+		tag.order(reader.getMatFileHeader().getByteOrder());
+		while (offset + 8 <= size) {
+			tag.clear();
+			input.readFully(offset, tag);
+			long length = 8 + (tag.getInt(4) & 0xffffffffL);
+			if (offset + length > size) {
+				// still being written
+				break;
+			}
+			reader.readElement(input, offset);
+			offset += length;
+			MLArray array = reader.takeElement();
+			if (array != null) {
+				arrays.add(array);
+			}
+		}
+		return arrays;
+	}
+
+	/** Returns the header of the file, or null if it was not written yet. */
+	public synchronized MatFileHeader getMatFileHeader() {
+		return offset == 0 ? null : reader.getMatFileHeader();
+	}
+
+	@Override
+	public void close() throws IOException {
+		raFile.close();
+	}
+}
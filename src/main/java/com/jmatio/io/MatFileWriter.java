@@ -10,9 +10,14 @@ import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
@@ -58,6 +63,15 @@ import com.jmatio.types.MLStructure;
  *
  * </code>
  *
+ * Arrays which were read by a <code>MatFileReader</code> with
+ * {@link MatFileReader#setRetainOrigins(boolean) retained origins}, and
+ * which were not modified since, are written by copying their original
+ * element instead of encoding them again.  The output then takes the byte
+ * order of those elements, which is little-endian for most MAT-files
+ * written by MATLAB.  Writing over the file which the arrays were read
+ * from is supported: the output goes to a temporary file which then
+ * replaces the original.
+ *
  * @author Wojciech Gradkowski (<a
  *         href="mailto:wgradkowski@gmail.com">wgradkowski@gmail.com</a>)
  */
@@ -85,6 +99,27 @@ public class MatFileWriter {
 	}
 	//    private static final Logger logger = Logger.getLogger(MatFileWriter.class);
 
+	/**
+	 * Write policy: each array is deflated into an <code>miCOMPRESSED</code>
+	 * element.  This is the default.
+	 */
+	public static final int COMPRESSED = 1;
+	/**
+	 * Write policy: arrays are written uncompressed into a memory mapping of
+	 * the file, which is preallocated to its final size.
+	 */
+	public static final int MEMORY_MAPPED_FILE = 2;
+	/**
+	 * Write policy: arrays are written uncompressed with gathering writes,
+	 * which hand the storage of numeric arrays straight to the file channel.
+	 */
+	public static final int GATHERING_WRITE = 4;
+	/** Size of the windows in which the file is mapped by {@link #MEMORY_MAPPED_FILE}. */
+	private static final int MAPPED_WINDOW = 1 << 26;
+
+	/** The listener of the progress of the writes, or null. */
+	private MatFileProgressListener progressListener;
+
 	/**
 	 * Creates the new <code>{@link MatFileWriter}</code> instance
 	 */
@@ -92,6 +127,15 @@ public class MatFileWriter {
 		super();
 	}
 
+	/**
+	 * Sets the listener which follows the progress of the writes, and may
+	 * cancel them, or null for none.  A cancelled write throws a
+	 * {@link MatFileCancelledException} and leaves the file incomplete.
+	 */
+	public synchronized void setProgressListener(MatFileProgressListener progressListener) {
+		this.progressListener = progressListener;
+	}
+
 	/**
 	 * Writes MLArrays into file given by <code>fileName</code>.
 	 *
@@ -112,9 +156,8 @@ public class MatFileWriter {
 	 * @throws IOException
 	 * @throws DataFormatException
 	 */
-	@SuppressWarnings("resource")
 	public MatFileWriter(File file, Collection<MLArray> data) throws IOException {
-		this((new FileOutputStream(file)).getChannel(), data);
+		write(file, data);
 	}
 
 	/**
@@ -158,6 +201,17 @@ public class MatFileWriter {
 	 */
 	public synchronized void write(File file, Collection<MLArray> data)
 			throws IOException {
+		if (isOriginOf(file, data)) {
+			// the origins must stay readable until everything is written
+			File tempFile = File.createTempFile("matfilerw", ".tmp", file.getAbsoluteFile().getParentFile());
+			try {
+				write(tempFile, data);
+				MatFileEditor.replace(tempFile, file);
+			} finally {
+				tempFile.delete();
+			}
+			return;
+		}
 		FileOutputStream fos = new FileOutputStream(file);
 
 		try {
@@ -169,6 +223,216 @@ public class MatFileWriter {
 		}
 	}
 
+	/**
+	 * Writes <code>MLArrays</code> into <code>File</code> with the given
+	 * policy.
+	 * <p>
+	 * The uncompressed policies compute the layout of the whole file before
+	 * writing it, and copy the storage of numeric arrays in bulk, so their
+	 * speed is bound by the device rather than by the deflater.  The file is
+	 * written big-endian, and retained origins are ignored.
+	 * <ul>
+	 * <li><code>{@link #COMPRESSED}</code> - the same as <code>write(file, data)</code></li>
+	 * <li><code>{@link #MEMORY_MAPPED_FILE}</code> - the file is preallocated
+	 * and written through memory-mapped windows</li>
+	 * <li><code>{@link #GATHERING_WRITE}</code> - each array is written with
+	 * a single gathering write</li>
+	 * </ul>
+	 *
+	 * @param file
+	 *            the MAT-file to which data is written
+	 * @param data
+	 *            the collection of <code>{@link MLArray}</code> objects
+	 * @param policy
+	 *            the write policy
+	 * @throws IOException
+	 *             if error occurred during MAT-file writing
+	 */
+	public synchronized void write(File file, Collection<MLArray> data, int policy)
+			throws IOException {
+		if (policy == COMPRESSED) {
+			write(file, data);
+			return;
+		} else if (policy != MEMORY_MAPPED_FILE && policy != GATHERING_WRITE) {
+			throw new IllegalArgumentException("Unknown write policy");
+		}
+		MatFileProgress progress = new MatFileProgress(progressListener);
+		List<ByteBuffer[]> elements = new ArrayList<ByteBuffer[]>(data.size());
+		long length = 0;
+		elements.add(new ByteBuffer[]{headerBuffer(ByteOrder.BIG_ENDIAN)});
+		for (MLArray matrix : data) {
+			progress.checkCancelled();
+			elements.add(encodeUncompressed(matrix));
+		}
+		for (ByteBuffer[] parts : elements) {
+			for (ByteBuffer part : parts) {
+				length += part.remaining();
+			}
+		}
+
+		RandomAccessFile raFile = new RandomAccessFile(file, "rw");
+		try {
+			FileChannel channel = raFile.getChannel();
+			if (policy == MEMORY_MAPPED_FILE) {
+				raFile.setLength(length);
+				writeMapped(channel, elements, length, progress);
+			} else {
+				raFile.setLength(0);
+				for (ByteBuffer[] parts : elements) {
+					long remaining = 0;
+					for (ByteBuffer part : parts) {
+						remaining += part.remaining();
+					}
+					progress.addFileBytes(remaining);
+					while (remaining > 0) {
+						remaining -= channel.write(parts);
+					}
+					progress.elementDone(parts != elements.get(0));
+				}
+			}
+		} finally {
+			raFile.close();
+		}
+	}
+
+	/** Copies <code>elements</code> into consecutive memory-mapped windows of <code>channel</code>. */
+	private static void writeMapped(FileChannel channel, List<ByteBuffer[]> elements, long length, MatFileProgress progress) throws IOException {
+		ByteBuffer window = null;
+		long position = 0;
+		try {
+			for (ByteBuffer[] parts : elements) {
+				for (ByteBuffer part : parts) {
+					while (part.hasRemaining()) {
+						if (window == null || !window.hasRemaining()) {
+							if (window != null) {
+								Unsafe9R.invokeCleaner(window);
+								window = null;
+							}
+							progress.setFileBytes(position);
+							progress.checkCancelled();
+							window = channel.map(FileChannel.MapMode.READ_WRITE, position, Math.min(MAPPED_WINDOW, length - position));
+						}
+						int count = Math.min(part.remaining(), window.remaining());
+						ByteBuffer chunk = part.duplicate();
+						chunk.limit(chunk.position() + count);
+						window.put(chunk);
+						part.position(part.position() + count);
+						position += count;
+					}
+				}
+				progress.setFileBytes(position);
+				progress.elementDone(parts != elements.get(0));
+			}
+		} finally {
+			if (window != null) {
+				// only this method holds the mapping, so it is safe to release it
+				Unsafe9R.invokeCleaner(window);
+			}
+		}
+	}
+
+	/**
+	 * Encodes an uncompressed <code>miMATRIX</code> element.  The storage of
+	 * numeric arrays is not copied, but included as a part of the result.
+	 */
+	private ByteBuffer[] encodeUncompressed(MLArray array) throws IOException {
+		int dataType = numericDataType(array.getType());
+		if (dataType != 0) {
+			ByteBuffer real = storageOf(((MLNumericArray<?>) array).getRealView());
+			ByteBuffer imaginary = array.isComplex() ? storageOf(((MLNumericArray<?>) array).getImaginaryView()) : null;
+			// tiny arrays use the small data element format, which is left to writeMatrix
+			if (real.remaining() == 0 || real.remaining() > 4) {
+				ByteArrayOutputStream2 head = new ByteArrayOutputStream2();
+				DataOutputStream dos = new DataOutputStream(head);
+				writeFlags(dos, array);
+				writeDimensions(dos, array);
+				writeName(dos, array);
+
+				int realPadding = paddingOf(real.remaining());
+				int size = head.getCount() + 8 + real.remaining() + realPadding;
+				if (imaginary != null) {
+					size += 8 + imaginary.remaining() + realPadding;
+				}
+				ByteBuffer start = ByteBuffer.allocate(8 + head.getCount() + 8);
+				start.putInt(MatDataTypes.miMATRIX).putInt(size);
+				start.put(head.getBuf(), 0, head.getCount());
+				start.putInt(dataType).putInt(real.remaining());
+				start.flip();
+				if (imaginary == null) {
+					return new ByteBuffer[]{start, real, ByteBuffer.allocate(realPadding)};
+				}
+				ByteBuffer imaginaryTag = ByteBuffer.allocate(realPadding + 8);
+				imaginaryTag.position(realPadding);
+				imaginaryTag.putInt(dataType).putInt(imaginary.remaining());
+				imaginaryTag.flip();
+				return new ByteBuffer[]{start, real, imaginaryTag, imaginary, ByteBuffer.allocate(realPadding)};
+			}
+		}
+		ByteArrayOutputStream2 encoded = new ByteArrayOutputStream2();
+		writeMatrix(new DataOutputStream(encoded), array);
+		return new ByteBuffer[]{ByteBuffer.wrap(encoded.getBuf(), 0, encoded.getCount())};
+	}
+
+	/** Returns a view of the whole storage of a numeric array. */
+	private static ByteBuffer storageOf(ByteBuffer buffer) {
+		ByteBuffer storage = buffer.duplicate();
+		storage.rewind();
+		return storage;
+	}
+
+	/** Returns the number of bytes which pad a normal data element of the given size. */
+	private static int paddingOf(int size) {
+		return size % 8 == 0 ? 0 : 8 - size % 8;
+	}
+
+	/** Returns the data type which {@link #writeMatrix} uses for a numeric array class, or 0 for other classes. */
+	private static int numericDataType(int type) {
+		switch (type) {
+		case MLArray.mxDOUBLE_CLASS:
+			return MatDataTypes.miDOUBLE;
+		case MLArray.mxSINGLE_CLASS:
+			return MatDataTypes.miSINGLE;
+		case MLArray.mxUINT8_CLASS:
+			return MatDataTypes.miUINT8;
+		case MLArray.mxINT8_CLASS:
+			return MatDataTypes.miINT8;
+		case MLArray.mxINT16_CLASS:
+			return MatDataTypes.miINT16;
+		case MLArray.mxINT32_CLASS:
+			return MatDataTypes.miINT32;
+		case MLArray.mxINT64_CLASS:
+			return MatDataTypes.miINT64;
+		case MLArray.mxUINT64_CLASS:
+			return MatDataTypes.miUINT64;
+		default:
+			return 0;
+		}
+	}
+
+	/** Returns true if one of the arrays would be copied from <code>file</code>. */
+	private static boolean isOriginOf(File file, Collection<MLArray> data) throws IOException {
+		File canonical = file.getCanonicalFile();
+		for (MLArray matrix : data) {
+			MatFileOrigin origin = matrix.getOrigin();
+			if (origin != null && origin.getFile() != null && origin.isCurrent(matrix)
+					&& origin.getFile().getCanonicalFile().equals(canonical)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Returns the byte order of the first array which can be copied from its origin, or the default byte order. */
+	private static ByteOrder chooseByteOrder(Collection<MLArray> data) {
+		for (MLArray matrix : data) {
+			MatFileOrigin origin = matrix.getOrigin();
+			if (origin != null && origin.isCurrent(matrix)) {
+				return origin.getByteOrder();
+			}
+		}
+		return MatFileHeader.DEFAULT_ENDIAN;
+	}
+
 	/**
 	 * Writes <code>MLArrays</code> into <code>WritableByteChannel</code>.
 	 *
@@ -181,33 +445,64 @@ public class MatFileWriter {
 	 */
 	private synchronized void write(WritableByteChannel channel,
 			Collection<MLArray> data) throws IOException {
+		MatFileProgress progress = new MatFileProgress(progressListener);
 		try {
+			ByteOrder byteOrder = chooseByteOrder(data);
+
 			//write header
-			writeHeader(channel);
+			writeHeader(channel, byteOrder);
+			progress.addFileBytes(MatFileIndex.HEADER_LENGTH);
 
 			//write data
 			for (MLArray matrix : data) {
+				progress.checkCancelled();
+				//copy unmodified arrays verbatim
+				MatFileOrigin origin = matrix.getOrigin();
+				if (origin != null && origin.getByteOrder() == byteOrder && origin.isCurrent(matrix)) {
+					origin.writeTo(channel);
+					progress.addFileBytes(origin.getLength());
+					progress.elementDone(true);
+					continue;
+				}
+
 				//compress data to save storage
 				Deflater compresser = new Deflater();
 
 				ByteArrayOutputStream2 compressed = new ByteArrayOutputStream2();
-				DataOutputStream dout = new DataOutputStream(new DeflaterOutputStream(compressed, compresser));
-
-				writeMatrix(dout, matrix);
-				dout.flush();
-				dout.close();
+				try {
+					DataOutputStream dout = new DataOutputStream(progress.counting(new DeflaterOutputStream(compressed, compresser)));
+
+					if (byteOrder == ByteOrder.BIG_ENDIAN) {
+						writeMatrix(dout, matrix);
+					} else {
+						//the MATRIX bytes are always written big-endian
+						ByteArrayOutputStream2 raw = new ByteArrayOutputStream2();
+						writeMatrix(new DataOutputStream(raw), matrix);
+						ByteSwapper.swapElements(ByteBuffer.wrap(raw.getBuf(), 0, raw.getCount()), 0, raw.getCount());
+						dout.write(raw.getBuf(), 0, raw.getCount());
+					}
+					dout.flush();
+					dout.close();
+				} finally {
+					compresser.end();
+				}
 
 				//write COMPRESSED tag and compressed data into output channel
 
 				int compressedSize = compressed.getCount();
 				ByteBuffer buf = ByteBuffer.allocateDirect(2 * 4 /* Int size */ + compressedSize);
+				buf.order(byteOrder);
 				buf.putInt(MatDataTypes.miCOMPRESSED);
 
 				buf.putInt(compressedSize);
 				buf.put(compressed.getBuf(), 0, compressedSize);
 
 				buf.flip();
-				channel.write(buf);
+				while (buf.hasRemaining()) {
+					channel.write(buf);
+				}
+				progress.addFileBytes(8 + compressedSize);
+				progress.elementDone(true);
 			}
 		} catch (IOException e) {
 			throw e;
@@ -221,9 +516,18 @@ public class MatFileWriter {
 	 * @param os <code>OutputStream</code>
 	 * @throws IOException
 	 */
-	private void writeHeader(WritableByteChannel channel) throws IOException {
+	private void writeHeader(WritableByteChannel channel, ByteOrder byteOrder) throws IOException {
+		ByteBuffer buf = headerBuffer(byteOrder);
+		while (buf.hasRemaining()) {
+			channel.write(buf);
+		}
+	}
+
+	/** Returns the MAT-file header for the given byte order. */
+	private static ByteBuffer headerBuffer(ByteOrder byteOrder) {
 		//write descriptive text
 		MatFileHeader header = MatFileHeader.createHeader();
+		header = new MatFileHeader(header.getDescription(), header.getVersion(), byteOrder);
 		char[] dest = new char[116];
 		char[] src = header.getDescription().toCharArray();
 		System.arraycopy(src, 0, dest, 0, src.length);
@@ -240,13 +544,13 @@ public class MatFileWriter {
 
 		//write version
 		int version = header.getVersion();
-		buf.put((byte) (version >> 8));
-		buf.put((byte) version);
+		buf.order(byteOrder);
+		buf.putShort((short) version);
 
 		buf.put(endianIndicator);
 
 		buf.flip();
-		channel.write(buf);
+		return buf;
 	}
 
 	/**
@@ -277,9 +581,9 @@ public class MatFileWriter {
 			//write char data
 			buffer = new ByteArrayOutputStream();
 			bufferDOS = new DataOutputStream(buffer);
-			Character[] ac = ((MLChar) array).exportChar();
-			for (int i = 0; i < ac.length; i++) {
-				String temp = new StringBuffer().append(ac[i].charValue()).toString();
+			MLChar ac = (MLChar) array;
+			for (int i = 0; i < ac.getSize(); i++) {
+				String temp = new StringBuffer().append(ac.getChar(i)).toString();
 				bufferDOS.write(temp.getBytes("UTF-8"));
 			}
 			tag = new OSArrayTag(MatDataTypes.miUTF8, buffer.toByteArray());
@@ -289,102 +593,102 @@ public class MatFileWriter {
 		case MLArray.mxDOUBLE_CLASS:
 
 			tag = new OSArrayTag(MatDataTypes.miDOUBLE,
-					((MLNumericArray<?>) array).getRealByteBuffer());
+					((MLNumericArray<?>) array).getRealView());
 			tag.writeTo(dos);
 
 			//write real imaginary
 			if (array.isComplex()) {
 				tag = new OSArrayTag(MatDataTypes.miDOUBLE,
-						((MLNumericArray<?>) array).getImaginaryByteBuffer());
+						((MLNumericArray<?>) array).getImaginaryView());
 				tag.writeTo(dos);
 			}
 			break;
 		case MLArray.mxSINGLE_CLASS:
 
 			tag = new OSArrayTag(MatDataTypes.miSINGLE,
-					((MLNumericArray<?>) array).getRealByteBuffer());
+					((MLNumericArray<?>) array).getRealView());
 			tag.writeTo(dos);
 
 			//write real imaginary
 			if (array.isComplex()) {
 				tag = new OSArrayTag(MatDataTypes.miSINGLE,
-						((MLNumericArray<?>) array).getImaginaryByteBuffer());
+						((MLNumericArray<?>) array).getImaginaryView());
 				tag.writeTo(dos);
 			}
 			break;
 		case MLArray.mxUINT8_CLASS:
 
 			tag = new OSArrayTag(MatDataTypes.miUINT8,
-					((MLNumericArray<?>) array).getRealByteBuffer());
+					((MLNumericArray<?>) array).getRealView());
 			tag.writeTo(dos);
 
 			//write real imaginary
 			if (array.isComplex()) {
 				tag = new OSArrayTag(MatDataTypes.miUINT8,
-						((MLNumericArray<?>) array).getImaginaryByteBuffer());
+						((MLNumericArray<?>) array).getImaginaryView());
 				tag.writeTo(dos);
 			}
 			break;
 		case MLArray.mxINT8_CLASS:
 
 			tag = new OSArrayTag(MatDataTypes.miINT8,
-					((MLNumericArray<?>) array).getRealByteBuffer());
+					((MLNumericArray<?>) array).getRealView());
 			tag.writeTo(dos);
 
 			//write real imaginary
 			if (array.isComplex()) {
 				tag = new OSArrayTag(MatDataTypes.miINT8,
-						((MLNumericArray<?>) array).getImaginaryByteBuffer());
+						((MLNumericArray<?>) array).getImaginaryView());
 				tag.writeTo(dos);
 			}
 			break;
 		case MLArray.mxINT16_CLASS:
 
 			tag = new OSArrayTag(MatDataTypes.miINT16,
-					((MLNumericArray<?>) array).getRealByteBuffer());
+					((MLNumericArray<?>) array).getRealView());
 			tag.writeTo(dos);
 
 			//write real imaginary
 			if (array.isComplex()) {
 				tag = new OSArrayTag(MatDataTypes.miINT16,
-						((MLNumericArray<?>) array).getImaginaryByteBuffer());
+						((MLNumericArray<?>) array).getImaginaryView());
 				tag.writeTo(dos);
 			}
 			break;
 		case MLArray.mxINT32_CLASS:
 			tag = new OSArrayTag(MatDataTypes.miINT32,
-					((MLNumericArray<?>) array).getRealByteBuffer());
+					((MLNumericArray<?>) array).getRealView());
 			tag.writeTo(dos);
 
 			if (array.isComplex()) {
 				tag = new OSArrayTag(MatDataTypes.miINT32,
-						((MLNumericArray<?>) array).getImaginaryByteBuffer());
+						((MLNumericArray<?>) array).getImaginaryView());
 				tag.writeTo(dos);
 			}
 			break;
 		case MLArray.mxINT64_CLASS:
 
 			tag = new OSArrayTag(MatDataTypes.miINT64,
-					((MLNumericArray<?>) array).getRealByteBuffer());
+					((MLNumericArray<?>) array).getRealView());
 			tag.writeTo(dos);
 
 			//write real imaginary
 			if (array.isComplex()) {
 				tag = new OSArrayTag(MatDataTypes.miINT64,
-						((MLNumericArray<?>) array).getImaginaryByteBuffer());
+						((MLNumericArray<?>) array).getImaginaryView());
 				tag.writeTo(dos);
 			}
 			break;
 		case MLArray.mxUINT64_CLASS:
 
 			tag = new OSArrayTag(MatDataTypes.miUINT64,
-					((MLNumericArray<?>) array).getRealByteBuffer());
+					((MLNumericArray<?>) array).getRealView());
 			tag.writeTo(dos);
 
 			//write real imaginary
 			if (array.isComplex()) {
 				tag = new OSArrayTag(MatDataTypes.miUINT64,
-						((MLNumericArray<?>) array).getImaginaryByteBuffer());
+						((MLNumericArray<?>) array).getImaginaryView());
 				tag.writeTo(dos);
 			}
 			break;
@@ -403,8 +707,10 @@ public class MatFileWriter {
 			}
 			break;
 		case MLArray.mxCELL_CLASS:
-			for (MLArray a : ((MLCell) array).cells()) {
-				writeMatrix(dos, a);
+			// read through get(), which leaves frozen and retained cells untouched
+			MLCell cell = (MLCell) array;
+			for (int i = 0; i < cell.getSize(); i++) {
+				writeMatrix(dos, cell.get(i));
 			}
 			break;
 		case MLArray.mxSPARSE_CLASS:
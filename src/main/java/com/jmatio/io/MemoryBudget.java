@@ -0,0 +1,60 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.io;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A number of bytes shared by the reads of several {@link MatFileReader}s,
+ * such as all the reads of a server.
+ * <p>
+ * Each read reserves the bytes it allocates for arrays and inflated data
+ * before allocating them, and releases them once it is done, so the budget
+ * bounds the memory used by the reads in progress.  A read which would
+ * exceed the budget fails with a {@link MatFileBudgetException}.
+ *
+ * @see MatFileReader#setMemoryBudget(MemoryBudget)
+ */
+public class MemoryBudget {
+	private final long maxBytes;
+	private final AtomicLong reserved = new AtomicLong();
+
+	/** Creates a budget of <code>maxBytes</code> bytes. */
+	public MemoryBudget(long maxBytes) {
+		if (maxBytes < 0) {
+			throw new IllegalArgumentException("The budget must not be negative.");
+		}
+		this.maxBytes = maxBytes;
+	}
+
+	/** Returns the number of bytes of the budget. */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/** Returns the number of bytes reserved by the reads in progress. */
+	public long getReservedBytes() {
+		return reserved.get();
+	}
+
+	/** Reserves <code>bytes</code> bytes, unless that would exceed the budget. */
+	boolean tryReserve(long bytes) {
+		while (true) {
+			long current = reserved.get();
+			if (bytes > maxBytes - current) {
+				return false;
+			}
+			if (reserved.compareAndSet(current, current + bytes)) {
+				return true;
+			}
+		}
+	}
+
+	/** Releases <code>bytes</code> reserved bytes. */
+	void release(long bytes) {
+		reserved.addAndGet(-bytes);
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.FileChannel;
+
+/**
+ * Bytes which can be read at any position, without being copied as a whole,
+ * such as a <code>FileChannel</code> or a <code>SeekableByteChannel</code>.
+ */
+abstract class PositionalInput {
+	/** Returns the number of bytes. */
+	abstract long size() throws IOException;
+
+	/** Fills the remaining space of <code>dst</code> with the bytes at the given position. */
+	abstract void readFully(long position, ByteBuffer dst) throws IOException;
+
+	/** Returns an input stream over the <code>length</code> bytes at <code>position</code>. */
+	InputStream openStream(final long position, final long length) {
+		return new InputStream() {
+			private final ByteBuffer single = ByteBuffer.allocate(1);
+			private long offset = 0;
+
+			@Override
+			public int read() throws IOException {
+				single.clear();
+				return read(single.array(), 0, 1) < 0 ? -1 : single.get(0) & 0xff;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (offset == length) {
+					return -1;
+				}
+				len = (int) Math.min(len, length - offset);
+				readFully(position + offset, ByteBuffer.wrap(b, off, len));
+				offset += len;
+				return len;
+			}
+		};
+	}
+
+	/** Reads the bytes of a <code>FileChannel</code>, without changing its position. */
+	static PositionalInput of(final FileChannel channel) {
+		return new PositionalInput() {
+			@Override
+			long size() throws IOException {
+				return channel.size();
+			}
+
+			@Override
+			void readFully(long position, ByteBuffer dst) throws IOException {
+				MatFileIndex.readFully(channel, position, dst);
+			}
+		};
+	}
+
+	/**
+	 * Reads the bytes of a <code>FileChannel</code> or of a
+	 * <code>SeekableByteChannel</code>, whose position is moved by each read.
+	 * The Java 7 interface is accessed reflectively, so that this library
+	 * still runs on Java 6.
+	 *
+	 * @throws IllegalArgumentException if the channel is not seekable
+	 */
+	static PositionalInput of(final ByteChannel channel) {
+		if (channel instanceof FileChannel) {
+			return of((FileChannel) channel);
+		}
+		if (Seekable.SEEKABLE == null || !Seekable.SEEKABLE.isInstance(channel)) {
+			throw new IllegalArgumentException("The channel must be a FileChannel or a SeekableByteChannel.");
+		}
+		return new PositionalInput() {
+			@Override
+			long size() throws IOException {
+				return (Long) Seekable.invoke(Seekable.SIZE, channel);
+			}
+
+			@Override
+			void readFully(long position, ByteBuffer dst) throws IOException {
+				synchronized (channel) {
+					Seekable.invoke(Seekable.POSITION, channel, position);
+					while (dst.hasRemaining()) {
+						int read = channel.read(dst);
+						if (read < 0) {
+							throw new EOFException("Unexpected end of channel at offset " + position);
+						}
+					}
+				}
+			}
+		};
+	}
+
+	/** The methods of <code>java.nio.channels.SeekableByteChannel</code>, if it exists. */
+	private static class Seekable {
+		static final Class<?> SEEKABLE;
+		static final Method SIZE;
+		static final Method POSITION;
+
+		static {
+			Class<?> seekable = null;
+			Method size = null;
+			Method position = null;
+			try {
+				seekable = Class.forName("java.nio.channels.SeekableByteChannel");
+				size = seekable.getMethod("size");
+				position = seekable.getMethod("position", long.class);
+			} catch (Exception e) {
+				// Java 6, where FileChannel is the only seekable channel
+				seekable = null;
+			}
+			SEEKABLE = seekable;
+			SIZE = size;
+			POSITION = position;
+		}
+
+		static Object invoke(Method method, Object target, Object... args) throws IOException {
+			try {
+				return method.invoke(target, args);
+			} catch (InvocationTargetException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new IllegalStateException(e.getCause());
+			} catch (IllegalAccessException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+}
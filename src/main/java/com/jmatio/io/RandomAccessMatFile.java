@@ -0,0 +1,527 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.io;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.jmatio.common.MatDataTypes;
+import com.jmatio.io.stream.MatFileInputStream;
+import com.jmatio.types.MLArray;
+import com.jmatio.types.MLDouble;
+import com.jmatio.types.MLInt16;
+import com.jmatio.types.MLInt32;
+import com.jmatio.types.MLInt64;
+import com.jmatio.types.MLInt8;
+import com.jmatio.types.MLNumericArray;
+import com.jmatio.types.MLSingle;
+import com.jmatio.types.MLUInt16;
+import com.jmatio.types.MLUInt32;
+import com.jmatio.types.MLUInt64;
+import com.jmatio.types.MLUInt8;
+
+/**
+ * Reads ranges of the variables of a MAT-file without decoding them whole.
+ * <p>
+ * Uncompressed elements are read directly at the offset of the range.  The
+ * elements of compressed variables have to be inflated from their start, so
+ * while inflating, checkpoints are recorded every {@link #setCheckpointSpan(int) span}
+ * bytes of output.  Later reads resume from the nearest checkpoint, so once
+ * an element has been inflated, reading a window at its end costs about as
+ * much as inflating one span.
+ * <pre><code>
+ * RandomAccessMatFile file = new RandomAccessMatFile(new File("signals.mat"));
+ * file.buildCheckpoints("signal");
+ * ByteBuffer window = file.readReal("signal", 1000000, 1000);
+ * file.close();
+ * </code></pre>
+ *
+ * The index of the file and its checkpoints can be saved into a sidecar
+ * index file with {@link #writeSidecar()}, from which they are loaded when
+ * the file is opened again, as long as it has not changed.
+ */
+public class RandomAccessMatFile implements Closeable {
+	/** Default number of bytes of output between two checkpoints. */
+	public static final int DEFAULT_CHECKPOINT_SPAN = 1 << 20;
+	/** Number of bytes of each array which are decoded on the first attempt to locate its data. */
+	private static final int PREFIX_LENGTH = 256;
+	/** Number of bytes within which the values of a hyperslab are read at once, with the bytes between them. */
+	private static final int GATHER_CHUNK = 1 << 16;
+
+	private final File file;
+	private final RandomAccessFile raFile;
+	private final FileChannel channel;
+	private final MatFileIndex index;
+	/** The checkpoints of each compressed element, by offset, in the order of their output. */
+	private final Map<Long, List<InflateCheckpoint>> checkpoints = new HashMap<Long, List<InflateCheckpoint>>();
+	private final Map<Long, Layout> layouts = new HashMap<Long, Layout>();
+	private int checkpointSpan = DEFAULT_CHECKPOINT_SPAN;
+
+	/** Opens the given MAT-file, and scans its elements unless its sidecar index file is valid. */
+	public RandomAccessMatFile(File file) throws IOException {
+		this.file = file;
+		raFile = new RandomAccessFile(file, "r");
+		try {
+			channel = raFile.getChannel();
+			MatFileIndex sidecar = MatFileSidecar.read(file, checkpoints);
+			index = sidecar != null ? sidecar : MatFileIndex.scan(channel);
+		} catch (IOException e) {
+			raFile.close();
+			throw e;
+		}
+	}
+
+	/** Returns the elements of the file. */
+	public MatFileIndex getIndex() {
+		return index;
+	}
+
+	/**
+	 * Sets the number of bytes of output between two checkpoints.  Each
+	 * checkpoint keeps 32 KB in memory; 0 disables checkpoints.
+	 */
+	public synchronized void setCheckpointSpan(int span) {
+		if (span < 0) {
+			throw new IllegalArgumentException("The checkpoint span must not be negative.");
+		}
+		this.checkpointSpan = span;
+	}
+
+	/**
+	 * Inflates the element of the given variable to its end, recording the
+	 * checkpoints which are not known yet.
+	 *
+	 * @return the number of checkpoints of the element
+	 */
+	public synchronized int buildCheckpoints(String name) throws IOException {
+		MatFileEntry entry = entry(name);
+		if (!entry.isCompressed()) {
+			return 0;
+		}
+		inflaterAt(entry, Long.MAX_VALUE).skip(Long.MAX_VALUE);
+		return checkpointsOf(entry).size();
+	}
+
+	/**
+	 * Reads <code>length</code> bytes of the uncompressed <code>miMATRIX</code>
+	 * element of the given variable, starting at <code>position</code>, where
+	 * position 0 is the element's tag.  The buffer has the byte order of the file.
+	 *
+	 * @throws EOFException if the range extends past the end of the element
+	 */
+	public synchronized ByteBuffer readElement(String name, long position, int length) throws IOException {
+		return readElement(entry(name), position, length);
+	}
+
+	/** Returns the data type, as in <code>MatDataTypes</code>, in which the values of the given numeric variable are stored. */
+	public synchronized int getDataType(String name) throws IOException {
+		return layout(entry(name)).realType;
+	}
+
+	/** Returns the number of values of the given numeric variable. */
+	public synchronized long getLength(String name) throws IOException {
+		return layout(entry(name)).count;
+	}
+
+	/**
+	 * Reads <code>count</code> real values of the given numeric variable,
+	 * starting at the linear index <code>first</code>.  The values are in
+	 * the {@link #getDataType(String) data type} in which they are stored,
+	 * which is often narrower than the class of the array.
+	 */
+	public synchronized ByteBuffer readReal(String name, long first, int count) throws IOException {
+		MatFileEntry entry = entry(name);
+		Layout layout = layout(entry);
+		return readValues(entry, layout.realType, layout.realOffset, layout.count, first, count);
+	}
+
+	/**
+	 * Reads <code>count</code> imaginary values of the given complex variable,
+	 * starting at the linear index <code>first</code>.
+	 *
+	 * @see #readReal(String, long, int)
+	 */
+	public synchronized ByteBuffer readImaginary(String name, long first, int count) throws IOException {
+		MatFileEntry entry = entry(name);
+		Layout layout = layout(entry);
+		if (!entry.isComplex()) {
+			throw new IllegalArgumentException("Variable " + name + " is not complex.");
+		}
+		return readValues(entry, layout.imaginaryType, layout.imaginaryOffset, layout.count, first, count);
+	}
+
+	/**
+	 * Reads a strided hyperslab of the given numeric variable into a new array
+	 * of the same class.  Along each dimension <code>d</code>, the hyperslab
+	 * holds <code>count[d]</code> values, starting at the index
+	 * <code>start[d]</code> and <code>stride[d]</code> apart.  For instance,
+	 * every 1000th value of the first million rows of a column vector is
+	 * <pre><code>
+	 * file.readHyperslab("signal", new int[]{0, 0}, new int[]{1000, 1}, new int[]{1000, 1});
+	 * </code></pre>
+	 *
+	 * Uncompressed variables are read one run along the first dimension at a
+	 * time.  Selected values which lie within 64 KB of each other are read
+	 * together in a single read, along with the bytes between them, and
+	 * values further apart are read one at a time.  So a small stride costs
+	 * up to <code>stride[0]</code> times the bytes of the selected values,
+	 * but far fewer reads.  Compressed variables are inflated once up to the
+	 * last selected value, or from the nearest checkpoint, and decimated on
+	 * the fly.
+	 *
+	 * @return an array with the dimensions <code>count</code>, and the name of the variable
+	 * @throws IllegalArgumentException if the variable is not numeric, or if the arrays do not have one value per dimension
+	 * @throws IndexOutOfBoundsException if the hyperslab extends past the variable
+	 */
+	public synchronized MLNumericArray<?> readHyperslab(String name, int[] start, int[] count, int[] stride) throws IOException {
+		MatFileEntry entry = entry(name);
+		Layout layout = layout(entry);
+		int[] dims = entry.getDimensions();
+		if (start.length != dims.length || count.length != dims.length || stride.length != dims.length) {
+			throw new IllegalArgumentException("Variable " + name + " has " + dims.length + " dimensions.");
+		}
+		long size = 1;
+		for (int d = 0; d < dims.length; d++) {
+			if (stride[d] < 1 || count[d] < 0) {
+				throw new IllegalArgumentException("Strides must be positive, and counts must not be negative.");
+			}
+			if (start[d] < 0 || (count[d] > 0 && start[d] + (long) (count[d] - 1) * stride[d] >= dims[d])) {
+				throw new IndexOutOfBoundsException("Dimension " + d + " of " + name + " has " + dims[d] + " values.");
+			}
+			size *= count[d];
+		}
+		if (size * Math.max(ByteSwapper.widthOf(layout.realType), 8) > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("The hyperslab is too large for an array.");
+		}
+
+		MLNumericArray<?> array = createArray(name, count, entry.getAttributes());
+		ByteBuffer real = gather(entry, layout.realType, layout.realOffset, dims, start, count, stride);
+		new MatFileInputStream(real, layout.realType).readToByteBuffer(array.getRealByteBuffer(), (int) size, array);
+		if (entry.isComplex()) {
+			ByteBuffer imaginary = gather(entry, layout.imaginaryType, layout.imaginaryOffset, dims, start, count, stride);
+			new MatFileInputStream(imaginary, layout.imaginaryType).readToByteBuffer(array.getImaginaryByteBuffer(), (int) size, array);
+		}
+		return array;
+	}
+
+	/**
+	 * Writes the index of the file and the checkpoints recorded so far into
+	 * its sidecar index file.
+	 *
+	 * @see MatFileIndex#writeSidecar(File)
+	 */
+	public synchronized void writeSidecar() throws IOException {
+		MatFileSidecar.write(file, index, checkpoints);
+	}
+
+	/** Closes the file. */
+	@Override
+	public synchronized void close() throws IOException {
+		raFile.close();
+	}
+
+	private MatFileEntry entry(String name) {
+		MatFileEntry entry = index.getEntry(name);
+		if (entry == null) {
+			throw new IllegalArgumentException("There is no variable named " + name + ".");
+		}
+		return entry;
+	}
+
+	private ByteBuffer readValues(MatFileEntry entry, int type, long offset, long length, long first, int count) throws IOException {
+		if (first < 0 || count < 0 || first + count > length) {
+			throw new IndexOutOfBoundsException("Values [" + first + ", " + (first + count) + ") of " + entry.getName() + ", which has " + length + ".");
+		}
+		int width = ByteSwapper.widthOf(type);
+		return readElement(entry, offset + first * width, count * width);
+	}
+
+	private ByteBuffer readElement(MatFileEntry entry, long position, int length) throws IOException {
+		if (position < 0 || length < 0) {
+			throw new IllegalArgumentException("Negative position or length.");
+		}
+		ByteBuffer buf = ByteBuffer.allocate(length);
+		new Cursor(entry).read(position, buf);
+		buf.flip();
+		buf.order(index.getHeader().getByteOrder());
+		return buf;
+	}
+
+	/**
+	 * Reads forward through the uncompressed element of a variable.  Reading
+	 * at increasing positions inflates each compressed block at most once,
+	 * and jumps over the blocks between two positions which are further apart
+	 * than the checkpoints.
+	 */
+	private class Cursor {
+		private final MatFileEntry entry;
+		private ResumableInflater inflater;
+
+		Cursor(MatFileEntry entry) {
+			this.entry = entry;
+		}
+
+		/** Fills the remaining space of <code>dst</code> with the bytes at <code>position</code>. */
+		void read(long position, ByteBuffer dst) throws IOException {
+			long end = position + dst.remaining();
+			if (!entry.isCompressed()) {
+				if (end > entry.getLength()) {
+					throw new EOFException("Bytes [" + position + ", " + end + ") are past the end of " + entry + ".");
+				}
+				MatFileIndex.readFully(channel, entry.getOffset() + position, dst);
+				return;
+			}
+			List<InflateCheckpoint> list = checkpointsOf(entry);
+			int found = lastCheckpoint(list, position);
+			if (inflater == null || position < inflater.getPosition()
+					|| (found >= 0 && list.get(found).getOutputOffset() > inflater.getPosition())) {
+				inflater = inflaterAt(entry, position);
+			}
+			long gap = position - inflater.getPosition();
+			if (inflater.skip(gap) < gap) {
+				throw new EOFException("Position " + position + " is past the end of " + entry + ".");
+			}
+			while (dst.hasRemaining()) {
+				if (inflater.read(dst) < 0) {
+					throw new EOFException("Bytes [" + position + ", " + end + ") are past the end of " + entry + ".");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the values of a hyperslab, in the data type in which they are
+	 * stored at <code>offset</code> within the element.  The values are read
+	 * one run along the first dimension at a time, which are visited at
+	 * increasing positions.
+	 */
+	private ByteBuffer gather(MatFileEntry entry, int type, long offset, int[] dims, int[] start, int[] count, int[] stride) throws IOException {
+		int width = ByteSwapper.widthOf(type);
+		int size = 1;
+		for (int c : count) {
+			size *= c;
+		}
+		ByteBuffer values = ByteBuffer.allocate(size * width);
+		values.order(index.getHeader().getByteOrder());
+		if (size == 0) {
+			return values;
+		}
+		long[] dimStride = new long[dims.length];
+		dimStride[0] = 1;
+		for (int d = 1; d < dims.length; d++) {
+			dimStride[d] = dimStride[d - 1] * dims[d - 1];
+		}
+
+		Cursor cursor = new Cursor(entry);
+		long step = (long) stride[0] * width;
+		// values which are close enough are read together with the bytes between them
+		int perChunk = step <= GATHER_CHUNK ? (int) Math.max(1, GATHER_CHUNK / step) : 1;
+		ByteBuffer chunk = ByteBuffer.allocate((int) ((perChunk - 1) * step + width));
+		int[] position = new int[dims.length];
+		while (true) {
+			long first = start[0];
+			for (int d = 1; d < dims.length; d++) {
+				first += (start[d] + (long) position[d] * stride[d]) * dimStride[d];
+			}
+			for (int i = 0; i < count[0]; i += perChunk) {
+				int n = Math.min(perChunk, count[0] - i);
+				chunk.clear();
+				chunk.limit((int) ((n - 1) * step + width));
+				cursor.read(offset + (first + (long) i * stride[0]) * width, chunk);
+				for (int j = 0; j < n; j++) {
+					values.put(chunk.array(), (int) (j * step), width);
+				}
+			}
+			// advance the index of the higher dimensions, the first one varying fastest
+			int d = 1;
+			while (d < dims.length && ++position[d] == count[d]) {
+				position[d++] = 0;
+			}
+			if (d == dims.length) {
+				break;
+			}
+		}
+		values.flip();
+		return values;
+	}
+
+	/** Creates a numeric array of the class in <code>attributes</code>. */
+	private static MLNumericArray<?> createArray(String name, int[] dims, int attributes) {
+		int type = attributes & MLArray.mtFLAG_TYPE;
+		switch (type) {
+		case MLArray.mxDOUBLE_CLASS:
+			return new MLDouble(name, dims, type, attributes);
+		case MLArray.mxSINGLE_CLASS:
+			return new MLSingle(name, dims, type, attributes);
+		case MLArray.mxINT8_CLASS:
+			return new MLInt8(name, dims, type, attributes);
+		case MLArray.mxUINT8_CLASS:
+			return new MLUInt8(name, dims, type, attributes);
+		case MLArray.mxINT16_CLASS:
+			return new MLInt16(name, dims, type, attributes);
+		case MLArray.mxUINT16_CLASS:
+			return new MLUInt16(name, dims, type, attributes);
+		case MLArray.mxINT32_CLASS:
+			return new MLInt32(name, dims, type, attributes);
+		case MLArray.mxUINT32_CLASS:
+			return new MLUInt32(name, dims, type, attributes);
+		case MLArray.mxINT64_CLASS:
+			return new MLInt64(name, dims, type, attributes);
+		case MLArray.mxUINT64_CLASS:
+			return new MLUInt64(name, dims, type, attributes);
+		default:
+			throw new IllegalArgumentException("Not a numeric class: " + MLArray.typeToString(type));
+		}
+	}
+
+	/** Returns the index of the last checkpoint at or before <code>position</code>, or -1 if there is none. */
+	private static int lastCheckpoint(List<InflateCheckpoint> list, long position) {
+		int found = -1;
+		for (int i = 0; i < list.size() && list.get(i).getOutputOffset() <= position; i++) {
+			found = i;
+		}
+		return found;
+	}
+
+	/** Returns an inflater which starts at the last checkpoint at or before <code>position</code>. */
+	private ResumableInflater inflaterAt(MatFileEntry entry, long position) throws IOException {
+		List<InflateCheckpoint> list = checkpointsOf(entry);
+		int found = lastCheckpoint(list, position);
+		long start = entry.getOffset() + 8;
+		long length = entry.getLength() - 8;
+		ResumableInflater inflater;
+		if (found < 0) {
+			inflater = new ResumableInflater(channel, start, length);
+		} else {
+			inflater = new ResumableInflater(channel, start, length, list.get(found));
+		}
+		// only the last known checkpoint is followed by unknown ones
+		if (checkpointSpan > 0 && found == list.size() - 1) {
+			long next = (found < 0 ? 0 : list.get(found).getOutputOffset()) + checkpointSpan;
+			inflater.recordCheckpoints(list, next, checkpointSpan);
+		}
+		return inflater;
+	}
+
+	private List<InflateCheckpoint> checkpointsOf(MatFileEntry entry) {
+		List<InflateCheckpoint> list = checkpoints.get(entry.getOffset());
+		if (list == null) {
+			list = new ArrayList<InflateCheckpoint>();
+			checkpoints.put(entry.getOffset(), list);
+		}
+		return list;
+	}
+
+	/** Where the values of a numeric array are within its element. */
+	private static class Layout {
+		int realType;
+		long realOffset;
+		long count;
+		int imaginaryType;
+		long imaginaryOffset;
+	}
+
+	private Layout layout(MatFileEntry entry) throws IOException {
+		Layout layout = layouts.get(entry.getOffset());
+		if (layout == null) {
+			layout = parseLayout(entry);
+			layouts.put(entry.getOffset(), layout);
+		}
+		return layout;
+	}
+
+	private Layout parseLayout(MatFileEntry entry) throws IOException {
+		switch (entry.getType()) {
+		case MLArray.mxDOUBLE_CLASS:
+		case MLArray.mxSINGLE_CLASS:
+		case MLArray.mxINT8_CLASS:
+		case MLArray.mxUINT8_CLASS:
+		case MLArray.mxINT16_CLASS:
+		case MLArray.mxUINT16_CLASS:
+		case MLArray.mxINT32_CLASS:
+		case MLArray.mxUINT32_CLASS:
+		case MLArray.mxINT64_CLASS:
+		case MLArray.mxUINT64_CLASS:
+			break;
+		default:
+			throw new IllegalArgumentException("Variable " + entry.getName() + " is not a numeric array.");
+		}
+		ByteBuffer tag = readElement(entry, 0, 8);
+		if (tag.getInt() != MatDataTypes.miMATRIX) {
+			throw new MatlabIOException("Incorrect data tag in " + entry);
+		}
+		long available = 8 + (tag.getInt() & 0xffffffffL);
+		int wanted = PREFIX_LENGTH;
+		while (true) {
+			ByteBuffer prefix = readElement(entry, 0, (int) Math.min(wanted, available));
+			prefix.position(8);
+			try {
+				MatFileReader.readFlags(prefix);
+				MatFileReader.readDimension(prefix);
+				MatFileReader.readName(prefix, index.getHeader());
+				Layout layout = new Layout();
+				long next = readDataTag(prefix, 0, layout, false);
+				if (entry.isComplex()) {
+					// the imaginary tag follows the real values
+					readDataTag(readElement(entry, next, 8), next, layout, true);
+				}
+				return layout;
+			} catch (BufferUnderflowException e) {
+				if (wanted >= available) {
+					throw new MatlabIOException("Truncated array header in " + entry);
+				}
+				wanted *= 4;
+			}
+		}
+	}
+
+	/**
+	 * Parses the tag of the real or imaginary values at the position of
+	 * <code>buf</code>, whose offset within the element is
+	 * <code>base + buf.position()</code>, and returns the offset within the
+	 * element of the next tag.
+	 */
+	private static long readDataTag(ByteBuffer buf, long base, Layout layout, boolean imaginary) {
+		long pos = base + buf.position();
+		int tag = buf.getInt();
+		int type;
+		int size;
+		long dataOffset;
+		long next;
+		if (tag >>> 16 != 0) {
+			// small data element format
+			type = tag & 0xffff;
+			size = tag >>> 16;
+			dataOffset = pos + 4;
+			next = pos + 8;
+		} else {
+			type = tag;
+			size = buf.getInt();
+			dataOffset = pos + 8;
+			next = pos + 8 + (size & 0xffffffffL);
+			next += next % 8 == 0 ? 0 : 8 - next % 8;
+		}
+		if (imaginary) {
+			layout.imaginaryType = type;
+			layout.imaginaryOffset = dataOffset;
+		} else {
+			layout.realType = type;
+			layout.realOffset = dataOffset;
+			layout.count = (size & 0xffffffffL) / ByteSwapper.widthOf(type);
+		}
+		return next;
+	}
+}
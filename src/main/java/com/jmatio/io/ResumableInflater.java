@@ -0,0 +1,450 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * Inflates the zlib stream of an <code>miCOMPRESSED</code> element, and can
+ * resume inflation from an {@link InflateCheckpoint}.
+ * <p>
+ * <code>java.util.zip.Inflater</code> can only start at the beginning of a
+ * stream, because deflate blocks are not byte-aligned.  This decoder tracks
+ * its position in bits, so it can record where each block starts, together
+ * with the 32 KB of output which later blocks may refer to, and start again
+ * from there.  This is the technique of the <code>zran</code> example of zlib.
+ */
+class ResumableInflater {
+	/** Size of the window which back-references may reach into. */
+	static final int WINDOW_SIZE = 32768;
+	/** Longest match of a back-reference. */
+	private static final int MAX_MATCH = 258;
+	/** Number of compressed bytes read from the channel at once. */
+	private static final int INPUT_CHUNK = 65536;
+
+	private static final int[] LENGTH_BASE = {3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31, 35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258};
+	private static final int[] LENGTH_EXTRA = {0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0};
+	private static final int[] DISTANCE_BASE = {1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193, 257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577};
+	private static final int[] DISTANCE_EXTRA = {0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13};
+	/** The order in which the lengths of the code length code are stored. */
+	private static final int[] CODE_LENGTH_ORDER = {16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15};
+
+	private static final Huffman FIXED_LITERALS;
+	private static final Huffman FIXED_DISTANCES;
+
+	static {
+		try {
+			int[] lengths = new int[288];
+			for (int i = 0; i < lengths.length; i++) {
+				lengths[i] = i < 144 ? 8 : i < 256 ? 9 : i < 280 ? 7 : 8;
+			}
+			FIXED_LITERALS = new Huffman(lengths, lengths.length);
+			int[] distances = new int[30];
+			for (int i = 0; i < distances.length; i++) {
+				distances[i] = 5;
+			}
+			FIXED_DISTANCES = new Huffman(distances, distances.length);
+		} catch (IOException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private final FileChannel channel;
+	private final long start;
+	private final long length;
+
+	private final byte[] in = new byte[INPUT_CHUNK];
+	/** Position of <code>in[0]</code> within the stream. */
+	private long inBase;
+	private int inPos;
+	private int inLimit;
+	private long bitBuf;
+	private int bitCount;
+
+	/** Output history, of which the last {@link #WINDOW_SIZE} bytes are kept when it fills up. */
+	private final byte[] history = new byte[2 * WINDOW_SIZE];
+	private int writePos;
+	private int readPos;
+	/** Offset within the uncompressed stream of <code>history[writePos]</code>. */
+	private long totalOut;
+
+	private static final int BLOCK_HEADER = 0, STORED = 1, CODES = 2, DONE = 3;
+	private int state = BLOCK_HEADER;
+	private boolean lastBlock;
+	private int storedRemaining;
+	private Huffman literals;
+	private Huffman distances;
+
+	private List<InflateCheckpoint> checkpoints;
+	private int span;
+	private long nextCheckpoint;
+
+	/**
+	 * Creates an inflater for the zlib stream in the <code>length</code> bytes
+	 * of <code>channel</code> starting at <code>start</code>.
+	 */
+	ResumableInflater(FileChannel channel, long start, long length) throws IOException {
+		this.channel = channel;
+		this.start = start;
+		this.length = length;
+		int cmf = nextByte();
+		int flg = nextByte();
+		if ((cmf & 0x0f) != 8 || (cmf << 8 | flg) % 31 != 0) {
+			throw new MatlabIOException("Could not decompress data: incorrect zlib header");
+		}
+		if ((flg & 0x20) != 0) {
+			throw new MatlabIOException("Could not decompress data: a preset dictionary is required");
+		}
+	}
+
+	/** Creates an inflater which resumes the same stream at <code>checkpoint</code>. */
+	ResumableInflater(FileChannel channel, long start, long length, InflateCheckpoint checkpoint) throws IOException {
+		this.channel = channel;
+		this.start = start;
+		this.length = length;
+		this.inBase = checkpoint.getInputOffset();
+		if (checkpoint.getBitOffset() > 0) {
+			int bits = checkpoint.getBitOffset();
+			bitBuf = nextByte() >>> bits;
+			bitCount = 8 - bits;
+		}
+		byte[] window = checkpoint.getWindow();
+		System.arraycopy(window, 0, history, 0, window.length);
+		writePos = readPos = window.length;
+		totalOut = checkpoint.getOutputOffset();
+	}
+
+	/**
+	 * Records a checkpoint into <code>checkpoints</code> at the first block
+	 * boundary at or after <code>first</code>, and then at the first boundary
+	 * after every further <code>span</code> bytes of output.
+	 */
+	void recordCheckpoints(List<InflateCheckpoint> checkpoints, long first, int span) {
+		this.checkpoints = checkpoints;
+		this.nextCheckpoint = first;
+		this.span = span;
+	}
+
+	/** Returns the offset within the uncompressed stream of the next byte which {@link #read} returns. */
+	long getPosition() {
+		return totalOut - (writePos - readPos);
+	}
+
+	/** Inflates into <code>dst</code>, and returns the number of bytes inflated, or -1 at the end of the stream. */
+	int read(ByteBuffer dst) throws IOException {
+		if (readPos == writePos) {
+			if (state == DONE) {
+				return -1;
+			}
+			fill();
+			if (readPos == writePos) {
+				return -1;
+			}
+		}
+		int count = Math.min(dst.remaining(), writePos - readPos);
+		dst.put(history, readPos, count);
+		readPos += count;
+		return count;
+	}
+
+	/** Skips <code>n</code> bytes of output, and returns the number of bytes skipped, which is less only at the end of the stream. */
+	long skip(long n) throws IOException {
+		long skipped = 0;
+		while (skipped < n) {
+			if (readPos == writePos) {
+				if (state == DONE) {
+					break;
+				}
+				fill();
+				continue;
+			}
+			int count = (int) Math.min(n - skipped, writePos - readPos);
+			readPos += count;
+			skipped += count;
+		}
+		return skipped;
+	}
+
+	/** Inflates until the history is full or the stream ends.  All the previous output must have been read. */
+	private void fill() throws IOException {
+		if (writePos > WINDOW_SIZE) {
+			int shift = writePos - WINDOW_SIZE;
+			System.arraycopy(history, shift, history, 0, WINDOW_SIZE);
+			writePos -= shift;
+			readPos -= shift;
+		}
+		int limit = history.length - MAX_MATCH;
+		while (writePos < limit) {
+			switch (state) {
+			case BLOCK_HEADER:
+				if (lastBlock) {
+					state = DONE;
+					return;
+				}
+				if (checkpoints != null && totalOut >= nextCheckpoint) {
+					checkpoints.add(checkpoint());
+					nextCheckpoint = totalOut + span;
+				}
+				readBlockHeader();
+				break;
+			case STORED:
+				copyStored(limit);
+				break;
+			case CODES:
+				inflateCodes(limit);
+				break;
+			default:
+				return;
+			}
+		}
+	}
+
+	/** Returns a checkpoint for the block which starts at the current position. */
+	private InflateCheckpoint checkpoint() {
+		long bitPosition = (inBase + inPos) * 8 - bitCount;
+		int windowLength = (int) Math.min(WINDOW_SIZE, totalOut);
+		byte[] window = new byte[windowLength];
+		System.arraycopy(history, writePos - windowLength, window, 0, windowLength);
+		return new InflateCheckpoint(bitPosition >>> 3, (int) (bitPosition & 7), totalOut, window);
+	}
+
+	private void readBlockHeader() throws IOException {
+		lastBlock = bits(1) == 1;
+		int type = bits(2);
+		switch (type) {
+		case 0:
+			// stored blocks start at a byte boundary
+			bitBuf >>>= bitCount & 7;
+			bitCount -= bitCount & 7;
+			int len = bits(16);
+			int nlen = bits(16);
+			if (len != (~nlen & 0xffff)) {
+				throw new MatlabIOException("Could not decompress data: invalid stored block length");
+			}
+			storedRemaining = len;
+			state = STORED;
+			break;
+		case 1:
+			literals = FIXED_LITERALS;
+			distances = FIXED_DISTANCES;
+			state = CODES;
+			break;
+		case 2:
+			readDynamicTables();
+			state = CODES;
+			break;
+		default:
+			throw new MatlabIOException("Could not decompress data: invalid block type");
+		}
+	}
+
+	private void readDynamicTables() throws IOException {
+		int literalCount = bits(5) + 257;
+		int distanceCount = bits(5) + 1;
+		int codeLengthCount = bits(4) + 4;
+		if (literalCount > 286 || distanceCount > 30) {
+			throw new MatlabIOException("Could not decompress data: too many length or distance codes");
+		}
+		int[] lengths = new int[19];
+		for (int i = 0; i < codeLengthCount; i++) {
+			lengths[CODE_LENGTH_ORDER[i]] = bits(3);
+		}
+		Huffman codeLengths = new Huffman(lengths, 19);
+
+		lengths = new int[literalCount + distanceCount];
+		int i = 0;
+		while (i < lengths.length) {
+			int symbol = decode(codeLengths);
+			if (symbol < 16) {
+				lengths[i++] = symbol;
+				continue;
+			}
+			int value = 0;
+			int repeat;
+			if (symbol == 16) {
+				if (i == 0) {
+					throw new MatlabIOException("Could not decompress data: repeated length with no first length");
+				}
+				value = lengths[i - 1];
+				repeat = 3 + bits(2);
+			} else if (symbol == 17) {
+				repeat = 3 + bits(3);
+			} else {
+				repeat = 11 + bits(7);
+			}
+			if (i + repeat > lengths.length) {
+				throw new MatlabIOException("Could not decompress data: too many code lengths");
+			}
+			while (repeat-- > 0) {
+				lengths[i++] = value;
+			}
+		}
+		if (lengths[256] == 0) {
+			throw new MatlabIOException("Could not decompress data: no end-of-block code");
+		}
+		literals = new Huffman(lengths, literalCount);
+		int[] distanceLengths = new int[distanceCount];
+		System.arraycopy(lengths, literalCount, distanceLengths, 0, distanceCount);
+		distances = new Huffman(distanceLengths, distanceCount);
+	}
+
+	private void copyStored(int limit) throws IOException {
+		// whole bytes may still be buffered in bitBuf after the length fields
+		while (storedRemaining > 0 && bitCount >= 8 && writePos < limit) {
+			write(bits(8));
+			storedRemaining--;
+		}
+		while (storedRemaining > 0 && writePos < limit) {
+			if (inPos == inLimit) {
+				refill();
+			}
+			int count = Math.min(Math.min(storedRemaining, limit - writePos), inLimit - inPos);
+			System.arraycopy(in, inPos, history, writePos, count);
+			inPos += count;
+			writePos += count;
+			totalOut += count;
+			storedRemaining -= count;
+		}
+		if (storedRemaining == 0) {
+			state = BLOCK_HEADER;
+		}
+	}
+
+	private void inflateCodes(int limit) throws IOException {
+		while (writePos < limit) {
+			int symbol = decode(literals);
+			if (symbol < 256) {
+				write(symbol);
+			} else if (symbol == 256) {
+				state = BLOCK_HEADER;
+				return;
+			} else {
+				symbol -= 257;
+				if (symbol >= 29) {
+					throw new MatlabIOException("Could not decompress data: invalid length code");
+				}
+				int len = LENGTH_BASE[symbol] + bits(LENGTH_EXTRA[symbol]);
+				symbol = decode(distances);
+				if (symbol >= 30) {
+					throw new MatlabIOException("Could not decompress data: invalid distance code");
+				}
+				int distance = DISTANCE_BASE[symbol] + bits(DISTANCE_EXTRA[symbol]);
+				if (distance > writePos) {
+					throw new MatlabIOException("Could not decompress data: distance too far back");
+				}
+				int from = writePos - distance;
+				if (distance >= len) {
+					System.arraycopy(history, from, history, writePos, len);
+				} else {
+					// overlapping copies repeat the last bytes
+					for (int i = 0; i < len; i++) {
+						history[writePos + i] = history[from + i];
+					}
+				}
+				writePos += len;
+				totalOut += len;
+			}
+		}
+	}
+
+	private void write(int b) {
+		history[writePos++] = (byte) b;
+		totalOut++;
+	}
+
+	/** Consumes and returns the next <code>n</code> bits, least significant first. */
+	private int bits(int n) throws IOException {
+		while (bitCount < n) {
+			bitBuf |= (long) nextByte() << bitCount;
+			bitCount += 8;
+		}
+		int value = (int) (bitBuf & ((1L << n) - 1));
+		bitBuf >>>= n;
+		bitCount -= n;
+		return value;
+	}
+
+	/** Decodes a symbol with the given code. */
+	private int decode(Huffman code) throws IOException {
+		int bits = code.bits;
+		// the last code of the stream may be followed by fewer bits than the longest code
+		while (bitCount < bits && (inPos < inLimit || inBase + inLimit < length)) {
+			bitBuf |= (long) nextByte() << bitCount;
+			bitCount += 8;
+		}
+		int entry = code.table[(int) (bitBuf & ((1 << bits) - 1))];
+		int len = entry & 0xf;
+		if (len == 0) {
+			throw new MatlabIOException("Could not decompress data: invalid code");
+		}
+		if (len > bitCount) {
+			throw new MatlabIOException("Could not decompress data: unexpected end of stream");
+		}
+		bitBuf >>>= len;
+		bitCount -= len;
+		return entry >>> 4;
+	}
+
+	private int nextByte() throws IOException {
+		if (inPos == inLimit) {
+			refill();
+		}
+		return in[inPos++] & 0xff;
+	}
+
+	private void refill() throws IOException {
+		inBase += inLimit;
+		inPos = 0;
+		inLimit = (int) Math.min(in.length, length - inBase);
+		if (inLimit <= 0) {
+			inLimit = 0;
+			throw new MatlabIOException("Could not decompress data: unexpected end of stream");
+		}
+		MatFileIndex.readFully(channel, start + inBase, ByteBuffer.wrap(in, 0, inLimit));
+	}
+
+	/** A canonical Huffman code, decoded by looking up its longest code length of bits at once. */
+	private static class Huffman {
+		/** The symbol in the upper bits, and the code length in the lowest 4 bits. */
+		final int[] table;
+		final int bits;
+
+		Huffman(int[] lengths, int count) throws IOException {
+			int[] lengthCount = new int[16];
+			int maxLength = 0;
+			for (int i = 0; i < count; i++) {
+				lengthCount[lengths[i]]++;
+				maxLength = Math.max(maxLength, lengths[i]);
+			}
+			lengthCount[0] = 0;
+			int[] nextCode = new int[16];
+			int code = 0;
+			for (int len = 1; len < 16; len++) {
+				code = (code + lengthCount[len - 1]) << 1;
+				nextCode[len] = code;
+				if (code + lengthCount[len] > 1 << len) {
+					throw new MatlabIOException("Could not decompress data: over-subscribed code");
+				}
+			}
+			// incomplete codes are allowed, their missing codes are invalid
+			bits = Math.max(maxLength, 1);
+			table = new int[1 << bits];
+			for (int symbol = 0; symbol < count; symbol++) {
+				int len = lengths[symbol];
+				if (len == 0) {
+					continue;
+				}
+				int reversed = Integer.reverse(nextCode[len]++) >>> (32 - len);
+				for (int i = reversed; i < table.length; i += 1 << len) {
+					table[i] = symbol << 4 | len;
+				}
+			}
+		}
+	}
+}
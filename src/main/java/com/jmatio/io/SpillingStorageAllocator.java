@@ -0,0 +1,159 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.jmatio.types.StorageAllocator;
+
+/**
+ * Places the storage of large numeric arrays in temporary memory-mapped
+ * files, so that a reader can decode variables larger than the heap.  The
+ * arrays are used as usual, and the operating system pages their storage
+ * in and out as needed.
+ * <pre><code>
+ * SpillingStorageAllocator spill = new SpillingStorageAllocator(64 &lt;&lt; 20, null);
+ * MatFileReader reader = new MatFileReader();
+ * reader.setStorageAllocator(spill);
+ * MLArray array = reader.read(file).get("huge");
+ * ...
+ * array.close();   // unmaps and deletes its file
+ * spill.close();   // unmaps and deletes the files of the arrays still open
+ * </code></pre>
+ *
+ * Compressed numeric variables are inflated a chunk at a time straight
+ * into their storage, so the heap never holds them as a whole.  Spilled
+ * storage does not count against {@link MatFileReader#setMemoryLimit(long)}.
+ * Reading a whole file with {@link MatFileReader#HEAP_BYTE_BUFFER} still
+ * loads the compressed file into the heap, so large files are better read
+ * from a channel with {@link MatFileReader#read(java.nio.channels.ByteChannel, MatFileFilter)}.
+ * Cells, structures, sparse matrices and converted variables are still
+ * inflated whole.
+ * <p>
+ * Once its storage is released, by closing either the array or this
+ * allocator, an array and the buffers obtained from it must no longer be
+ * used, because the mapping is released right away instead of once it is
+ * garbage collected.
+ * <p>
+ * This class is thread-safe.
+ */
+public class SpillingStorageAllocator implements StorageAllocator, Closeable {
+	private final long threshold;
+	private final File directory;
+	private final StorageAllocator small;
+	private final Map<ByteBuffer, File> spilled = new IdentityHashMap<ByteBuffer, File>();
+	private long spilledBytes;
+
+	/**
+	 * Spills the storage of at least <code>threshold</code> bytes to
+	 * temporary files in <code>directory</code>, or in the default temporary
+	 * directory if it is null, and allocates smaller storage on the heap.
+	 */
+	public SpillingStorageAllocator(long threshold, File directory) {
+		this(threshold, directory, StorageAllocator.HEAP);
+	}
+
+	/** Spills the storage of at least <code>threshold</code> bytes, and allocates smaller storage with <code>small</code>. */
+	public SpillingStorageAllocator(long threshold, File directory, StorageAllocator small) {
+		this.threshold = threshold;
+		this.directory = directory;
+		this.small = small;
+	}
+
+	/** Returns the number of bytes currently spilled to temporary files. */
+	public synchronized long getSpilledBytes() {
+		return spilledBytes;
+	}
+
+	/** Returns the temporary files which currently hold spilled storage. */
+	public synchronized List<File> getSpilledFiles() {
+		return new ArrayList<File>(spilled.values());
+	}
+
+	/** Returns true if storage of <code>capacity</code> bytes is spilled to a file. */
+	boolean spills(double capacity) {
+		return capacity >= threshold;
+	}
+
+	/**
+	 * @throws IllegalStateException if the temporary file cannot be created or mapped
+	 */
+	@Override
+	public ByteBuffer allocate(int capacity) {
+		if (capacity < threshold) {
+			return small.allocate(capacity);
+		}
+		File file = null;
+		try {
+			file = File.createTempFile("matfilerw", ".spill", directory);
+			RandomAccessFile raFile = new RandomAccessFile(file, "rw");
+			ByteBuffer storage;
+			try {
+				// the file is sparse, so the mapping starts out zeroed
+				raFile.setLength(capacity);
+				storage = raFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+			} finally {
+				// the mapping stays valid once the channel is closed
+				raFile.close();
+			}
+			synchronized (this) {
+				spilled.put(storage, file);
+				spilledBytes += capacity;
+			}
+			return storage;
+		} catch (IOException e) {
+			if (file != null) {
+				file.delete();
+			}
+			throw new IllegalStateException("Could not spill " + capacity + " bytes to a temporary file.", e);
+		}
+	}
+
+	@Override
+	public void release(ByteBuffer buffer) {
+		File file;
+		synchronized (this) {
+			file = spilled.remove(buffer);
+			if (file != null) {
+				spilledBytes -= buffer.capacity();
+			}
+		}
+		if (file == null) {
+			small.release(buffer);
+			return;
+		}
+		unmap(buffer, file);
+	}
+
+	/** Unmaps and deletes the files of all the storage which has not been released yet. */
+	@Override
+	public void close() {
+		Map<ByteBuffer, File> remaining;
+		synchronized (this) {
+			remaining = new IdentityHashMap<ByteBuffer, File>(spilled);
+			spilled.clear();
+			spilledBytes = 0;
+		}
+		for (Map.Entry<ByteBuffer, File> entry : remaining.entrySet()) {
+			unmap(entry.getKey(), entry.getValue());
+		}
+	}
+
+	private static void unmap(ByteBuffer buffer, File file) {
+		// the file cannot be deleted on Windows while it is mapped
+		Unsafe9R.invokeCleaner(buffer);
+		file.delete();
+	}
+}
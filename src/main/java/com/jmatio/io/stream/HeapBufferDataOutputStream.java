@@ -16,6 +16,11 @@ public class HeapBufferDataOutputStream extends ByteArrayOutputStream implements
 		return ByteBuffer.wrap(super.buf);
 	}
 
+	/** Returns the number of bytes the stream holds on the heap, which grows ahead of its size. */
+	public int capacity() {
+		return buf.length;
+	}
+
 	public void write(ByteBuffer byteBuffer) throws IOException {
 
 		byte[] tmp = new byte[BUFFER_SIZE];
@@ -112,9 +112,16 @@ public class MatFileInputStream {
 		case MatDataTypes.miINT16:
 			return (double) buf.getShort();
 		case MatDataTypes.miUINT32:
-			return (double) buf.getInt();
+			return (double) (buf.getInt() & 0xFFFFFFFFL);
 		case MatDataTypes.miINT32:
 			return (double) buf.getInt();
+		case MatDataTypes.miUINT64:
+			long unsigned = buf.getLong();
+			return unsigned >= 0 ? (double) unsigned : (double) unsigned + 0x1p64;
+		case MatDataTypes.miINT64:
+			return (double) buf.getLong();
+		case MatDataTypes.miSINGLE:
+			return (double) buf.getFloat();
 		case MatDataTypes.miDOUBLE:
 			return (double) buf.getDouble();
 		default:
@@ -208,6 +215,54 @@ public class MatFileInputStream {
 		return dest;
 	}
 
+	/**
+	 * Reads <code>elements</code> values into <code>dest</code>, each
+	 * multiplied by <code>gain</code>, shifted by <code>offset</code> and
+	 * converted to the storage class of <code>storage</code> in one pass.
+	 * For integer storage the values are rounded half away from zero and
+	 * saturate at <code>min</code> and <code>max</code>, so that unsigned
+	 * classes are supported by passing their own bounds.  Values of
+	 * <code>Long</code> storage at or above 2^63 keep their bits if the
+	 * storage is <code>unsigned</code>, as uint64 does.
+	 * 
+	 * @return reference to the destination <code>{@link ByteBuffer}</code>
+	 * @throws IOException
+	 *             if buffer is under-fed, or another IO problem occurs
+	 */
+	public ByteBuffer readToByteBuffer(ByteBuffer dest, int elements, ByteStorageSupport<?> storage,
+			double gain, double offset, double min, double max, boolean unsigned) throws IOException {
+		Class<?> clazz = storage.getStorageClazz();
+		boolean integer = !clazz.equals(Double.class) && !clazz.equals(Float.class);
+		for (int i = 0; i < elements; i++) {
+			double value = readDouble() * gain + offset;
+			if (integer) {
+				if (value != value) {
+					value = 0;
+				} else {
+					value = value < 0 ? -Math.floor(0.5 - value) : Math.floor(value + 0.5);
+					value = Math.max(min, Math.min(max, value));
+				}
+			}
+			if (clazz.equals(Double.class)) {
+				dest.putDouble(i << 3, value);
+			} else if (clazz.equals(Float.class)) {
+				dest.putFloat(i << 2, (float) value);
+			} else if (clazz.equals(Long.class)) {
+				// unsigned values above Long.MAX_VALUE keep their bits, signed ones saturate
+				dest.putLong(i << 3, unsigned && value >= 0x1p63 ? (long) (value - 0x1p64) : (long) value);
+			} else if (clazz.equals(Integer.class)) {
+				dest.putInt(i << 2, (int) (long) value);
+			} else if (clazz.equals(Short.class)) {
+				dest.putShort(i << 1, (short) (long) value);
+			} else if (clazz.equals(Byte.class)) {
+				dest.put(i, (byte) (long) value);
+			} else {
+				throw new RuntimeException("Not supported buffer reader for " + clazz);
+			}
+		}
+		return dest;
+	}
+
 	private float readFloat() {
 		switch (type) {
 		case MatDataTypes.miUINT8:
@@ -219,7 +274,7 @@ public class MatFileInputStream {
 		case MatDataTypes.miINT16:
 			return (float) buf.getShort();
 		case MatDataTypes.miUINT32:
-			return (float) buf.getInt();
+			return (float) (buf.getInt() & 0xFFFFFFFFL);
 		case MatDataTypes.miINT32:
 			return (float) buf.getInt();
 		case MatDataTypes.miSINGLE:
@@ -267,7 +322,7 @@ public class MatFileInputStream {
 		case MatDataTypes.miINT16:
 			return (long) buf.getShort();
 		case MatDataTypes.miUINT32:
-			return (long) buf.getInt();
+			return buf.getInt() & 0xFFFFFFFFL;
 		case MatDataTypes.miINT32:
 			return (long) buf.getInt();
 		case MatDataTypes.miUINT64:
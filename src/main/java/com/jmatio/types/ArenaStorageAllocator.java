@@ -0,0 +1,57 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.types;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Allocates storage as consecutive slices of a single region, such as a
+ * large direct buffer which the caller manages.  Releasing a slice does
+ * nothing; instead {@link #reset()} makes the whole region available again
+ * once none of the arrays allocated from it is in use any more.
+ * <p>
+ * This class is thread-safe.
+ */
+public class ArenaStorageAllocator implements StorageAllocator {
+	private final ByteBuffer region;
+	private int used;
+
+	/** Allocates from the remaining bytes of <code>region</code>. */
+	public ArenaStorageAllocator(ByteBuffer region) {
+		this.region = region.slice();
+	}
+
+	/** Returns the number of bytes allocated since the last reset. */
+	public synchronized int getUsedBytes() {
+		return used;
+	}
+
+	/**
+	 * @throws IllegalStateException if the region does not have <code>capacity</code> bytes left
+	 */
+	@Override
+	public synchronized ByteBuffer allocate(int capacity) {
+		// slices start at multiples of 8, so that direct regions stay aligned
+		int start = (used + 7) & ~7;
+		if (start > region.capacity() || capacity > region.capacity() - start) {
+			throw new IllegalStateException("The arena has " + Math.max(0, region.capacity() - start) + " bytes left, not " + capacity + ".");
+		}
+		ByteBuffer storage = region.duplicate();
+		storage.limit(start + capacity).position(start);
+		storage = storage.slice();
+		PooledStorageAllocator.clear(storage);
+		used = start + capacity;
+		return storage;
+	}
+
+	@Override
+	public void release(ByteBuffer buffer) {}
+
+	/** Makes the whole region available again.  The arrays allocated from it must no longer be used. */
+	public synchronized void reset() {
+		used = 0;
+	}
+}
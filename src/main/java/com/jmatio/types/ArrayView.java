@@ -0,0 +1,374 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.types;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A strided window onto a dense numeric array or a cell array, which shares
+ * the storage of the array instead of copying it.
+ * <p>
+ * A view is an offset and a stride per dimension into the column-major
+ * storage of its source, so slicing, permuting and squeezing a view only
+ * creates another one, in time which depends on the number of dimensions
+ * but not on the number of elements.  For instance, frame <code>t</code>
+ * of a height x width x 3 x frames video is
+ * <pre><code>
+ * ArrayView frame = video.view().select(3, t);
+ * </code></pre>
+ *
+ * Views see the writes to their source as they happen.  Elements are read
+ * through {@link #getReal(int...)}, {@link #getImaginary(int...)} and
+ * {@link #getCell(int...)}, or through the typed accessors of the source at
+ * {@link #getSourceIndex(int...)}.  {@link #materialize(String)} copies a
+ * view into a new array, a whole run of contiguous elements at a time.
+ * <p>
+ * Like arrays, a view always has at least two dimensions.
+ */
+public final class ArrayView {
+	private final MLArray source;
+	private final int offset;
+	private final int[] dims;
+	private final int[] strides;
+
+	private ArrayView(MLArray source, int offset, int[] dims, int[] strides) {
+		this.source = source;
+		this.offset = offset;
+		this.dims = dims;
+		this.strides = strides;
+	}
+
+	/**
+	 * Returns a view of the whole of <code>array</code>.
+	 *
+	 * @throws IllegalArgumentException if the array is neither a dense numeric array nor a cell array
+	 */
+	public static ArrayView of(MLArray array) {
+		if (!(array instanceof MLCell) && (!(array instanceof MLNumericArray) || array instanceof MLSparse)) {
+			throw new IllegalArgumentException("Only dense numeric arrays and cell arrays have views, not " + array.getClass().getSimpleName() + ".");
+		}
+		int[] dims = array.getDimensions();
+		int[] strides = new int[dims.length];
+		for (int d = 0, stride = 1; d < dims.length; d++) {
+			strides[d] = stride;
+			stride *= dims[d];
+		}
+		return new ArrayView(array, 0, dims, strides);
+	}
+
+	/** Returns the array whose storage this view shares. */
+	public MLArray getSource() {
+		return source;
+	}
+
+	public int[] getDimensions() {
+		return Arrays.copyOf(dims, dims.length);
+	}
+
+	public int getNDimensions() {
+		return dims.length;
+	}
+
+	public int getSize() {
+		int size = 1;
+		for (int dim : dims) {
+			size *= dim;
+		}
+		return size;
+	}
+
+	/**
+	 * Returns the index in the source of the element at the given indices of the view.
+	 *
+	 * @throws IllegalArgumentException if there is not one index per dimension
+	 * @throws IndexOutOfBoundsException if an index is past its dimension
+	 */
+	public int getSourceIndex(int... indices) {
+		if (indices.length != dims.length) {
+			throw new IllegalArgumentException("Cannot use " + indices.length + " indexes for " + dims.length + " dimensions.");
+		}
+		int index = offset;
+		for (int d = 0; d < dims.length; d++) {
+			index += strides[d] * checkIndex(d, indices[d]);
+		}
+		return index;
+	}
+
+	/** Returns the index in the source of the element at the given column-major index of the view. */
+	public int getSourceIndex(int index) {
+		if (index < 0 || index >= getSize()) {
+			throw new IndexOutOfBoundsException("Index " + index + " of a view of " + getSize() + " elements.");
+		}
+		int result = offset;
+		for (int d = 0; d < dims.length; d++) {
+			result += strides[d] * (index % dims[d]);
+			index /= dims[d];
+		}
+		return result;
+	}
+
+	private int checkIndex(int d, int index) {
+		if (index < 0 || index >= dims[d]) {
+			throw new IndexOutOfBoundsException("Index " + index + " does not exist for dimension " + d);
+		}
+		return index;
+	}
+
+	/** Returns the real value at the given indices of a view of a numeric array. */
+	public Number getReal(int... indices) {
+		return numeric().getReal(getSourceIndex(indices));
+	}
+
+	/** Returns the imaginary value at the given indices of a view of a numeric array, which is zero for real arrays. */
+	public Number getImaginary(int... indices) {
+		return numeric().getImaginary(getSourceIndex(indices));
+	}
+
+	/** Returns the cell at the given indices of a view of a cell array. */
+	public MLArray getCell(int... indices) {
+		if (!(source instanceof MLCell)) {
+			throw new UnsupportedOperationException("The source is not a cell array.");
+		}
+		return ((MLCell) source).get(getSourceIndex(indices));
+	}
+
+	private MLNumericArray<?> numeric() {
+		if (!(source instanceof MLNumericArray)) {
+			throw new UnsupportedOperationException("The source is not a numeric array.");
+		}
+		return (MLNumericArray<?>) source;
+	}
+
+	/** Returns the view of the indices <code>from</code> (inclusive) to <code>to</code> (exclusive) along dimension <code>dim</code>. */
+	public ArrayView slice(int dim, int from, int to) {
+		return slice(dim, from, to, 1);
+	}
+
+	/**
+	 * Returns the view of every <code>step</code>-th index from <code>from</code>
+	 * (inclusive) to <code>to</code> (exclusive) along dimension <code>dim</code>.
+	 *
+	 * @throws IllegalArgumentException if the step is not positive
+	 * @throws IndexOutOfBoundsException if the range is not within the dimension
+	 */
+	public ArrayView slice(int dim, int from, int to, int step) {
+		checkDimension(dim);
+		if (step < 1) {
+			throw new IllegalArgumentException("Steps must be positive.");
+		}
+		if (from < 0 || from > to || to > dims[dim]) {
+			throw new IndexOutOfBoundsException("Range [" + from + ", " + to + ") of dimension " + dim + ", which has " + dims[dim] + " values.");
+		}
+		int[] newDims = getDimensions();
+		int[] newStrides = Arrays.copyOf(strides, strides.length);
+		newDims[dim] = (to - from + step - 1) / step;
+		newStrides[dim] *= step;
+		return new ArrayView(source, offset + from * strides[dim], newDims, newStrides);
+	}
+
+	/**
+	 * Returns the view of the single index <code>index</code> along dimension
+	 * <code>dim</code>, without that dimension, unless the view would be left
+	 * with less than two.
+	 */
+	public ArrayView select(int dim, int index) {
+		checkDimension(dim);
+		checkIndex(dim, index);
+		if (dims.length == 2) {
+			return slice(dim, index, index + 1);
+		}
+		return new ArrayView(source, offset + strides[dim] * index, remove(dims, dim), remove(strides, dim));
+	}
+
+	/**
+	 * Returns the view whose dimension <code>d</code> is dimension
+	 * <code>order[d]</code> of this one, as MATLAB's <code>permute</code>.
+	 *
+	 * @throws IllegalArgumentException if <code>order</code> is not a permutation of the dimensions
+	 */
+	public ArrayView permute(int... order) {
+		if (order.length != dims.length) {
+			throw new IllegalArgumentException("A permutation of " + dims.length + " dimensions needs " + dims.length + " indexes.");
+		}
+		boolean[] seen = new boolean[dims.length];
+		int[] newDims = new int[dims.length];
+		int[] newStrides = new int[dims.length];
+		for (int d = 0; d < order.length; d++) {
+			if (order[d] < 0 || order[d] >= dims.length || seen[order[d]]) {
+				throw new IllegalArgumentException("Not a permutation: " + Arrays.toString(order));
+			}
+			seen[order[d]] = true;
+			newDims[d] = dims[order[d]];
+			newStrides[d] = strides[order[d]];
+		}
+		return new ArrayView(source, offset, newDims, newStrides);
+	}
+
+	/** Returns the view with the first two dimensions swapped, which is the transpose of a matrix. */
+	public ArrayView transpose() {
+		int[] order = new int[dims.length];
+		for (int d = 0; d < order.length; d++) {
+			order[d] = d;
+		}
+		order[0] = 1;
+		order[1] = 0;
+		return permute(order);
+	}
+
+	/** Returns the view without its singleton dimensions, as MATLAB's <code>squeeze</code>, which leaves matrices alone. */
+	public ArrayView squeeze() {
+		if (dims.length == 2) {
+			return this;
+		}
+		int count = 0;
+		for (int dim : dims) {
+			if (dim != 1) {
+				count++;
+			}
+		}
+		int[] newDims = new int[Math.max(count, 2)];
+		int[] newStrides = new int[newDims.length];
+		Arrays.fill(newDims, 1);
+		for (int d = 0, i = 0; d < dims.length; d++) {
+			if (dims[d] != 1) {
+				newDims[i] = dims[d];
+				newStrides[i] = strides[d];
+				i++;
+			}
+		}
+		return new ArrayView(source, offset, newDims, newStrides);
+	}
+
+	private void checkDimension(int dim) {
+		if (dim < 0 || dim >= dims.length) {
+			throw new IllegalArgumentException("There is no dimension " + dim + " in a view with " + dims.length + ".");
+		}
+	}
+
+	private static int[] remove(int[] values, int index) {
+		int[] result = new int[values.length - 1];
+		System.arraycopy(values, 0, result, 0, index);
+		System.arraycopy(values, index + 1, result, index, result.length - index);
+		return result;
+	}
+
+	/** Returns true if the view is a single run of the storage of its source, in the same order. */
+	public boolean isContiguous() {
+		return contiguousDimensions() == dims.length;
+	}
+
+	/** Returns the number of leading dimensions of the view which lie in a single run of storage. */
+	private int contiguousDimensions() {
+		int d = 0;
+		for (int run = 1; d < dims.length && (dims[d] == 1 || strides[d] == run); d++) {
+			run *= dims[d];
+		}
+		return d;
+	}
+
+	/**
+	 * Copies the elements of the view into a new array of the class of its
+	 * source, with the dimensions of the view.  Runs of contiguous elements
+	 * are copied in bulk.  The cells of a cell array are not copied, but
+	 * shared with the source.
+	 */
+	public MLArray materialize(String name) {
+		if (source instanceof MLCell) {
+			MLCell cells = new MLCell(name, dims);
+			for (RunCursor cursor = new RunCursor(); cursor.hasNext(); cursor.next()) {
+				for (int i = 0; i < cursor.run; i++) {
+					cells.set(((MLCell) source).get(cursor.source + i), cursor.target + i);
+				}
+			}
+			return cells;
+		}
+		MLNumericArray<?> numeric = numeric();
+		MLNumericArray<?> copy = createArray(name, dims, numeric.getType(), numeric.attributes);
+		int width = numeric.getBytesAllocated();
+		copy(numeric.getRealView(), copy.realStorage(), width);
+		if (numeric.isComplex()) {
+			copy(numeric.getImaginaryView(), copy.imaginaryStorage(), width);
+		}
+		return copy;
+	}
+
+	private void copy(ByteBuffer from, ByteBuffer storage, int width) {
+		ByteBuffer to = storage.duplicate();
+		for (RunCursor cursor = new RunCursor(); cursor.hasNext(); cursor.next()) {
+			from.clear();
+			from.position(cursor.source * width);
+			from.limit((cursor.source + cursor.run) * width);
+			to.position(cursor.target * width);
+			to.put(from);
+		}
+	}
+
+	/** Walks the runs of contiguous elements of the view, in column-major order. */
+	private class RunCursor {
+		/** The first dimension which the runs don't cover. */
+		private final int first = contiguousDimensions();
+		private final int[] counters = new int[dims.length];
+		private int remaining;
+		final int run;
+		int source = offset;
+		int target = 0;
+
+		RunCursor() {
+			int length = 1;
+			for (int d = 0; d < first; d++) {
+				length *= dims[d];
+			}
+			run = length;
+			remaining = length == 0 ? 0 : getSize() / length;
+		}
+
+		boolean hasNext() {
+			return remaining > 0;
+		}
+
+		void next() {
+			remaining--;
+			target += run;
+			for (int d = first; d < dims.length; d++) {
+				if (++counters[d] < dims[d]) {
+					source += strides[d];
+					return;
+				}
+				source -= strides[d] * (dims[d] - 1);
+				counters[d] = 0;
+			}
+		}
+	}
+
+	/** Creates a numeric array of the given class. */
+	private static MLNumericArray<?> createArray(String name, int[] dims, int type, int attributes) {
+		switch (type) {
+		case MLArray.mxDOUBLE_CLASS:
+			return new MLDouble(name, dims, type, attributes);
+		case MLArray.mxSINGLE_CLASS:
+			return new MLSingle(name, dims, type, attributes);
+		case MLArray.mxINT8_CLASS:
+			return new MLInt8(name, dims, type, attributes);
+		case MLArray.mxUINT8_CLASS:
+			return new MLUInt8(name, dims, type, attributes);
+		case MLArray.mxINT16_CLASS:
+			return new MLInt16(name, dims, type, attributes);
+		case MLArray.mxUINT16_CLASS:
+			return new MLUInt16(name, dims, type, attributes);
+		case MLArray.mxINT32_CLASS:
+			return new MLInt32(name, dims, type, attributes);
+		case MLArray.mxUINT32_CLASS:
+			return new MLUInt32(name, dims, type, attributes);
+		case MLArray.mxINT64_CLASS:
+			return new MLInt64(name, dims, type, attributes);
+		case MLArray.mxUINT64_CLASS:
+			return new MLUInt64(name, dims, type, attributes);
+		default:
+			throw new IllegalArgumentException("Not a numeric class: " + MLArray.typeToString(type));
+		}
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.types;
+
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+/**
+ * Walks the real or the imaginary part of a numeric array, packed by columns,
+ * and splits into independent cursors on column boundaries, so that a
+ * reduction over a large matrix can be spread across threads without boxing
+ * a single element.
+ * <p>
+ * The methods follow the contract of <code>java.util.Spliterator.OfDouble</code>,
+ * but this library still runs on Java 6, so none of the Java 8 types appear
+ * here.  On Java 8, <code>DoubleColumnSpliterator</code> adapts it to a
+ * parallel <code>DoubleStream</code>:
+ * <pre><code>
+ * double sum = DoubleColumnSpliterator.stream(array.getRealSpliterator(), true).sum();
+ * </code></pre>
+ *
+ * Elements are read by absolute index from a read-only view of the storage,
+ * so any number of cursors may walk the same array at once.  They see writes
+ * to the array as they happen; freeze the array to rule those out.
+ */
+public final class ColumnSpliterator {
+	private final ByteBuffer storage;
+	private final int width;
+	private final boolean floating;
+	private final int rows;
+	private int next;
+	private final int end;
+
+	ColumnSpliterator(ByteBuffer storage, int width, boolean floating, int rows, int next, int end) {
+		this.storage = storage;
+		this.width = width;
+		this.floating = floating;
+		this.rows = rows;
+		this.next = next;
+		this.end = end;
+	}
+
+	/** Returns true if there are elements left. */
+	public boolean hasNext() {
+		return next < end;
+	}
+
+	/** Returns the index of the next element in the array. */
+	public int nextIndex() {
+		return next;
+	}
+
+	/** Returns the next element, as by <code>Number.doubleValue()</code>. */
+	public double nextDouble() {
+		int offset = advance();
+		if (floating) {
+			return width == 8 ? storage.getDouble(offset) : storage.getFloat(offset);
+		}
+		return width == 8 ? (double) storage.getLong(offset) : (double) integer(offset);
+	}
+
+	/** Returns the next element, as by <code>Number.longValue()</code>. */
+	public long nextLong() {
+		int offset = advance();
+		if (floating) {
+			return width == 8 ? (long) storage.getDouble(offset) : (long) storage.getFloat(offset);
+		}
+		return width == 8 ? storage.getLong(offset) : integer(offset);
+	}
+
+	/** Returns the next element, as by <code>Number.intValue()</code>. */
+	public int nextInt() {
+		int offset = advance();
+		if (floating) {
+			return width == 8 ? (int) storage.getDouble(offset) : (int) storage.getFloat(offset);
+		}
+		return width == 8 ? (int) storage.getLong(offset) : integer(offset);
+	}
+
+	private int advance() {
+		if (next >= end) {
+			throw new NoSuchElementException();
+		}
+		return next++ * width;
+	}
+
+	private int integer(int offset) {
+		switch (width) {
+		case 1:
+			return storage.get(offset);
+		case 2:
+			return storage.getShort(offset);
+		default:
+			return storage.getInt(offset);
+		}
+	}
+
+	/** Returns the number of elements left. */
+	public long estimateSize() {
+		return end - next;
+	}
+
+	/**
+	 * Hands the first half of the remaining whole columns over to a new
+	 * cursor, and keeps the rest.  If the remaining elements don't straddle
+	 * a column boundary, as in a column vector, the first half of the
+	 * elements is handed over instead.  Returns null if fewer than two
+	 * elements remain.
+	 */
+	public ColumnSpliterator trySplit() {
+		if (end - next < 2) {
+			return null;
+		}
+		int firstColumn = (next + rows - 1) / rows;
+		int endColumn = end / rows;
+		int split = ((firstColumn + endColumn) >>> 1) * rows;
+		if (split <= next || split >= end) {
+			split = (next + end) >>> 1;
+		}
+		ColumnSpliterator prefix = new ColumnSpliterator(storage, width, floating, rows, next, split);
+		next = split;
+		return prefix;
+	}
+}
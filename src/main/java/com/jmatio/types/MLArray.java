@@ -5,14 +5,17 @@
  */
 package com.jmatio.types;
 
+import java.io.Closeable;
 import java.io.UnsupportedEncodingException;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nonnull;
 
 import com.jmatio.common.MatDataTypes;
+import com.jmatio.io.MatFileOrigin;
 
-public class MLArray {
+public class MLArray implements Closeable {
 
 	/* Matlab Array Types (Classes) */
 	public static final int mxUNKNOWN_CLASS = 0;
@@ -49,6 +52,14 @@ public class MLArray {
 
 	public static final String DEFAULT_NAME = "@";
 
+	/** Source of the modification stamps, shared by all arrays so that a stamp is never reused. */
+	private static final AtomicLong modifications = new AtomicLong();
+	private volatile long modificationStamp = modifications.incrementAndGet();
+	/** Set by every modification, and turned into a new stamp when the stamp is asked for. */
+	private boolean modifiedSinceStamp;
+	private volatile MatFileOrigin origin;
+	private volatile boolean frozen;
+
 	public MLArray(String name, int[] dims, int type, int attributes) {
 		this.dims = Arrays.copyOf(dims, dims.length);
 
@@ -262,6 +273,14 @@ public class MLArray {
 		return m + n * getM();
 	}
 
+	/** Returns the one-dim index of an element of a 3D array, without the allocation of <code>getIndex(int...)</code>. */
+	protected int getIndex(int i, int j, int k) {
+		if (dims.length != 3) {
+			return getIndex(new int[]{i, j, k});
+		}
+		return i + dimStrides[1] * j + dimStrides[2] * k;
+	}
+
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
@@ -301,6 +320,79 @@ public class MLArray {
 		return "content cannot be displayed";
 	}
 
-	/** Clears any memory used by this MLArray.  The array cannot be used after this has been called. */
-	public void dispose() {}
+	/**
+	 * Returns a stamp which changes whenever this array is modified through its
+	 * setters, or through the buffers and collections which they expose.  The
+	 * stamp of a cell, structure or object also changes when its elements do.
+	 * <p>
+	 * Modifications only mark the array, so that setters stay plain stores,
+	 * and the new stamp is drawn when it is asked for.  A thread which reads
+	 * the stamp of an array modified by another thread must synchronize with
+	 * the writer, as it must to see the new values.
+	 */
+	public long getModificationStamp() {
+		if (modifiedSinceStamp) {
+			modifiedSinceStamp = false;
+			modificationStamp = modifications.incrementAndGet();
+		}
+		return modificationStamp;
+	}
+
+	/**
+	 * Makes this array read-only.  Its setters, and the getters which expose
+	 * writable storage, throw an <code>IllegalStateException</code> from now
+	 * on, so that a frozen array can be shared by any number of reading
+	 * threads without defensive copies.  Cells, structures and objects freeze
+	 * their elements as well.
+	 */
+	public void freeze() {
+		frozen = true;
+	}
+
+	/** Returns true if this array was frozen. */
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	/**
+	 * Records a modification of this array.  Called before the modification
+	 * takes place, so that frozen arrays are left untouched.
+	 */
+	protected void modified() {
+		if (frozen) {
+			throw new IllegalStateException("Array " + name + " is frozen.");
+		}
+		modifiedSinceStamp = true;
+	}
+
+	/**
+	 * Returns the element of a MAT-file which this array was read from, or
+	 * null if the reader did not retain it.
+	 * 
+	 * @see com.jmatio.io.MatFileReader#setRetainOrigins(boolean)
+	 */
+	public MatFileOrigin getOrigin() {
+		return origin;
+	}
+
+	/** Sets the element of a MAT-file which this array was read from. */
+	public void setOrigin(MatFileOrigin origin) {
+		this.origin = origin;
+	}
+
+	/**
+	 * Releases the storage of this array, and of the arrays it holds, to the
+	 * allocator which provided it.  The array cannot be used after this has
+	 * been called.
+	 *
+	 * @see StorageAllocator
+	 */
+	@Override
+	public void close() {}
+
+	/** @deprecated use {@link #close()} */
+	@Deprecated
+	public void dispose() {
+		close();
+	}
 }
@@ -25,10 +25,11 @@ public class MLCell extends MLArray {
 	}
 
 	public void set(MLArray value, int m, int n) {
-		cells.set(getIndex(m, n), value);
+		set(value, getIndex(m, n));
 	}
 
 	public void set(MLArray value, int index) {
+		modified();
 		cells.set(index, value);
 	}
 
@@ -44,10 +45,45 @@ public class MLCell extends MLArray {
 		return m + n * getM();
 	}
 
+	/** Returns a view of the whole array, which slices, permutes and squeezes it without copying its storage. */
+	public ArrayView view() {
+		return ArrayView.of(this);
+	}
+
+	@Override
+	public void freeze() {
+		super.freeze();
+		for (MLArray cell : cells) {
+			if (cell != null) {
+				cell.freeze();
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		for (MLArray cell : cells) {
+			if (cell != null) {
+				cell.close();
+			}
+		}
+	}
+
+	/** Returns the cells, which may be modified in place, so the cell array counts as modified. */
 	public ArrayList<MLArray> cells() {
+		modified();
 		return cells;
 	}
 
+	@Override
+	public long getModificationStamp() {
+		long stamp = super.getModificationStamp();
+		for (MLArray cell : cells) {
+			stamp = Math.max(stamp, cell.getModificationStamp());
+		}
+		return stamp;
+	}
+
 	public String contentToString() {
 		StringBuffer sb = new StringBuffer();
 		sb.append(name + " = \n");
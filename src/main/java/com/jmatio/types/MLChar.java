@@ -77,6 +77,7 @@ public class MLChar extends MLArray {
 	}
 
 	public void setChar(char ch, int index) {
+		modified();
 		chars[index] = ch;
 	}
 
@@ -112,8 +113,14 @@ public class MLChar extends MLArray {
 		return chars[getIndex(m, n)];
 	}
 
+	/** Returns the character at <code>index</code>, packed by columns, without counting as a modification. */
+	public char getChar(int index) {
+		return chars[index];
+	}
+
 	@SuppressFBWarnings(value = {"EI_EXPOSE_REP"}, justification = "This code is unlikely to be used in a security-sensitive environment.")
 	public Character[] exportChar() {
+		modified();
 		return chars;
 	}
 
@@ -6,6 +6,7 @@
 package com.jmatio.types;
 
 import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
 
 /**
  * Class represents Double array (matrix)
@@ -26,6 +27,11 @@ public class MLDouble extends MLNumericArray<Double> {
 		super(name, dims, type, attributes);
 	}
 
+	/** Creates an array whose storage is provided by <code>allocator</code>. */
+	public MLDouble(String name, int[] dims, int type, int attributes, StorageAllocator allocator) {
+		super(name, dims, type, attributes, allocator);
+	}
+
 	/**
 	 * Create a <code>MLDouble</code> array with given name,
 	 * and dimensions.
@@ -53,13 +59,21 @@ public class MLDouble extends MLNumericArray<Double> {
 	 * <a href="http://math.nist.gov/javanumerics/jama/">Jama</a> [math.nist.gov] style: 
 	 * construct a 2D real matrix from <code>double[][]</code>
 	 * 
-	 * Note: array is converted to Double[]
-	 * 
 	 * @param name - array name
 	 * @param vals - two-dimensional array of values
+	 * @throws IllegalArgumentException if the rows differ in length
 	 */
 	public MLDouble(String name, double[][] vals) {
-		this(name, double2DToDouble(vals), vals.length);
+		this(name, new int[]{vals.length, vals[0].length}, MLArray.mxDOUBLE_CLASS, 0);
+		DoubleBuffer real = realStorage().asDoubleBuffer();
+		for (int m = 0; m < vals.length; m++) {
+			if (vals[m].length != vals[0].length) {
+				throw new IllegalArgumentException("All rows must have the same length.");
+			}
+			for (int n = 0; n < vals[m].length; n++) {
+				real.put(m + n * vals.length, vals[m][n]);
+			}
+		}
 	}
 
 	/**
@@ -71,7 +85,27 @@ public class MLDouble extends MLNumericArray<Double> {
 	 * @param m - Number of rows
 	 */
 	public MLDouble(String name, double[] vals, int m) {
-		this(name, castToDouble(vals), m);
+		this(name, new int[]{m, vals.length / m}, MLArray.mxDOUBLE_CLASS, 0);
+		realStorage().asDoubleBuffer().put(vals);
+	}
+
+	/**
+	 * Creates a real array whose storage is the remaining bytes of
+	 * <code>real</code>, without copying them.  The bytes are big-endian
+	 * doubles, packed by columns.
+	 */
+	public static MLDouble wrap(String name, int[] dims, ByteBuffer real) {
+		return new MLDouble(name, dims, MLArray.mxDOUBLE_CLASS, real, null);
+	}
+
+	/** Creates a complex array whose storage is the remaining bytes of <code>real</code> and <code>imaginary</code>, without copying them. */
+	public static MLDouble wrap(String name, int[] dims, ByteBuffer real, ByteBuffer imaginary) {
+		return new MLDouble(name, dims, MLArray.mxDOUBLE_CLASS, real, imaginary);
+	}
+
+	/** Adopts the given storage without copying it. */
+	protected MLDouble(String name, int[] dims, int type, ByteBuffer real, ByteBuffer imaginary) {
+		super(name, dims, type, real, imaginary);
 	}
 
 	/* (non-Javadoc)
@@ -87,46 +121,103 @@ public class MLDouble extends MLNumericArray<Double> {
 	 * @return - 2D real array
 	 */
 	public double[][] getArray() {
-		double[][] result = new double[getM()][];
+		DoubleBuffer real = getRealDoubleBuffer();
+		int rows = getM();
+		int columns = getN();
+		double[][] result = new double[rows][];
 
-		for (int m = 0; m < getM(); m++) {
-			result[m] = new double[getN()];
+		for (int m = 0; m < rows; m++) {
+			result[m] = new double[columns];
 
-			for (int n = 0; n < getN(); n++) {
-				result[m][n] = get(m, n);
+			for (int n = 0; n < columns; n++) {
+				result[m][n] = real.get(m + n * rows);
 			}
 		}
 		return result;
 	}
 
-	/**
-	 * Casts <code>Double[]</code> to <code>double[]</code>
-	 * 
-	 * @param - source <code>Double[]</code>
-	 * @return - result <code>double[]</code>
-	 */
-	private static Double[] castToDouble(double[] d) {
-		Double[] dest = new Double[d.length];
-		for (int i = 0; i < d.length; i++) {
-			dest[i] = (Double) d[i];
-		}
-		return dest;
+	/** Returns the real value at <code>index</code>, without boxing it. */
+	public double getDouble(int index) {
+		return realStorage().getDouble(index << 3);
+	}
+
+	/** Returns the real value at <code>(m, n)</code>, without boxing it. */
+	public double getDouble(int m, int n) {
+		return getDouble(getIndex(m, n));
+	}
+
+	/** Returns the real value at <code>(i, j, k)</code> of a 3D array, without boxing it. */
+	public double getDouble(int i, int j, int k) {
+		return getDouble(getIndex(i, j, k));
+	}
+
+	/** Sets the real value at <code>index</code>, without boxing it. */
+	public void setDouble(double value, int index) {
+		modified();
+		realStorage().putDouble(index << 3, value);
+	}
+
+	/** Sets the real value at <code>(m, n)</code>, without boxing it. */
+	public void setDouble(double value, int m, int n) {
+		setDouble(value, getIndex(m, n));
+	}
+
+	/** Sets the real value at <code>(i, j, k)</code> of a 3D array, without boxing it. */
+	public void setDouble(double value, int i, int j, int k) {
+		setDouble(value, getIndex(i, j, k));
+	}
+
+	/** Returns the imaginary value at <code>index</code>, always 0 for non-complex arrays. */
+	public double getImaginaryDouble(int index) {
+		return isComplex() ? imaginaryStorage().getDouble(index << 3) : 0.0;
+	}
+
+	/** Sets the imaginary value at <code>index</code>. */
+	public void setImaginaryDouble(double value, int index) {
+		assertComplex();
+		modified();
+		imaginaryStorage().putDouble(index << 3, value);
 	}
 
 	/**
-	 * Converts double[][] to Double[]
-	 * 
-	 * @param dd
-	 * @return
+	 * Returns a read-only view of the real part, packed by columns.  The view
+	 * shares the storage of the array, so nothing is copied or boxed.
 	 */
-	private static Double[] double2DToDouble(double[][] dd) {
-		Double[] d = new Double[dd.length * dd[0].length];
-		for (int n = 0; n < dd[0].length; n++) {
-			for (int m = 0; m < dd.length; m++) {
-				d[m + n * dd.length] = dd[m][n];
-			}
+	public DoubleBuffer getRealDoubleBuffer() {
+		return getRealView().asDoubleBuffer();
+	}
+
+	/** Returns a read-only view of the imaginary part, packed by columns. */
+	public DoubleBuffer getImaginaryDoubleBuffer() {
+		return getImaginaryView().asDoubleBuffer();
+	}
+
+	/** Copies the real part, packed by columns, into <code>dst</code> starting at <code>off</code>. */
+	public void copyRealTo(double[] dst, int off) {
+		getRealDoubleBuffer().get(dst, off, getSize());
+	}
+
+	/** Copies the imaginary part, packed by columns, into <code>dst</code> starting at <code>off</code>. */
+	public void copyImaginaryTo(double[] dst, int off) {
+		getImaginaryDoubleBuffer().get(dst, off, getSize());
+	}
+
+	/** Returns a copy of the real part packed by columns, as MATLAB stores it. */
+	public double[] getColumnPackedCopy() {
+		double[] result = new double[getSize()];
+		copyRealTo(result, 0);
+		return result;
+	}
+
+	/** Returns a copy of the real part packed by rows, with the last dimension varying fastest. */
+	public double[] getRowPackedCopy() {
+		DoubleBuffer real = getRealDoubleBuffer();
+		double[] result = new double[getSize()];
+		RowMajorIndex index = new RowMajorIndex(getDimensions());
+		for (int i = 0; i < result.length; i++) {
+			result[i] = real.get(index.next());
 		}
-		return d;
+		return result;
 	}
 
 	public int getBytesAllocated() {
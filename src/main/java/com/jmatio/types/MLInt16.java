@@ -6,6 +6,7 @@
 package com.jmatio.types;
 
 import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
 
 /**
  * Class represents Int16 array (matrix)
@@ -25,6 +26,11 @@ public class MLInt16 extends MLNumericArray<Short> {
 		super(name, dims, type, attributes);
 	}
 
+	/** Creates an array whose storage is provided by <code>allocator</code>. */
+	public MLInt16(String name, int[] dims, int type, int attributes, StorageAllocator allocator) {
+		super(name, dims, type, attributes, allocator);
+	}
+
 	/**
 	 * Create a <code>MLSingle</code> array with given name,
 	 * and dimensions.
@@ -52,13 +58,21 @@ public class MLInt16 extends MLNumericArray<Short> {
 	 * <a href="http://math.nist.gov/javanumerics/jama/">Jama</a> [math.nist.gov] style: 
 	 * construct a 2D real matrix from <code>double[][]</code>
 	 * 
-	 * Note: array is converted to Short[]
-	 * 
 	 * @param name - array name
 	 * @param vals - two-dimensional array of values
+	 * @throws IllegalArgumentException if the rows differ in length
 	 */
 	public MLInt16(String name, short[][] vals) {
-		this(name, short2DToShort(vals), vals.length);
+		this(name, new int[]{vals.length, vals[0].length}, MLArray.mxINT16_CLASS, 0);
+		ShortBuffer real = realStorage().asShortBuffer();
+		for (int m = 0; m < vals.length; m++) {
+			if (vals[m].length != vals[0].length) {
+				throw new IllegalArgumentException("All rows must have the same length.");
+			}
+			for (int n = 0; n < vals[m].length; n++) {
+				real.put(m + n * vals.length, vals[m][n]);
+			}
+		}
 	}
 
 	/**
@@ -70,7 +84,27 @@ public class MLInt16 extends MLNumericArray<Short> {
 	 * @param m - Number of rows
 	 */
 	public MLInt16(String name, short[] vals, int m) {
-		this(name, castToShort(vals), m);
+		this(name, new int[]{m, vals.length / m}, MLArray.mxINT16_CLASS, 0);
+		realStorage().asShortBuffer().put(vals);
+	}
+
+	/**
+	 * Creates a real array whose storage is the remaining bytes of
+	 * <code>real</code>, without copying them.  The bytes are big-endian
+	 * shorts, packed by columns.
+	 */
+	public static MLInt16 wrap(String name, int[] dims, ByteBuffer real) {
+		return new MLInt16(name, dims, MLArray.mxINT16_CLASS, real, null);
+	}
+
+	/** Creates a complex array whose storage is the remaining bytes of <code>real</code> and <code>imaginary</code>, without copying them. */
+	public static MLInt16 wrap(String name, int[] dims, ByteBuffer real, ByteBuffer imaginary) {
+		return new MLInt16(name, dims, MLArray.mxINT16_CLASS, real, imaginary);
+	}
+
+	/** Adopts the given storage without copying it. */
+	protected MLInt16(String name, int[] dims, int type, ByteBuffer real, ByteBuffer imaginary) {
+		super(name, dims, type, real, imaginary);
 	}
 
 	/* (non-Javadoc)
@@ -86,46 +120,103 @@ public class MLInt16 extends MLNumericArray<Short> {
 	 * @return - 2D real array
 	 */
 	public short[][] getArray() {
-		short[][] result = new short[getM()][];
+		ShortBuffer real = getRealShortBuffer();
+		int rows = getM();
+		int columns = getN();
+		short[][] result = new short[rows][];
 
-		for (int m = 0; m < getM(); m++) {
-			result[m] = new short[getN()];
+		for (int m = 0; m < rows; m++) {
+			result[m] = new short[columns];
 
-			for (int n = 0; n < getN(); n++) {
-				result[m][n] = getReal(m, n);
+			for (int n = 0; n < columns; n++) {
+				result[m][n] = real.get(m + n * rows);
 			}
 		}
 		return result;
 	}
 
-	/**
-	 * Casts <code>Short[]</code> to <code>short[]</code>
-	 * 
-	 * @param - source <code>short[]</code>
-	 * @return - result <code>Short[]</code>
-	 */
-	private static Short[] castToShort(short[] d) {
-		Short[] dest = new Short[d.length];
-		for (int i = 0; i < d.length; i++) {
-			dest[i] = (Short) d[i];
-		}
-		return dest;
+	/** Returns the real value at <code>index</code>, without boxing it. */
+	public short getShort(int index) {
+		return realStorage().getShort(index << 1);
+	}
+
+	/** Returns the real value at <code>(m, n)</code>, without boxing it. */
+	public short getShort(int m, int n) {
+		return getShort(getIndex(m, n));
+	}
+
+	/** Returns the real value at <code>(i, j, k)</code> of a 3D array, without boxing it. */
+	public short getShort(int i, int j, int k) {
+		return getShort(getIndex(i, j, k));
+	}
+
+	/** Sets the real value at <code>index</code>, without boxing it. */
+	public void setShort(short value, int index) {
+		modified();
+		realStorage().putShort(index << 1, value);
+	}
+
+	/** Sets the real value at <code>(m, n)</code>, without boxing it. */
+	public void setShort(short value, int m, int n) {
+		setShort(value, getIndex(m, n));
+	}
+
+	/** Sets the real value at <code>(i, j, k)</code> of a 3D array, without boxing it. */
+	public void setShort(short value, int i, int j, int k) {
+		setShort(value, getIndex(i, j, k));
+	}
+
+	/** Returns the imaginary value at <code>index</code>, always 0 for non-complex arrays. */
+	public short getImaginaryShort(int index) {
+		return isComplex() ? imaginaryStorage().getShort(index << 1) : 0;
+	}
+
+	/** Sets the imaginary value at <code>index</code>. */
+	public void setImaginaryShort(short value, int index) {
+		assertComplex();
+		modified();
+		imaginaryStorage().putShort(index << 1, value);
 	}
 
 	/**
-	 * Converts short[][] to Short[]
-	 * 
-	 * @param dd
-	 * @return
+	 * Returns a read-only view of the real part, packed by columns.  The view
+	 * shares the storage of the array, so nothing is copied or boxed.
 	 */
-	private static Short[] short2DToShort(short[][] dd) {
-		Short[] d = new Short[dd.length * dd[0].length];
-		for (int n = 0; n < dd[0].length; n++) {
-			for (int m = 0; m < dd.length; m++) {
-				d[m + n * dd.length] = dd[m][n];
-			}
+	public ShortBuffer getRealShortBuffer() {
+		return getRealView().asShortBuffer();
+	}
+
+	/** Returns a read-only view of the imaginary part, packed by columns. */
+	public ShortBuffer getImaginaryShortBuffer() {
+		return getImaginaryView().asShortBuffer();
+	}
+
+	/** Copies the real part, packed by columns, into <code>dst</code> starting at <code>off</code>. */
+	public void copyRealTo(short[] dst, int off) {
+		getRealShortBuffer().get(dst, off, getSize());
+	}
+
+	/** Copies the imaginary part, packed by columns, into <code>dst</code> starting at <code>off</code>. */
+	public void copyImaginaryTo(short[] dst, int off) {
+		getImaginaryShortBuffer().get(dst, off, getSize());
+	}
+
+	/** Returns a copy of the real part packed by columns, as MATLAB stores it. */
+	public short[] getColumnPackedCopy() {
+		short[] result = new short[getSize()];
+		copyRealTo(result, 0);
+		return result;
+	}
+
+	/** Returns a copy of the real part packed by rows, with the last dimension varying fastest. */
+	public short[] getRowPackedCopy() {
+		ShortBuffer real = getRealShortBuffer();
+		short[] result = new short[getSize()];
+		RowMajorIndex index = new RowMajorIndex(getDimensions());
+		for (int i = 0; i < result.length; i++) {
+			result[i] = real.get(index.next());
 		}
-		return d;
+		return result;
 	}
 
 	public int getBytesAllocated() {
@@ -6,6 +6,7 @@
 package com.jmatio.types;
 
 import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
 
 public class MLInt32 extends MLNumericArray<Integer> {
 
@@ -21,6 +22,11 @@ public class MLInt32 extends MLNumericArray<Integer> {
 		super(name, dims, type, attributes);
 	}
 
+	/** Creates an array whose storage is provided by <code>allocator</code>. */
+	public MLInt32(String name, int[] dims, int type, int attributes, StorageAllocator allocator) {
+		super(name, dims, type, attributes, allocator);
+	}
+
 	/**
 	 * Create a <code>{@link MLInt64}</code> array with given name,
 	 * and dimensions.
@@ -48,13 +54,21 @@ public class MLInt32 extends MLNumericArray<Integer> {
 	 * <a href="http://math.nist.gov/javanumerics/jama/">Jama</a> [math.nist.gov] style: 
 	 * construct a 2D real matrix from <code>byte[][]</code>
 	 * 
-	 * Note: array is converted to Byte[]
-	 * 
 	 * @param name - array name
 	 * @param vals - two-dimensional array of values
+	 * @throws IllegalArgumentException if the rows differ in length
 	 */
 	public MLInt32(String name, int[][] vals) {
-		this(name, int2DToInteger(vals), vals.length);
+		this(name, new int[]{vals.length, vals[0].length}, MLArray.mxINT32_CLASS, 0);
+		IntBuffer real = realStorage().asIntBuffer();
+		for (int m = 0; m < vals.length; m++) {
+			if (vals[m].length != vals[0].length) {
+				throw new IllegalArgumentException("All rows must have the same length.");
+			}
+			for (int n = 0; n < vals[m].length; n++) {
+				real.put(m + n * vals.length, vals[m][n]);
+			}
+		}
 	}
 
 	/**
@@ -66,7 +80,27 @@ public class MLInt32 extends MLNumericArray<Integer> {
 	 * @param m - Number of rows
 	 */
 	public MLInt32(String name, int[] vals, int m) {
-		this(name, castToInteger(vals), m);
+		this(name, new int[]{m, vals.length / m}, MLArray.mxINT32_CLASS, 0);
+		realStorage().asIntBuffer().put(vals);
+	}
+
+	/**
+	 * Creates a real array whose storage is the remaining bytes of
+	 * <code>real</code>, without copying them.  The bytes are big-endian
+	 * ints, packed by columns.
+	 */
+	public static MLInt32 wrap(String name, int[] dims, ByteBuffer real) {
+		return new MLInt32(name, dims, MLArray.mxINT32_CLASS, real, null);
+	}
+
+	/** Creates a complex array whose storage is the remaining bytes of <code>real</code> and <code>imaginary</code>, without copying them. */
+	public static MLInt32 wrap(String name, int[] dims, ByteBuffer real, ByteBuffer imaginary) {
+		return new MLInt32(name, dims, MLArray.mxINT32_CLASS, real, imaginary);
+	}
+
+	/** Adopts the given storage without copying it. */
+	protected MLInt32(String name, int[] dims, int type, ByteBuffer real, ByteBuffer imaginary) {
+		super(name, dims, type, real, imaginary);
 	}
 
 	/* (non-Javadoc)
@@ -82,46 +116,103 @@ public class MLInt32 extends MLNumericArray<Integer> {
 	 * @return - 2D real array
 	 */
 	public int[][] getArray() {
-		int[][] result = new int[getM()][];
+		IntBuffer real = getRealIntBuffer();
+		int rows = getM();
+		int columns = getN();
+		int[][] result = new int[rows][];
 
-		for (int m = 0; m < getM(); m++) {
-			result[m] = new int[getN()];
+		for (int m = 0; m < rows; m++) {
+			result[m] = new int[columns];
 
-			for (int n = 0; n < getN(); n++) {
-				result[m][n] = get(m, n);
+			for (int n = 0; n < columns; n++) {
+				result[m][n] = real.get(m + n * rows);
 			}
 		}
 		return result;
 	}
 
-	/**
-	 * Casts <code>Double[]</code> to <code>byte[]</code>
-	 * 
-	 * @param - source <code>Long[]</code>
-	 * @return - result <code>long[]</code>
-	 */
-	private static Integer[] castToInteger(int[] d) {
-		Integer[] dest = new Integer[d.length];
-		for (int i = 0; i < d.length; i++) {
-			dest[i] = d[i];
-		}
-		return dest;
+	/** Returns the real value at <code>index</code>, without boxing it. */
+	public int getInt(int index) {
+		return realStorage().getInt(index << 2);
+	}
+
+	/** Returns the real value at <code>(m, n)</code>, without boxing it. */
+	public int getInt(int m, int n) {
+		return getInt(getIndex(m, n));
+	}
+
+	/** Returns the real value at <code>(i, j, k)</code> of a 3D array, without boxing it. */
+	public int getInt(int i, int j, int k) {
+		return getInt(getIndex(i, j, k));
+	}
+
+	/** Sets the real value at <code>index</code>, without boxing it. */
+	public void setInt(int value, int index) {
+		modified();
+		realStorage().putInt(index << 2, value);
+	}
+
+	/** Sets the real value at <code>(m, n)</code>, without boxing it. */
+	public void setInt(int value, int m, int n) {
+		setInt(value, getIndex(m, n));
+	}
+
+	/** Sets the real value at <code>(i, j, k)</code> of a 3D array, without boxing it. */
+	public void setInt(int value, int i, int j, int k) {
+		setInt(value, getIndex(i, j, k));
+	}
+
+	/** Returns the imaginary value at <code>index</code>, always 0 for non-complex arrays. */
+	public int getImaginaryInt(int index) {
+		return isComplex() ? imaginaryStorage().getInt(index << 2) : 0;
+	}
+
+	/** Sets the imaginary value at <code>index</code>. */
+	public void setImaginaryInt(int value, int index) {
+		assertComplex();
+		modified();
+		imaginaryStorage().putInt(index << 2, value);
 	}
 
 	/**
-	 * Converts byte[][] to Long[]
-	 * 
-	 * @param dd
-	 * @return
+	 * Returns a read-only view of the real part, packed by columns.  The view
+	 * shares the storage of the array, so nothing is copied or boxed.
 	 */
-	private static Integer[] int2DToInteger(int[][] dd) {
-		Integer[] d = new Integer[dd.length * dd[0].length];
-		for (int n = 0; n < dd[0].length; n++) {
-			for (int m = 0; m < dd.length; m++) {
-				d[m + n * dd.length] = dd[m][n];
-			}
+	public IntBuffer getRealIntBuffer() {
+		return getRealView().asIntBuffer();
+	}
+
+	/** Returns a read-only view of the imaginary part, packed by columns. */
+	public IntBuffer getImaginaryIntBuffer() {
+		return getImaginaryView().asIntBuffer();
+	}
+
+	/** Copies the real part, packed by columns, into <code>dst</code> starting at <code>off</code>. */
+	public void copyRealTo(int[] dst, int off) {
+		getRealIntBuffer().get(dst, off, getSize());
+	}
+
+	/** Copies the imaginary part, packed by columns, into <code>dst</code> starting at <code>off</code>. */
+	public void copyImaginaryTo(int[] dst, int off) {
+		getImaginaryIntBuffer().get(dst, off, getSize());
+	}
+
+	/** Returns a copy of the real part packed by columns, as MATLAB stores it. */
+	public int[] getColumnPackedCopy() {
+		int[] result = new int[getSize()];
+		copyRealTo(result, 0);
+		return result;
+	}
+
+	/** Returns a copy of the real part packed by rows, with the last dimension varying fastest. */
+	public int[] getRowPackedCopy() {
+		IntBuffer real = getRealIntBuffer();
+		int[] result = new int[getSize()];
+		RowMajorIndex index = new RowMajorIndex(getDimensions());
+		for (int i = 0; i < result.length; i++) {
+			result[i] = real.get(index.next());
 		}
-		return d;
+		return result;
 	}
 
 	public Integer buldFromBytes(byte[] bytes) {
@@ -6,6 +6,7 @@
 package com.jmatio.types;
 
 import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
 
 /**
  * Class represents Int64 (long) array (matrix)
@@ -26,6 +27,11 @@ public class MLInt64 extends MLNumericArray<Long> {
 		super(name, dims, type, attributes);
 	}
 
+	/** Creates an array whose storage is provided by <code>allocator</code>. */
+	public MLInt64(String name, int[] dims, int type, int attributes, StorageAllocator allocator) {
+		super(name, dims, type, attributes, allocator);
+	}
+
 	/**
 	 * Create a <code>{@link MLInt64}</code> array with given name,
 	 * and dimensions.
@@ -53,13 +59,21 @@ public class MLInt64 extends MLNumericArray<Long> {
 	 * <a href="http://math.nist.gov/javanumerics/jama/">Jama</a> [math.nist.gov] style: 
 	 * construct a 2D real matrix from <code>byte[][]</code>
 	 * 
-	 * Note: array is converted to Byte[]
-	 * 
 	 * @param name - array name
 	 * @param vals - two-dimensional array of values
+	 * @throws IllegalArgumentException if the rows differ in length
 	 */
 	public MLInt64(String name, long[][] vals) {
-		this(name, long2DToLong(vals), vals.length);
+		this(name, new int[]{vals.length, vals[0].length}, MLArray.mxINT64_CLASS, 0);
+		LongBuffer real = realStorage().asLongBuffer();
+		for (int m = 0; m < vals.length; m++) {
+			if (vals[m].length != vals[0].length) {
+				throw new IllegalArgumentException("All rows must have the same length.");
+			}
+			for (int n = 0; n < vals[m].length; n++) {
+				real.put(m + n * vals.length, vals[m][n]);
+			}
+		}
 	}
 
 	/**
@@ -71,7 +85,27 @@ public class MLInt64 extends MLNumericArray<Long> {
 	 * @param m - Number of rows
 	 */
 	public MLInt64(String name, long[] vals, int m) {
-		this(name, castToLong(vals), m);
+		this(name, new int[]{m, vals.length / m}, MLArray.mxINT64_CLASS, 0);
+		realStorage().asLongBuffer().put(vals);
+	}
+
+	/**
+	 * Creates a real array whose storage is the remaining bytes of
+	 * <code>real</code>, without copying them.  The bytes are big-endian
+	 * longs, packed by columns.
+	 */
+	public static MLInt64 wrap(String name, int[] dims, ByteBuffer real) {
+		return new MLInt64(name, dims, MLArray.mxINT64_CLASS, real, null);
+	}
+
+	/** Creates a complex array whose storage is the remaining bytes of <code>real</code> and <code>imaginary</code>, without copying them. */
+	public static MLInt64 wrap(String name, int[] dims, ByteBuffer real, ByteBuffer imaginary) {
+		return new MLInt64(name, dims, MLArray.mxINT64_CLASS, real, imaginary);
+	}
+
+	/** Adopts the given storage without copying it. */
+	protected MLInt64(String name, int[] dims, int type, ByteBuffer real, ByteBuffer imaginary) {
+		super(name, dims, type, real, imaginary);
 	}
 
 	/* (non-Javadoc)
@@ -87,46 +121,103 @@ public class MLInt64 extends MLNumericArray<Long> {
 	 * @return - 2D real array
 	 */
 	public long[][] getArray() {
-		long[][] result = new long[getM()][];
+		LongBuffer real = getRealLongBuffer();
+		int rows = getM();
+		int columns = getN();
+		long[][] result = new long[rows][];
 
-		for (int m = 0; m < getM(); m++) {
-			result[m] = new long[getN()];
+		for (int m = 0; m < rows; m++) {
+			result[m] = new long[columns];
 
-			for (int n = 0; n < getN(); n++) {
-				result[m][n] = getReal(m, n);
+			for (int n = 0; n < columns; n++) {
+				result[m][n] = real.get(m + n * rows);
 			}
 		}
 		return result;
 	}
 
-	/**
-	 * Casts <code>Double[]</code> to <code>byte[]</code>
-	 * 
-	 * @param - source <code>Long[]</code>
-	 * @return - result <code>long[]</code>
-	 */
-	private static Long[] castToLong(long[] d) {
-		Long[] dest = new Long[d.length];
-		for (int i = 0; i < d.length; i++) {
-			dest[i] = (long) d[i];
-		}
-		return dest;
+	/** Returns the real value at <code>index</code>, without boxing it. */
+	public long getLong(int index) {
+		return realStorage().getLong(index << 3);
+	}
+
+	/** Returns the real value at <code>(m, n)</code>, without boxing it. */
+	public long getLong(int m, int n) {
+		return getLong(getIndex(m, n));
+	}
+
+	/** Returns the real value at <code>(i, j, k)</code> of a 3D array, without boxing it. */
+	public long getLong(int i, int j, int k) {
+		return getLong(getIndex(i, j, k));
+	}
+
+	/** Sets the real value at <code>index</code>, without boxing it. */
+	public void setLong(long value, int index) {
+		modified();
+		realStorage().putLong(index << 3, value);
+	}
+
+	/** Sets the real value at <code>(m, n)</code>, without boxing it. */
+	public void setLong(long value, int m, int n) {
+		setLong(value, getIndex(m, n));
+	}
+
+	/** Sets the real value at <code>(i, j, k)</code> of a 3D array, without boxing it. */
+	public void setLong(long value, int i, int j, int k) {
+		setLong(value, getIndex(i, j, k));
+	}
+
+	/** Returns the imaginary value at <code>index</code>, always 0 for non-complex arrays. */
+	public long getImaginaryLong(int index) {
+		return isComplex() ? imaginaryStorage().getLong(index << 3) : 0L;
+	}
+
+	/** Sets the imaginary value at <code>index</code>. */
+	public void setImaginaryLong(long value, int index) {
+		assertComplex();
+		modified();
+		imaginaryStorage().putLong(index << 3, value);
 	}
 
 	/**
-	 * Converts byte[][] to Long[]
-	 * 
-	 * @param dd
-	 * @return
+	 * Returns a read-only view of the real part, packed by columns.  The view
+	 * shares the storage of the array, so nothing is copied or boxed.
 	 */
-	private static Long[] long2DToLong(long[][] dd) {
-		Long[] d = new Long[dd.length * dd[0].length];
-		for (int n = 0; n < dd[0].length; n++) {
-			for (int m = 0; m < dd.length; m++) {
-				d[m + n * dd.length] = dd[m][n];
-			}
+	public LongBuffer getRealLongBuffer() {
+		return getRealView().asLongBuffer();
+	}
+
+	/** Returns a read-only view of the imaginary part, packed by columns. */
+	public LongBuffer getImaginaryLongBuffer() {
+		return getImaginaryView().asLongBuffer();
+	}
+
+	/** Copies the real part, packed by columns, into <code>dst</code> starting at <code>off</code>. */
+	public void copyRealTo(long[] dst, int off) {
+		getRealLongBuffer().get(dst, off, getSize());
+	}
+
+	/** Copies the imaginary part, packed by columns, into <code>dst</code> starting at <code>off</code>. */
+	public void copyImaginaryTo(long[] dst, int off) {
+		getImaginaryLongBuffer().get(dst, off, getSize());
+	}
+
+	/** Returns a copy of the real part packed by columns, as MATLAB stores it. */
+	public long[] getColumnPackedCopy() {
+		long[] result = new long[getSize()];
+		copyRealTo(result, 0);
+		return result;
+	}
+
+	/** Returns a copy of the real part packed by rows, with the last dimension varying fastest. */
+	public long[] getRowPackedCopy() {
+		LongBuffer real = getRealLongBuffer();
+		long[] result = new long[getSize()];
+		RowMajorIndex index = new RowMajorIndex(getDimensions());
+		for (int i = 0; i < result.length; i++) {
+			result[i] = real.get(index.next());
 		}
-		return d;
+		return result;
 	}
 
 	public Long buldFromBytes(byte[] bytes) {
@@ -20,6 +20,11 @@ public class MLInt8 extends MLNumericArray<Byte> {
 		super(name, dims, type, attributes);
 	}
 
+	/** Creates an array whose storage is provided by <code>allocator</code>. */
+	public MLInt8(String name, int[] dims, int type, int attributes, StorageAllocator allocator) {
+		super(name, dims, type, attributes, allocator);
+	}
+
 	/**
 	 * Create a <code>{@link MLUInt8}</code> array with given name,
 	 * and dimensions.
@@ -47,13 +52,21 @@ public class MLInt8 extends MLNumericArray<Byte> {
 	 * <a href="http://math.nist.gov/javanumerics/jama/">Jama</a> [math.nist.gov] style: 
 	 * construct a 2D real matrix from <code>byte[][]</code>
 	 * 
-	 * Note: array is converted to Byte[]
-	 * 
 	 * @param name - array name
 	 * @param vals - two-dimensional array of values
+	 * @throws IllegalArgumentException if the rows differ in length
 	 */
 	public MLInt8(String name, byte[][] vals) {
-		this(name, byte2DToByte(vals), vals.length);
+		this(name, new int[]{vals.length, vals[0].length}, MLArray.mxINT8_CLASS, 0);
+		ByteBuffer real = realStorage();
+		for (int m = 0; m < vals.length; m++) {
+			if (vals[m].length != vals[0].length) {
+				throw new IllegalArgumentException("All rows must have the same length.");
+			}
+			for (int n = 0; n < vals[m].length; n++) {
+				real.put(m + n * vals.length, vals[m][n]);
+			}
+		}
 	}
 
 	/**
@@ -65,7 +78,27 @@ public class MLInt8 extends MLNumericArray<Byte> {
 	 * @param m - Number of rows
 	 */
 	public MLInt8(String name, byte[] vals, int m) {
-		this(name, castToByte(vals), m);
+		this(name, new int[]{m, vals.length / m}, MLArray.mxINT8_CLASS, 0);
+		realStorage().duplicate().put(vals);
+	}
+
+	/**
+	 * Creates a real array whose storage is the remaining bytes of
+	 * <code>real</code>, without copying them.  The bytes are packed by
+	 * columns.
+	 */
+	public static MLInt8 wrap(String name, int[] dims, ByteBuffer real) {
+		return new MLInt8(name, dims, MLArray.mxINT8_CLASS, real, null);
+	}
+
+	/** Creates a complex array whose storage is the remaining bytes of <code>real</code> and <code>imaginary</code>, without copying them. */
+	public static MLInt8 wrap(String name, int[] dims, ByteBuffer real, ByteBuffer imaginary) {
+		return new MLInt8(name, dims, MLArray.mxINT8_CLASS, real, imaginary);
+	}
+
+	/** Adopts the given storage without copying it. */
+	protected MLInt8(String name, int[] dims, int type, ByteBuffer real, ByteBuffer imaginary) {
+		super(name, dims, type, real, imaginary);
 	}
 
 	/* (non-Javadoc)
@@ -81,46 +114,90 @@ public class MLInt8 extends MLNumericArray<Byte> {
 	 * @return - 2D real array
 	 */
 	public byte[][] getArray() {
-		byte[][] result = new byte[getM()][];
+		ByteBuffer real = getRealView();
+		int rows = getM();
+		int columns = getN();
+		byte[][] result = new byte[rows][];
 
-		for (int m = 0; m < getM(); m++) {
-			result[m] = new byte[getN()];
+		for (int m = 0; m < rows; m++) {
+			result[m] = new byte[columns];
 
-			for (int n = 0; n < getN(); n++) {
-				result[m][n] = getReal(m, n);
+			for (int n = 0; n < columns; n++) {
+				result[m][n] = real.get(m + n * rows);
 			}
 		}
 		return result;
 	}
 
-	/**
-	 * Casts <code>Double[]</code> to <code>byte[]</code>
-	 * 
-	 * @param - source <code>Byte[]</code>
-	 * @return - result <code>byte[]</code>
-	 */
-	private static Byte[] castToByte(byte[] d) {
-		Byte[] dest = new Byte[d.length];
-		for (int i = 0; i < d.length; i++) {
-			dest[i] = (byte) d[i];
-		}
-		return dest;
+	/** Returns the real value at <code>index</code>, without boxing it. */
+	public byte getByte(int index) {
+		return realStorage().get(index);
 	}
 
-	/**
-	 * Converts byte[][] to Byte[]
-	 * 
-	 * @param dd
-	 * @return
-	 */
-	private static Byte[] byte2DToByte(byte[][] dd) {
-		Byte[] d = new Byte[dd.length * dd[0].length];
-		for (int n = 0; n < dd[0].length; n++) {
-			for (int m = 0; m < dd.length; m++) {
-				d[m + n * dd.length] = dd[m][n];
-			}
+	/** Returns the real value at <code>(m, n)</code>, without boxing it. */
+	public byte getByte(int m, int n) {
+		return getByte(getIndex(m, n));
+	}
+
+	/** Returns the real value at <code>(i, j, k)</code> of a 3D array, without boxing it. */
+	public byte getByte(int i, int j, int k) {
+		return getByte(getIndex(i, j, k));
+	}
+
+	/** Sets the real value at <code>index</code>, without boxing it. */
+	public void setByte(byte value, int index) {
+		modified();
+		realStorage().put(index, value);
+	}
+
+	/** Sets the real value at <code>(m, n)</code>, without boxing it. */
+	public void setByte(byte value, int m, int n) {
+		setByte(value, getIndex(m, n));
+	}
+
+	/** Sets the real value at <code>(i, j, k)</code> of a 3D array, without boxing it. */
+	public void setByte(byte value, int i, int j, int k) {
+		setByte(value, getIndex(i, j, k));
+	}
+
+	/** Returns the imaginary value at <code>index</code>, always 0 for non-complex arrays. */
+	public byte getImaginaryByte(int index) {
+		return isComplex() ? imaginaryStorage().get(index) : 0;
+	}
+
+	/** Sets the imaginary value at <code>index</code>. */
+	public void setImaginaryByte(byte value, int index) {
+		assertComplex();
+		modified();
+		imaginaryStorage().put(index, value);
+	}
+
+	/** Copies the real part, packed by columns, into <code>dst</code> starting at <code>off</code>. */
+	public void copyRealTo(byte[] dst, int off) {
+		getRealView().get(dst, off, getSize());
+	}
+
+	/** Copies the imaginary part, packed by columns, into <code>dst</code> starting at <code>off</code>. */
+	public void copyImaginaryTo(byte[] dst, int off) {
+		getImaginaryView().get(dst, off, getSize());
+	}
+
+	/** Returns a copy of the real part packed by columns, as MATLAB stores it. */
+	public byte[] getColumnPackedCopy() {
+		byte[] result = new byte[getSize()];
+		copyRealTo(result, 0);
+		return result;
+	}
+
+	/** Returns a copy of the real part packed by rows, with the last dimension varying fastest. */
+	public byte[] getRowPackedCopy() {
+		ByteBuffer real = getRealView();
+		byte[] result = new byte[getSize()];
+		RowMajorIndex index = new RowMajorIndex(getDimensions());
+		for (int i = 0; i < result.length; i++) {
+			result[i] = real.get(index.next());
 		}
-		return d;
+		return result;
 	}
 
 	public Byte buldFromBytes(byte[] bytes) {
@@ -35,7 +35,7 @@ public class MLJavaObject extends MLArray {
 	public Object instantiateObject() throws Exception {
 		// de-serialize object
 		ObjectInputStream ois = new ObjectInputStream(
-				new ByteBufferInputStream(content.getRealByteBuffer(), content.getRealByteBuffer().limit()));
+				new ByteBufferInputStream(content.getRealView(), content.getRealView().limit()));
 		try {
 			return ois.readObject();
 		} finally {
@@ -6,6 +6,7 @@
 package com.jmatio.types;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 
 /**
@@ -24,8 +25,8 @@ public abstract class MLNumericArray<T extends Number> extends MLArray implement
 		ByteStorageSupport<T> {
 	private ByteBuffer real;
 	private ByteBuffer imaginary;
-	/** The buffer for creating Number from bytes */
-	private byte[] bytes;
+	/** The allocator of the storage, or null if the storage was supplied by the caller. */
+	private StorageAllocator allocator;
 
 	/**
 	 * Normally this constructor is used only by MatFileReader and MatFileWriter
@@ -36,16 +37,50 @@ public abstract class MLNumericArray<T extends Number> extends MLArray implement
 	 * @param attributes - array flags
 	 */
 	public MLNumericArray(String name, int[] dims, int type, int attributes) {
+		this(name, dims, type, attributes, StorageAllocator.HEAP);
+	}
+
+	/**
+	 * Creates an array whose storage is provided by <code>allocator</code>,
+	 * and given back to it when the array is closed.
+	 */
+	public MLNumericArray(String name, int[] dims, int type, int attributes, StorageAllocator allocator) {
 		super(name, dims, type, attributes);
+		this.allocator = allocator;
 		allocate();
 	}
 
+	/**
+	 * Adopts the remaining bytes of <code>real</code> and
+	 * <code>imaginary</code> as the storage of the array, without copying
+	 * them.  The array is complex if <code>imaginary</code> is not null.
+	 * Writes through either the buffers or the array are visible to both.
+	 * 
+	 * @throws IllegalArgumentException if a buffer is not big-endian, or does not hold exactly one element per entry of <code>dims</code>
+	 */
+	protected MLNumericArray(String name, int[] dims, int type, ByteBuffer real, ByteBuffer imaginary) {
+		super(name, dims, type, imaginary != null ? MLArray.mtFLAG_COMPLEX : 0);
+		this.real = adopt(real);
+		if (imaginary != null) {
+			this.imaginary = adopt(imaginary);
+		}
+	}
+
+	private ByteBuffer adopt(ByteBuffer buffer) {
+		if (buffer.order() != ByteOrder.BIG_ENDIAN) {
+			throw new IllegalArgumentException("The storage of array " + name + " must be big-endian.");
+		}
+		if (buffer.remaining() != getSize() * getBytesAllocated()) {
+			throw new IllegalArgumentException("Matrix dimensions do not match. " + getSize() * getBytesAllocated() + " bytes, not " + buffer.remaining());
+		}
+		return buffer.slice();
+	}
+
 	protected void allocate() {
-		real = ByteBuffer.allocate(getSize() * getBytesAllocated());
+		real = allocator.allocate(getSize() * getBytesAllocated());
 		if (isComplex()) {
-			imaginary = ByteBuffer.allocate(getSize() * getBytesAllocated());
+			imaginary = allocator.allocate(getSize() * getBytesAllocated());
 		}
-		bytes = new byte[getBytesAllocated()];
 	}
 
 	/** Returns the value of "zero" for this type of array. */
@@ -103,7 +138,10 @@ public abstract class MLNumericArray<T extends Number> extends MLArray implement
 		if (vector.length != getSize()) {
 			throw new IllegalArgumentException("Matrix dimensions do not match. " + getSize() + " not " + vector.length);
 		}
-		System.arraycopy(vector, 0, real, 0, vector.length);
+		modified();
+		for (int i = 0; i < vector.length; i++) {
+			put(real, vector[i], i);
+		}
 	}
 
 	/** Sets a single imaginary array element. */
@@ -179,45 +217,119 @@ public abstract class MLNumericArray<T extends Number> extends MLArray implement
 
 	/** Sets the content of this entire array for non-complex arrays. */
 	public void set(T[] vector) {
-		if (vector.length != getSize()) {
-			throw new IllegalArgumentException("Matrix dimensions do not match. " + getSize() + " not " + vector.length);
-		}
-		System.arraycopy(vector, 0, real, 0, vector.length);
+		setReal(vector);
 	}
 
 	private int getByteOffset(int index) {
 		return index * getBytesAllocated();
 	}
 
+	/** Reads an element by absolute index, so that concurrent readers don't share the position of the buffer. */
 	protected T _get(ByteBuffer buffer, int index) {
-		buffer.position(getByteOffset(index));
-		buffer.get(bytes, 0, bytes.length);
+		byte[] bytes = new byte[getBytesAllocated()];
+		int offset = getByteOffset(index);
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = buffer.get(offset + i);
+		}
 		return buldFromBytes(bytes);
 	}
 
 	protected void _set(ByteBuffer buffer, T value, int index) {
-		buffer.position(getByteOffset(index));
-		buffer.put(getByteArray(value));
+		modified();
+		put(buffer, value, index);
+	}
+
+	private void put(ByteBuffer buffer, T value, int index) {
+		byte[] bytes = getByteArray(value);
+		int offset = getByteOffset(index);
+		for (int i = 0; i < bytes.length; i++) {
+			buffer.put(offset + i, bytes[i]);
+		}
+	}
+
+	/**
+	 * Returns a read-only view of the storage of the real part, packed by
+	 * columns.  Unlike {@link #getRealByteBuffer()} the view does not count as
+	 * a modification, and reading it leaves the storage untouched.
+	 */
+	public ByteBuffer getRealView() {
+		return view(real);
+	}
+
+	/** Returns a read-only view of the storage of the imaginary part, packed by columns. */
+	public ByteBuffer getImaginaryView() {
+		assertComplex();
+		return view(imaginary);
+	}
+
+	/** Returns a view of the whole array, which slices, permutes and squeezes it without copying its storage. */
+	public ArrayView view() {
+		return ArrayView.of(this);
+	}
+
+	/**
+	 * Returns a cursor over the real part, packed by columns, which splits on
+	 * column boundaries for parallel reductions.
+	 */
+	public ColumnSpliterator getRealSpliterator() {
+		return spliterator(view(real));
+	}
+
+	/** Returns a cursor over the imaginary part, packed by columns, which splits on column boundaries. */
+	public ColumnSpliterator getImaginarySpliterator() {
+		assertComplex();
+		return spliterator(view(imaginary));
+	}
+
+	private ColumnSpliterator spliterator(ByteBuffer view) {
+		Class<?> clazz = getStorageClazz();
+		boolean floating = clazz == Double.class || clazz == Float.class;
+		return new ColumnSpliterator(view, getBytesAllocated(), floating, getM(), 0, getSize());
+	}
+
+	/** Returns the storage of the real part, for the primitive accessors of the subclasses. */
+	protected final ByteBuffer realStorage() {
+		return real;
+	}
+
+	/** Returns the storage of the imaginary part, for the primitive accessors of the subclasses. */
+	protected final ByteBuffer imaginaryStorage() {
+		return imaginary;
+	}
+
+	private static ByteBuffer view(ByteBuffer storage) {
+		if (storage == null) {
+			throw new UnsupportedOperationException("This array has no contiguous storage.");
+		}
+		ByteBuffer view = storage.asReadOnlyBuffer();
+		view.clear();
+		return view;
 	}
 
 	public void putImaginaryByteBuffer(ByteBuffer buff) {
 		if (!isComplex()) {
 			throw new RuntimeException("Array is not complex");
 		}
+		modified();
 		imaginary.rewind();
 		imaginary.put(buff);
 	}
 
+	/** Returns the storage of the imaginary part.  The array counts as modified, because the buffer is writable. */
 	public ByteBuffer getImaginaryByteBuffer() {
+		modified();
 		return imaginary;
 	}
 
 	public void putRealByteBuffer(ByteBuffer buff) {
+		modified();
 		real.rewind();
 		real.put(buff);
 	}
 
+	/** Returns the storage of the real part.  The array counts as modified, because the buffer is writable. */
 	public ByteBuffer getRealByteBuffer() {
+		modified();
 		return real;
 	}
 
@@ -259,11 +371,21 @@ public abstract class MLNumericArray<T extends Number> extends MLArray implement
 
 	@Override
 	public int hashCode() {
+		int hash = 31 * storageHashCode(real) + Arrays.hashCode(dims);
 		if (isComplex()) {
-			return Arrays.hashCode(new Object[]{real, dims, imaginary});
-		} else {
-			return Arrays.hashCode(new Object[]{real, dims});
+			hash = 31 * hash + storageHashCode(imaginary);
 		}
+		return hash;
+	}
+
+	/** Hashes the whole storage, regardless of the position of the buffer. */
+	private static int storageHashCode(ByteBuffer storage) {
+		if (storage == null) {
+			return 0;
+		}
+		ByteBuffer whole = storage.duplicate();
+		whole.clear();
+		return whole.hashCode();
 	}
 
 	/**
@@ -282,17 +404,14 @@ public abstract class MLNumericArray<T extends Number> extends MLArray implement
 			return false;
 		}
 
-		buffa.rewind();
-		buffb.rewind();
-
-		int length = buffa.remaining();
+		int length = buffa.limit();
 
-		if (buffb.remaining() != length) {
+		if (buffb.limit() != length) {
 			return false;
 		}
 
 		for (int i = 0; i < length; i++) {
-			if (buffa.get() != buffb.get()) {
+			if (buffa.get(i) != buffb.get(i)) {
 				return false;
 			}
 		}
@@ -300,12 +419,17 @@ public abstract class MLNumericArray<T extends Number> extends MLArray implement
 		return true;
 	}
 
-	public void dispose() {
-		if (real != null) {
-			real.clear();
-		}
-		if (imaginary != null) {
-			real.clear();
+	@Override
+	public void close() {
+		if (allocator != null) {
+			if (real != null) {
+				allocator.release(real);
+			}
+			if (imaginary != null) {
+				allocator.release(imaginary);
+			}
 		}
+		real = null;
+		imaginary = null;
 	}
 }
@@ -30,12 +30,14 @@ public class MLObject extends MLStructureObjectBase {
 	}
 
 	public void setFields(int i, Map<String, MLArray> structure) {
+		modified();
 		keys.addAll(structure.keySet());
 		mlStructArray.put(i, new DeterministicKeyMap<String, MLArray>(keys, structure));
 	}
 
 	/** Only used by {@link com.jmatio.io.MLObjectPlaceholder}. */
 	protected void copyFrom(MLObject obj) {
+		modified();
 		this.className = obj.className;
 		this.keys = obj.keys;
 		this.mlStructArray = obj.mlStructArray;
@@ -6,6 +6,7 @@
 package com.jmatio.types;
 
 import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
 
 public class MLSingle extends MLNumericArray<Float> {
 
@@ -17,6 +18,75 @@ public class MLSingle extends MLNumericArray<Float> {
 		super(name, dims, type, attributes);
 	}
 
+	/** Creates an array whose storage is provided by <code>allocator</code>. */
+	public MLSingle(String name, int[] dims, int type, int attributes, StorageAllocator allocator) {
+		super(name, dims, type, attributes, allocator);
+	}
+
+	/**
+	 * Create a <code>MLSingle</code> array with given name,
+	 * and dimensions.
+	 * 
+	 * @param name - array name
+	 * @param dims - array dimensions
+	 */
+	public MLSingle(String name, int[] dims) {
+		super(name, dims, MLArray.mxSINGLE_CLASS, 0);
+	}
+
+	/**
+	 * <a href="http://math.nist.gov/javanumerics/jama/">Jama</a> [math.nist.gov] style: 
+	 * construct a 2D real matrix from <code>float[][]</code>
+	 * 
+	 * @param name - array name
+	 * @param vals - two-dimensional array of values
+	 * @throws IllegalArgumentException if the rows differ in length
+	 */
+	public MLSingle(String name, float[][] vals) {
+		this(name, new int[]{vals.length, vals[0].length}, MLArray.mxSINGLE_CLASS, 0);
+		FloatBuffer real = realStorage().asFloatBuffer();
+		for (int m = 0; m < vals.length; m++) {
+			if (vals[m].length != vals[0].length) {
+				throw new IllegalArgumentException("All rows must have the same length.");
+			}
+			for (int n = 0; n < vals[m].length; n++) {
+				real.put(m + n * vals.length, vals[m][n]);
+			}
+		}
+	}
+
+	/**
+	 * <a href="http://math.nist.gov/javanumerics/jama/">Jama</a> [math.nist.gov] style: 
+	 * construct a matrix from a one-dimensional packed array
+	 * 
+	 * @param name - array name
+	 * @param vals - One-dimensional array of floats, packed by columns (ala Fortran).
+	 * @param m - Number of rows
+	 */
+	public MLSingle(String name, float[] vals, int m) {
+		this(name, new int[]{m, vals.length / m}, MLArray.mxSINGLE_CLASS, 0);
+		realStorage().asFloatBuffer().put(vals);
+	}
+
+	/**
+	 * Creates a real array whose storage is the remaining bytes of
+	 * <code>real</code>, without copying them.  The bytes are big-endian
+	 * floats, packed by columns.
+	 */
+	public static MLSingle wrap(String name, int[] dims, ByteBuffer real) {
+		return new MLSingle(name, dims, MLArray.mxSINGLE_CLASS, real, null);
+	}
+
+	/** Creates a complex array whose storage is the remaining bytes of <code>real</code> and <code>imaginary</code>, without copying them. */
+	public static MLSingle wrap(String name, int[] dims, ByteBuffer real, ByteBuffer imaginary) {
+		return new MLSingle(name, dims, MLArray.mxSINGLE_CLASS, real, imaginary);
+	}
+
+	/** Adopts the given storage without copying it. */
+	protected MLSingle(String name, int[] dims, int type, ByteBuffer real, ByteBuffer imaginary) {
+		super(name, dims, type, real, imaginary);
+	}
+
 	public Float[] createArray(int m, int n) {
 		return new Float[m * n];
 	}
@@ -37,6 +107,90 @@ public class MLSingle extends MLNumericArray<Float> {
 		return buff.array();
 	}
 
+	/** Returns the real value at <code>index</code>, without boxing it. */
+	public float getFloat(int index) {
+		return realStorage().getFloat(index << 2);
+	}
+
+	/** Returns the real value at <code>(m, n)</code>, without boxing it. */
+	public float getFloat(int m, int n) {
+		return getFloat(getIndex(m, n));
+	}
+
+	/** Returns the real value at <code>(i, j, k)</code> of a 3D array, without boxing it. */
+	public float getFloat(int i, int j, int k) {
+		return getFloat(getIndex(i, j, k));
+	}
+
+	/** Sets the real value at <code>index</code>, without boxing it. */
+	public void setFloat(float value, int index) {
+		modified();
+		realStorage().putFloat(index << 2, value);
+	}
+
+	/** Sets the real value at <code>(m, n)</code>, without boxing it. */
+	public void setFloat(float value, int m, int n) {
+		setFloat(value, getIndex(m, n));
+	}
+
+	/** Sets the real value at <code>(i, j, k)</code> of a 3D array, without boxing it. */
+	public void setFloat(float value, int i, int j, int k) {
+		setFloat(value, getIndex(i, j, k));
+	}
+
+	/** Returns the imaginary value at <code>index</code>, always 0 for non-complex arrays. */
+	public float getImaginaryFloat(int index) {
+		return isComplex() ? imaginaryStorage().getFloat(index << 2) : 0f;
+	}
+
+	/** Sets the imaginary value at <code>index</code>. */
+	public void setImaginaryFloat(float value, int index) {
+		assertComplex();
+		modified();
+		imaginaryStorage().putFloat(index << 2, value);
+	}
+
+	/**
+	 * Returns a read-only view of the real part, packed by columns.  The view
+	 * shares the storage of the array, so nothing is copied or boxed.
+	 */
+	public FloatBuffer getRealFloatBuffer() {
+		return getRealView().asFloatBuffer();
+	}
+
+	/** Returns a read-only view of the imaginary part, packed by columns. */
+	public FloatBuffer getImaginaryFloatBuffer() {
+		return getImaginaryView().asFloatBuffer();
+	}
+
+	/** Copies the real part, packed by columns, into <code>dst</code> starting at <code>off</code>. */
+	public void copyRealTo(float[] dst, int off) {
+		getRealFloatBuffer().get(dst, off, getSize());
+	}
+
+	/** Copies the imaginary part, packed by columns, into <code>dst</code> starting at <code>off</code>. */
+	public void copyImaginaryTo(float[] dst, int off) {
+		getImaginaryFloatBuffer().get(dst, off, getSize());
+	}
+
+	/** Returns a copy of the real part packed by columns, as MATLAB stores it. */
+	public float[] getColumnPackedCopy() {
+		float[] result = new float[getSize()];
+		copyRealTo(result, 0);
+		return result;
+	}
+
+	/** Returns a copy of the real part packed by rows, with the last dimension varying fastest. */
+	public float[] getRowPackedCopy() {
+		FloatBuffer real = getRealFloatBuffer();
+		float[] result = new float[getSize()];
+		RowMajorIndex index = new RowMajorIndex(getDimensions());
+		for (int i = 0; i < result.length; i++) {
+			result[i] = real.get(index.next());
+		}
+		return result;
+	}
+
 	public int getBytesAllocated() {
 		return Float.SIZE >> 3;
 	}
@@ -118,6 +118,7 @@ public class MLSparse extends MLNumericArray<Double> {
 	@Override
 	public void setReal(Double value, int m, int n) {
 		IndexMN i = new IndexMN(m, n);
+		modified();
 		indexSet.add(i);
 		real.put(i, value);
 	}
@@ -132,6 +133,7 @@ public class MLSparse extends MLNumericArray<Double> {
 	public void setImaginary(Double value, int m, int n) {
 		assertComplex();
 		IndexMN i = new IndexMN(m, n);
+		modified();
 		indexSet.add(i);
 		imaginary.put(i, value);
 	}
@@ -158,6 +160,7 @@ public class MLSparse extends MLNumericArray<Double> {
 	@Override
 	public void set(Double value, int m, int n) {
 		IndexMN i = new IndexMN(m, n);
+		modified();
 		indexSet.add(i);
 		real.put(i, value);
 	}
@@ -68,6 +68,7 @@ public abstract class MLStructureObjectBase extends MLArray {
 	 * @param index
 	 */
 	public void setField(String name, MLArray value, int index) {
+		modified();
 		keys.add(name);
 		currentIndex = index;
 
@@ -151,11 +152,48 @@ public abstract class MLStructureObjectBase extends MLArray {
 		return getField(name, currentIndex);
 	}
 
-	/** Returns all the fields for the given index. */
+	/** Returns all the fields for the given index.  The map is writable, so the array counts as modified. */
 	public Map<String, MLArray> getFields(int i) {
+		modified();
 		return mlStructArray.get(i);
 	}
 
+	@Override
+	public void freeze() {
+		super.freeze();
+		for (Map<String, MLArray> struct : mlStructArray.values()) {
+			for (MLArray field : struct.values()) {
+				if (field != null) {
+					field.freeze();
+				}
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		for (Map<String, MLArray> struct : mlStructArray.values()) {
+			for (MLArray field : struct.values()) {
+				if (field != null) {
+					field.close();
+				}
+			}
+		}
+	}
+
+	@Override
+	public long getModificationStamp() {
+		long stamp = super.getModificationStamp();
+		for (Map<String, MLArray> struct : mlStructArray.values()) {
+			for (MLArray field : struct.values()) {
+				if (field != null) {
+					stamp = Math.max(stamp, field.getModificationStamp());
+				}
+			}
+		}
+		return stamp;
+	}
+
 	/**
 	 * Gets a value of the field described by name from (m,n)'th struct
 	 * in struct array or null if the field doesn't exist.
@@ -5,12 +5,19 @@
  */
 package com.jmatio.types;
 
+import java.nio.ByteBuffer;
+
 public class MLUInt16 extends MLInt16 {
 
 	public MLUInt16(String name, int[] dims, int type, int attributes) {
 		super(name, dims, type, attributes);
 	}
 
+	/** Creates an array whose storage is provided by <code>allocator</code>. */
+	public MLUInt16(String name, int[] dims, int type, int attributes, StorageAllocator allocator) {
+		super(name, dims, type, attributes, allocator);
+	}
+
 	public MLUInt16(String name, Short[] vals, int m) {
 		super(name, vals, m);
 	}
@@ -26,4 +33,19 @@ public class MLUInt16 extends MLInt16 {
 	public MLUInt16(String name, short[] vals, int m) {
 		super(name, vals, m);
 	}
+
+	/** Creates a real array whose storage is the remaining bytes of <code>real</code>, without copying them. */
+	public static MLUInt16 wrap(String name, int[] dims, ByteBuffer real) {
+		return new MLUInt16(name, dims, MLArray.mxUINT16_CLASS, real, null);
+	}
+
+	/** Creates a complex array whose storage is the remaining bytes of <code>real</code> and <code>imaginary</code>, without copying them. */
+	public static MLUInt16 wrap(String name, int[] dims, ByteBuffer real, ByteBuffer imaginary) {
+		return new MLUInt16(name, dims, MLArray.mxUINT16_CLASS, real, imaginary);
+	}
+
+	/** Adopts the given storage without copying it. */
+	protected MLUInt16(String name, int[] dims, int type, ByteBuffer real, ByteBuffer imaginary) {
+		super(name, dims, type, real, imaginary);
+	}
 }
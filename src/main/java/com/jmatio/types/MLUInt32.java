@@ -5,12 +5,19 @@
  */
 package com.jmatio.types;
 
+import java.nio.ByteBuffer;
+
 public class MLUInt32 extends MLInt32 {
 
 	public MLUInt32(String name, int[] dims, int type, int attributes) {
 		super(name, dims, type, attributes);
 	}
 
+	/** Creates an array whose storage is provided by <code>allocator</code>. */
+	public MLUInt32(String name, int[] dims, int type, int attributes, StorageAllocator allocator) {
+		super(name, dims, type, attributes, allocator);
+	}
+
 	public MLUInt32(String name, int[] vals, int m) {
 		super(name, vals, m);
 	}
@@ -26,4 +33,19 @@ public class MLUInt32 extends MLInt32 {
 	public MLUInt32(String name, Integer[] vals, int m) {
 		super(name, vals, m);
 	}
+
+	/** Creates a real array whose storage is the remaining bytes of <code>real</code>, without copying them. */
+	public static MLUInt32 wrap(String name, int[] dims, ByteBuffer real) {
+		return new MLUInt32(name, dims, MLArray.mxUINT32_CLASS, real, null);
+	}
+
+	/** Creates a complex array whose storage is the remaining bytes of <code>real</code> and <code>imaginary</code>, without copying them. */
+	public static MLUInt32 wrap(String name, int[] dims, ByteBuffer real, ByteBuffer imaginary) {
+		return new MLUInt32(name, dims, MLArray.mxUINT32_CLASS, real, imaginary);
+	}
+
+	/** Adopts the given storage without copying it. */
+	protected MLUInt32(String name, int[] dims, int type, ByteBuffer real, ByteBuffer imaginary) {
+		super(name, dims, type, real, imaginary);
+	}
 }
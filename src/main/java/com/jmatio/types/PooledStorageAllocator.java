@@ -0,0 +1,92 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.types;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Allocates storage from slabs whose sizes are powers of two, and keeps the
+ * released slabs for later arrays of a similar size, up to a number of
+ * retained bytes.  Reading many files of the same shape then reuses the
+ * same few slabs, which is mostly worthwhile for direct slabs.
+ * <p>
+ * This class is thread-safe.
+ */
+public class PooledStorageAllocator implements StorageAllocator {
+	/** Arrays larger than this are allocated exactly, and never pooled. */
+	private static final int MAX_POOLED = 1 << 30;
+
+	private final boolean direct;
+	private final long maxRetainedBytes;
+	private final Map<Integer, List<ByteBuffer>> free = new HashMap<Integer, List<ByteBuffer>>();
+	private final Map<ByteBuffer, ByteBuffer> slabs = new IdentityHashMap<ByteBuffer, ByteBuffer>();
+	private long retainedBytes;
+
+	/**
+	 * Creates a pool of heap or direct slabs, which retains at most
+	 * <code>maxRetainedBytes</code> bytes of released slabs.
+	 */
+	public PooledStorageAllocator(boolean direct, long maxRetainedBytes) {
+		this.direct = direct;
+		this.maxRetainedBytes = maxRetainedBytes;
+	}
+
+	/** Returns the number of bytes of the released slabs which the pool keeps. */
+	public synchronized long getRetainedBytes() {
+		return retainedBytes;
+	}
+
+	@Override
+	public synchronized ByteBuffer allocate(int capacity) {
+		int size = capacity <= 1 ? 1 : capacity > MAX_POOLED ? capacity : Integer.highestOneBit(capacity - 1) << 1;
+		ByteBuffer slab = null;
+		List<ByteBuffer> list = free.get(size);
+		if (list != null && !list.isEmpty()) {
+			slab = list.remove(list.size() - 1);
+			retainedBytes -= size;
+			clear(slab);
+		} else {
+			slab = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+		}
+		ByteBuffer storage = slab.duplicate();
+		storage.limit(capacity);
+		storage = storage.slice();
+		slabs.put(storage, slab);
+		return storage;
+	}
+
+	@Override
+	public synchronized void release(ByteBuffer buffer) {
+		ByteBuffer slab = slabs.remove(buffer);
+		if (slab == null || slab.capacity() > MAX_POOLED || retainedBytes + slab.capacity() > maxRetainedBytes) {
+			return;
+		}
+		List<ByteBuffer> list = free.get(slab.capacity());
+		if (list == null) {
+			list = new ArrayList<ByteBuffer>();
+			free.put(slab.capacity(), list);
+		}
+		list.add(slab);
+		retainedBytes += slab.capacity();
+	}
+
+	/** Zeroes the whole of the given buffer. */
+	static void clear(ByteBuffer buffer) {
+		ByteBuffer zeroed = buffer.duplicate();
+		zeroed.clear();
+		while (zeroed.remaining() >= 8) {
+			zeroed.putLong(0L);
+		}
+		while (zeroed.hasRemaining()) {
+			zeroed.put((byte) 0);
+		}
+	}
+}
@@ -0,0 +1,43 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.types;
+
+/**
+ * Walks the elements of an array in row-major order, with the last dimension
+ * varying fastest, and gives the column-major index in which MATLAB stores
+ * each of them.
+ */
+class RowMajorIndex {
+	private final int[] dims;
+	private final int[] strides;
+	private final int[] counters;
+	private int index = 0;
+
+	RowMajorIndex(int[] dims) {
+		this.dims = dims;
+		strides = new int[dims.length];
+		counters = new int[dims.length];
+		int stride = 1;
+		for (int d = 0; d < dims.length; d++) {
+			strides[d] = stride;
+			stride *= dims[d];
+		}
+	}
+
+	/** Returns the column-major index of the next element in row-major order. */
+	int next() {
+		int result = index;
+		for (int d = dims.length - 1; d >= 0; d--) {
+			if (++counters[d] < dims[d]) {
+				index += strides[d];
+				return result;
+			}
+			index -= strides[d] * (dims[d] - 1);
+			counters[d] = 0;
+		}
+		return result;
+	}
+}
@@ -0,0 +1,52 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.types;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Provides the storage of numeric arrays.
+ * <p>
+ * The storage of an array is allocated when it is created, and released
+ * when it is closed, so an allocator may hand out direct memory, pooled
+ * slabs, or slices of a caller-managed arena, which the garbage collector
+ * never has to trace.
+ *
+ * @see MLNumericArray#close()
+ * @see com.jmatio.io.MatFileReader#setStorageAllocator(StorageAllocator)
+ */
+public interface StorageAllocator {
+	/**
+	 * Returns a big-endian buffer of <code>capacity</code> zeroed bytes,
+	 * whose position is 0 and whose limit is its capacity.
+	 */
+	ByteBuffer allocate(int capacity);
+
+	/** Takes back a buffer returned by {@link #allocate(int)}, which its array no longer uses. */
+	void release(ByteBuffer buffer);
+
+	/** Allocates on the Java heap, as <code>ByteBuffer.allocate</code> does.  The default. */
+	StorageAllocator HEAP = new StorageAllocator() {
+		@Override
+		public ByteBuffer allocate(int capacity) {
+			return ByteBuffer.allocate(capacity);
+		}
+
+		@Override
+		public void release(ByteBuffer buffer) {}
+	};
+
+	/** Allocates direct buffers, which are freed once they are no longer referenced. */
+	StorageAllocator DIRECT = new StorageAllocator() {
+		@Override
+		public ByteBuffer allocate(int capacity) {
+			return ByteBuffer.allocateDirect(capacity);
+		}
+
+		@Override
+		public void release(ByteBuffer buffer) {}
+	};
+}
@@ -0,0 +1,66 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.types;
+
+import java.util.Spliterator;
+import java.util.function.DoubleConsumer;
+import java.util.stream.DoubleStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Adapts a {@link ColumnSpliterator} to <code>Spliterator.OfDouble</code>,
+ * so that the elements of a numeric array can be reduced by a parallel
+ * <code>DoubleStream</code> without boxing.
+ * <p>
+ * Compiled for Java 8 apart from the rest of the library, which still runs
+ * on Java 6, so that it is only loaded where the stream API exists.  The
+ * spliterator is not <code>IMMUTABLE</code>: it sees writes to the array as
+ * they happen, unless the array is frozen.
+ */
+public final class DoubleColumnSpliterator implements Spliterator.OfDouble {
+	private final ColumnSpliterator columns;
+
+	public DoubleColumnSpliterator(ColumnSpliterator columns) {
+		this.columns = columns;
+	}
+
+	/** Returns a stream of the elements of <code>columns</code>, as by <code>Number.doubleValue()</code>. */
+	public static DoubleStream stream(ColumnSpliterator columns, boolean parallel) {
+		return StreamSupport.doubleStream(new DoubleColumnSpliterator(columns), parallel);
+	}
+
+	@Override
+	public boolean tryAdvance(DoubleConsumer action) {
+		if (!columns.hasNext()) {
+			return false;
+		}
+		action.accept(columns.nextDouble());
+		return true;
+	}
+
+	@Override
+	public void forEachRemaining(DoubleConsumer action) {
+		while (columns.hasNext()) {
+			action.accept(columns.nextDouble());
+		}
+	}
+
+	@Override
+	public DoubleColumnSpliterator trySplit() {
+		ColumnSpliterator prefix = columns.trySplit();
+		return prefix == null ? null : new DoubleColumnSpliterator(prefix);
+	}
+
+	@Override
+	public long estimateSize() {
+		return columns.estimateSize();
+	}
+
+	@Override
+	public int characteristics() {
+		return ORDERED | SIZED | SUBSIZED | NONNULL;
+	}
+}
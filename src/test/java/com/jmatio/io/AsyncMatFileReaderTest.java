@@ -0,0 +1,147 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.jmatio.types.MLArray;
+import com.jmatio.types.MLChar;
+import com.jmatio.types.MLDouble;
+import com.jmatio.types.MLObject;
+
+public class AsyncMatFileReaderTest {
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+	@After
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	private File fileFromStream(String location) throws IOException {
+		File file = temp.newFile(location.substring(location.lastIndexOf('/') + 1));
+		InputStream input = AsyncMatFileReaderTest.class.getResourceAsStream(location);
+		FileOutputStream output = new FileOutputStream(file);
+		byte[] buffer = new byte[1024];
+		int length;
+		while ((length = input.read(buffer)) != -1) {
+			output.write(buffer, 0, length);
+		}
+		output.close();
+		input.close();
+		return file;
+	}
+
+	@Test
+	public void testReadAll() throws Exception {
+		List<MLArray> arrays = new ArrayList<MLArray>();
+		for (int i = 0; i < 20; i++) {
+			double[] values = new double[1000 * (i + 1)];
+			for (int j = 0; j < values.length; j++) {
+				values[j] = i * j;
+			}
+			arrays.add(new MLDouble("a" + i, values, 1));
+		}
+		arrays.add(new MLChar("text", "some text"));
+		File file = temp.newFile("many.mat");
+		new MatFileWriter(file, arrays);
+
+		AsyncMatFileReader reader = new AsyncMatFileReader(file, executor);
+		try {
+			Map<String, MLArray> content = reader.readAll(new MatFileFilter()).get();
+			assertEquals(new MatFileReader(file).getContent(), content);
+			assertEquals(Arrays.asList(reader.getIndex().getNames().toArray()), Arrays.asList(content.keySet().toArray()));
+
+			Map<String, MLArray> filtered = reader.readAll(new MatFileFilter(new String[]{"a3", "text"})).get();
+			assertEquals(2, filtered.size());
+			assertEquals(arrays.get(3), filtered.get("a3"));
+			assertEquals(arrays.get(20), reader.read("text").get());
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void testCallbacks() throws Exception {
+		File file = temp.newFile("callback.mat");
+		MLDouble array = new MLDouble("x", new double[]{1.0, 2.0, 3.0}, 1);
+		new MatFileWriter(file, Arrays.<MLArray> asList(array));
+
+		AsyncMatFileReader reader = new AsyncMatFileReader(file, executor);
+		try {
+			final AtomicReference<Object> outcome = new AtomicReference<Object>();
+			final CountDownLatch latch = new CountDownLatch(2);
+			AsyncMatFileReader.Callback<MLArray> callback = new AsyncMatFileReader.Callback<MLArray>() {
+				@Override
+				public void completed(MLArray result) {
+					outcome.compareAndSet(null, result);
+					latch.countDown();
+				}
+
+				@Override
+				public void failed(Throwable error) {
+					assertTrue(error instanceof IllegalArgumentException);
+					latch.countDown();
+				}
+			};
+			reader.read("x", callback);
+			reader.read("missing", callback);
+			assertTrue(latch.await(10, TimeUnit.SECONDS));
+			assertEquals(array, outcome.get());
+
+			try {
+				reader.read("missing").get();
+				fail();
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof IllegalArgumentException);
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void testObjects() throws Exception {
+		File file = fileFromStream("/mcos/simplesingletext_multiple.mat");
+		Map<String, MLArray> expected = new MatFileReader(file).getContent();
+		AsyncMatFileReader reader = new AsyncMatFileReader(file, executor);
+		try {
+			Map<String, MLArray> content = reader.readAll(new MatFileFilter()).get();
+			assertEquals(expected.keySet(), content.keySet());
+			for (String name : expected.keySet()) {
+				MLObject object = (MLObject) content.get(name);
+				assertEquals(((MLObject) expected.get(name)).getClassName(), object.getClassName());
+				assertEquals(expected.get(name).contentToString(), object.contentToString());
+			}
+		} finally {
+			reader.close();
+		}
+	}
+}
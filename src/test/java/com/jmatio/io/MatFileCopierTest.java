@@ -0,0 +1,142 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.jmatio.types.MLArray;
+import com.jmatio.types.MLChar;
+import com.jmatio.types.MLDouble;
+import com.jmatio.types.MLObject;
+
+public class MatFileCopierTest {
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	private File fileFromStream(String location) throws IOException {
+		File file = temp.newFile(location.substring(location.lastIndexOf('/') + 1));
+		InputStream input = MatFileCopierTest.class.getResourceAsStream(location);
+		FileOutputStream output = new FileOutputStream(file);
+		byte[] buffer = new byte[1024];
+		int length;
+		while ((length = input.read(buffer)) != -1) {
+			output.write(buffer, 0, length);
+		}
+		output.close();
+		input.close();
+		return file;
+	}
+
+	private File write(String fileName, MLArray... arrays) throws IOException {
+		File file = temp.newFile(fileName);
+		new MatFileWriter(file, Arrays.asList(arrays));
+		return file;
+	}
+
+	@Test
+	public void testMergeAcrossByteOrders() throws IOException {
+		File bigEndian = write("big.mat", new MLDouble("a", new double[]{1.0, 2.0}, 1), new MLChar("b", "text"));
+		File littleEndian = fileFromStream("/cell.mat");
+		Map<String, MLArray> expected = new MatFileReader(littleEndian).getContent();
+		expected.putAll(new MatFileReader(bigEndian).getContent());
+
+		File merged = temp.newFile("merged.mat");
+		MatFileCopier.merge(Arrays.asList(bigEndian, littleEndian), merged);
+
+		MatFileReader reader = new MatFileReader(merged);
+		assertEquals(ByteOrder.BIG_ENDIAN, reader.getMatFileHeader().getByteOrder());
+		assertEquals(expected.size(), reader.getContent().size());
+		for (Map.Entry<String, MLArray> entry : expected.entrySet()) {
+			assertEquals(entry.getValue().contentToString(), reader.getMLArray(entry.getKey()).contentToString());
+		}
+	}
+
+	@Test
+	public void testOversizedAcrossByteOrders() throws IOException {
+		// an uncompressed element which declares 3 GB, backed by a sparse file
+		File oversized = temp.newFile("oversized.mat");
+		new MatFileWriter().write(oversized, Arrays.<MLArray> asList(new MLDouble("huge", new double[]{1.0}, 1)), MatFileWriter.GATHERING_WRITE);
+		long size = 3L << 30;
+		RandomAccessFile raFile = new RandomAccessFile(oversized, "rw");
+		try {
+			raFile.seek(MatFileIndex.HEADER_LENGTH + 4);
+			raFile.writeInt((int) size);
+			raFile.setLength(MatFileIndex.HEADER_LENGTH + 8 + size);
+		} finally {
+			raFile.close();
+		}
+
+		MatFileCopier copier = new MatFileCopier(temp.newFile("converted.mat"));
+		try {
+			copier.copy(fileFromStream("/cell.mat"));
+			copier.copy(oversized);
+			fail("Expected the element to be too large to swap");
+		} catch (MatlabIOException e) {
+			assertTrue(e.getMessage().contains("huge"));
+		} finally {
+			copier.close();
+		}
+	}
+
+	@Test
+	public void testCollision() throws IOException {
+		File first = write("first.mat", new MLDouble("a", new double[]{1.0}, 1));
+		File second = write("second.mat", new MLDouble("b", new double[]{2.0}, 1), new MLDouble("a", new double[]{3.0}, 1));
+
+		File merged = temp.newFile("merged.mat");
+		MatFileCopier copier = new MatFileCopier(merged);
+		copier.copy(first);
+		long length = merged.length();
+		try {
+			copier.copy(second);
+			fail("Expected the second 'a' to be rejected");
+		} catch (IllegalArgumentException e) {}
+		copier.copy(second, new MatFileFilter(new String[]{"b"}));
+		copier.close();
+		assertEquals(length + MatFileIndex.scan(second).getEntry("b").getLength(), merged.length());
+		assertEquals(2, new MatFileReader(merged).getContent().size());
+	}
+
+	@Test
+	public void testExtractObject() throws IOException {
+		File source = fileFromStream("/mcos/simpleempty_multiple.mat");
+		File target = temp.newFile("obj2.mat");
+		MatFileCopier.extract(source, target, new MatFileFilter(new String[]{"obj2"}));
+
+		MatFileReader reader = new MatFileReader(target);
+		assertEquals(1, reader.getContent().size());
+		assertEquals("SimpleEmpty", ((MLObject) reader.getMLArray("obj2")).getClassName());
+	}
+
+	@Test
+	public void testSplit() throws IOException {
+		MLDouble a = new MLDouble("a", new double[]{1.0, 2.0}, 1);
+		MLDouble b = new MLDouble("b", new double[]{3.0}, 1);
+		File source = write("source.mat", a, b);
+		List<File> files = MatFileCopier.split(source, temp.newFolder("split"));
+
+		assertEquals(2, files.size());
+		assertEquals(a, new MatFileReader(files.get(0)).getMLArray("a"));
+		assertEquals(b, new MatFileReader(files.get(1)).getMLArray("b"));
+		assertEquals(1, new MatFileReader(files.get(1)).getContent().size());
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.jmatio.types.MLArray;
+import com.jmatio.types.MLChar;
+import com.jmatio.types.MLDouble;
+import com.jmatio.types.MLObject;
+
+public class MatFileEditorTest {
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	private File fileFromStream(String location) throws IOException {
+		File file = temp.newFile(location.substring(location.lastIndexOf('/') + 1));
+		InputStream input = MatFileEditorTest.class.getResourceAsStream(location);
+		FileOutputStream output = new FileOutputStream(file);
+		byte[] buffer = new byte[1024];
+		int length;
+		while ((length = input.read(buffer)) != -1) {
+			output.write(buffer, 0, length);
+		}
+		output.close();
+		input.close();
+		return file;
+	}
+
+	private File writeThree() throws IOException {
+		File file = temp.newFile("edit.mat");
+		new MatFileWriter(file, Arrays.<MLArray> asList(
+				new MLDouble("a", new double[]{1.0, 2.0}, 1),
+				new MLChar("b", "unchanged"),
+				new MLDouble("c", new double[]{3.0}, 1)));
+		return file;
+	}
+
+	@Test
+	public void testCommit() throws IOException {
+		File file = writeThree();
+		MLDouble replacement = new MLDouble("a", new double[]{4.0, 5.0, 6.0}, 3);
+		MLDouble added = new MLDouble("d", new double[]{7.0}, 1);
+		new MatFileEditor(file).put(replacement).delete("c").put(added).commit();
+
+		MatFileIndex index = MatFileIndex.scan(file);
+		assertEquals(Arrays.asList("a", "b", "d"), Arrays.asList(index.getNames().toArray()));
+		assertEquals(file.length(), index.getEndOffset());
+
+		Map<String, MLArray> content = new MatFileReader(file).getContent();
+		assertEquals(3, content.size());
+		assertEquals(replacement, content.get("a"));
+		assertEquals("unchanged", ((MLChar) content.get("b")).getString(0));
+		assertEquals(added, content.get("d"));
+		assertEquals(1, temp.getRoot().list().length);
+	}
+
+	@Test
+	public void testCommitInPlaceAndCompact() throws IOException {
+		File file = fileFromStream("/cell.mat");
+		Map<String, MLArray> before = new MatFileReader(file).getContent();
+		String name = MatFileIndex.scan(file).getEntries().get(0).getName();
+		long length = file.length();
+
+		MLDouble replacement = new MLDouble(name, new double[]{1.0, 2.0, 3.0}, 1);
+		new MatFileEditor(file).put(replacement).commitInPlace();
+
+		MatFileIndex index = MatFileIndex.scan(file);
+		assertTrue(index.getTombstoneLength() > 0);
+		assertEquals(length, index.getEntry(name).getOffset());
+		MatFileReader reader = new MatFileReader(file);
+		assertEquals(ByteOrder.LITTLE_ENDIAN, reader.getMatFileHeader().getByteOrder());
+		assertEquals(before.size(), reader.getContent().size());
+		assertEquals(replacement, reader.getMLArray(name));
+
+		MatFileEditor.compact(file);
+		index = MatFileIndex.scan(file);
+		assertEquals(0, index.getTombstoneLength());
+		assertEquals(MatFileIndex.HEADER_LENGTH, index.getEntry(name).getOffset());
+		assertEquals(replacement, new MatFileReader(file).getMLArray(name));
+
+		new MatFileEditor(file).delete(name).commitInPlace();
+		assertNull(new MatFileReader(file).getMLArray(name));
+	}
+
+	@Test
+	public void testTombstoneLengths() throws IOException {
+		File file = writeThree();
+		RandomAccessFile raFile = new RandomAccessFile(file, "rw");
+		try {
+			FileChannel channel = raFile.getChannel();
+			long[] lengths = new long[200];
+			for (int i = 0; i < lengths.length; i++) {
+				lengths[i] = 80 + i;
+			}
+			lengths[0] = 65535 * 3 + 17;
+			lengths[1] = 65540 * 2 + 24;
+			for (long length : lengths) {
+				channel.truncate(MatFileIndex.HEADER_LENGTH);
+				if (MatFileEditor.tombstoneBlocks(length) < 0) {
+					assertTrue("Length " + length, length < 130);
+					continue;
+				}
+				MatFileEditor.writeTombstone(channel, MatFileIndex.HEADER_LENGTH, length, ByteOrder.BIG_ENDIAN);
+				MatFileIndex index = MatFileIndex.scan(channel);
+				assertEquals(0, index.getEntries().size());
+				assertEquals(length, index.getTombstoneLength());
+			}
+		} finally {
+			raFile.close();
+		}
+		assertEquals(0, new MatFileReader(file).getContent().size());
+	}
+
+	@Test
+	public void testSplitTombstones() throws IOException {
+		File file = writeThree();
+		RandomAccessFile raFile = new RandomAccessFile(file, "rw");
+		try {
+			FileChannel channel = raFile.getChannel();
+			// elements over 2 GB are covered the same way, with a maximum of 1 GB
+			for (long length : new long[]{1000, 1001, 1499, 1500, 1501, 4321, 10007}) {
+				channel.truncate(MatFileIndex.HEADER_LENGTH);
+				MatFileEditor.writeTombstones(channel, MatFileIndex.HEADER_LENGTH, length, ByteOrder.BIG_ENDIAN, 1000);
+				MatFileIndex index = MatFileIndex.scan(channel);
+				assertEquals(0, index.getEntries().size());
+				assertEquals(length, index.getTombstoneLength());
+				assertEquals(MatFileIndex.HEADER_LENGTH + length, index.getEndOffset());
+			}
+		} finally {
+			raFile.close();
+		}
+	}
+
+	@Test
+	public void testShortFileName() throws IOException {
+		File file = temp.newFile("a");
+		new MatFileWriter(file, Arrays.<MLArray> asList(new MLDouble("x", new double[]{1.0}, 1)));
+		new MatFileEditor(file).put(new MLDouble("y", new double[]{2.0}, 1)).commit();
+		assertEquals(2, new MatFileReader(file).getContent().size());
+	}
+
+	@Test
+	public void testCommitKeepsSubsystemData() throws IOException {
+		File file = fileFromStream("/mcos/simpleempty.mat");
+		new MatFileEditor(file).put(new MLDouble("x", new double[]{1.0}, 1)).commit();
+
+		MatFileReader reader = new MatFileReader(file);
+		assertEquals(2, reader.getContent().size());
+		assertEquals("SimpleEmpty", ((MLObject) reader.getMLArray("obj")).getClassName());
+	}
+}
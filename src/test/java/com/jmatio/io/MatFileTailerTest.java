@@ -0,0 +1,98 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.jmatio.types.MLArray;
+import com.jmatio.types.MLChar;
+import com.jmatio.types.MLDouble;
+
+public class MatFileTailerTest {
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	@Test
+	public void testFollowIncrementalWriter() throws IOException {
+		File file = temp.newFile("tailed.mat");
+		MatFileIncrementalWriter writer = new MatFileIncrementalWriter(file);
+		MatFileTailer tailer = new MatFileTailer(file, new MatFileFilter(new String[]{"a0", "a1", "a2"}));
+		try {
+			assertTrue(tailer.poll().isEmpty());
+			for (int i = 0; i < 3; i++) {
+				MLDouble array = new MLDouble("a" + i, new double[]{i, i + 1.0}, 1);
+				writer.write(array);
+				writer.write(new MLChar("skipped" + i, "text"));
+				assertEquals(Arrays.<MLArray> asList(array), tailer.poll());
+				assertEquals(new File(file.getPath()).length(), tailer.getOffset());
+			}
+			assertTrue(tailer.poll().isEmpty());
+		} finally {
+			writer.close();
+			tailer.close();
+		}
+	}
+
+	@Test
+	public void testPartialElements() throws IOException {
+		List<MLArray> arrays = new ArrayList<MLArray>();
+		for (int i = 0; i < 5; i++) {
+			double[] values = new double[100 * (i + 1)];
+			Arrays.fill(values, i);
+			arrays.add(new MLDouble("a" + i, values, 1));
+		}
+		File complete = temp.newFile("complete.mat");
+		new MatFileWriter(complete, arrays);
+		byte[] bytes = new byte[(int) complete.length()];
+		RandomAccessFile raFile = new RandomAccessFile(complete, "r");
+		raFile.readFully(bytes);
+		raFile.close();
+
+		// the file grows a few bytes at a time, splitting the header and the elements
+		File growing = temp.newFile("growing.mat");
+		FileOutputStream output = new FileOutputStream(growing);
+		MatFileTailer tailer = new MatFileTailer(growing);
+		try {
+			List<MLArray> read = new ArrayList<MLArray>();
+			for (int written = 0; written < bytes.length; written += 37) {
+				output.write(bytes, written, Math.min(37, bytes.length - written));
+				output.flush();
+				read.addAll(tailer.poll());
+			}
+			assertEquals(arrays, read);
+			assertEquals(bytes.length, tailer.getOffset());
+		} finally {
+			output.close();
+		}
+
+		// truncation is reported
+		raFile = new RandomAccessFile(growing, "rw");
+		raFile.setLength(100);
+		raFile.close();
+		try {
+			tailer.poll();
+			fail();
+		} catch (MatlabIOException e) {
+			// expected
+		} finally {
+			tailer.close();
+		}
+	}
+}
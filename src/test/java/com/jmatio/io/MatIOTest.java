@@ -6,16 +6,21 @@
 package com.jmatio.io;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ByteChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -24,10 +29,14 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
+import com.jmatio.common.MatDataTypes;
+import com.jmatio.io.stream.MatFileInputStream;
+import com.jmatio.types.ArenaStorageAllocator;
 import com.jmatio.types.MLArray;
 import com.jmatio.types.MLCell;
 import com.jmatio.types.MLChar;
 import com.jmatio.types.MLDouble;
+import com.jmatio.types.MLInt16;
 import com.jmatio.types.MLInt32;
 import com.jmatio.types.MLInt64;
 import com.jmatio.types.MLInt8;
@@ -39,6 +48,8 @@ import com.jmatio.types.MLSparse;
 import com.jmatio.types.MLStructure;
 import com.jmatio.types.MLUInt64;
 import com.jmatio.types.MLUInt8;
+import com.jmatio.types.PooledStorageAllocator;
+import com.jmatio.types.StorageAllocator;
 
 /**
  * The test suite for JMatIO
@@ -410,6 +421,32 @@ public class MatIOTest {
 		assertEquals(mlChar, mlArrayRetrived.get(0));
 	}
 
+	@Test
+	public void testWritingFrozenArrays() throws IOException {
+		MLChar text = new MLChar("text", "frozen");
+		MLCell cell = new MLCell("cl", new int[]{2, 1});
+		cell.set(text, 0);
+		cell.set(new MLDouble("d", new double[]{1.0, 2.0}, 1), 1);
+		MLStructure struct = new MLStructure("st", new int[]{1, 1});
+		struct.setField("c", new MLChar("c", "field"));
+		List<MLArray> arrays = Arrays.<MLArray> asList(cell, struct);
+		cell.freeze();
+		struct.freeze();
+
+		File file = getTempFile("frozen.mat");
+		new MatFileWriter(file, arrays);
+		MatFileReader reader = new MatFileReader(file);
+		assertEquals(text, ((MLCell) reader.getMLArray("cl")).get(0));
+		assertEquals("field", ((MLChar) ((MLStructure) reader.getMLArray("st")).getField("c")).getString(0));
+
+		File incremental = getTempFile("frozenincremental.mat");
+		MatFileIncrementalWriter writer = new MatFileIncrementalWriter(incremental);
+		writer.write(arrays);
+		writer.close();
+		assertEquals(text, ((MLCell) new MatFileReader(incremental).getMLArray("cl")).get(0));
+		assertTrue(cell.isFrozen());
+	}
+
 	/**
 	 * Tests <code>MLChar</code> reading and writing.
 	 * 
@@ -860,6 +897,725 @@ public class MatIOTest {
 		assertEquals("Test if value red from file equals value stored", m3, mfr.getMLArray("m3"));
 	}
 
+	@Test
+	public void testIncrementalAppend() throws IOException {
+		File file = getTempFile("append.mat");
+		MLDouble m1 = new MLDouble("m1", new double[]{1.0, 2.0, 3.0, 4.0}, 2);
+		new MatFileWriter(file, Arrays.<MLArray> asList(m1));
+
+		MLChar m2 = new MLChar("m2", "appended");
+		MatFileIncrementalWriter writer = new MatFileIncrementalWriter(file, true);
+		writer.write(m2);
+		try {
+			writer.write(new MLDouble("m1", new double[]{5.0}, 1));
+			Assert.fail("Expected the existing variable to be rejected");
+		} catch (IllegalArgumentException e) {}
+		writer.close();
+
+		MatFileReader mfr = new MatFileReader(file);
+		assertEquals(2, mfr.getContent().size());
+		assertEquals(m1, mfr.getMLArray("m1"));
+		assertEquals(m2, mfr.getMLArray("m2"));
+	}
+
+	@Test
+	public void testRetainedOriginsRoundTrip() throws IOException {
+		File file = getTestFile("cell.mat");
+		byte[] original = readBytes(file);
+
+		MatFileReader reader = new MatFileReader();
+		reader.setRetainOrigins(true);
+		Map<String, MLArray> content = reader.read(file, new MatFileFilter(), MatFileReader.MEMORY_MAPPED_FILE);
+		for (MLArray array : content.values()) {
+			assertTrue(array.getOrigin().isCurrent(array));
+		}
+
+		// unmodified arrays are copied verbatim, in the original byte order
+		File copy = getTempFile("cellcopy.mat");
+		new MatFileWriter(copy, content.values());
+		byte[] copied = readBytes(copy);
+		assertEquals(original.length, copied.length);
+		assertTrue(Arrays.equals(Arrays.copyOfRange(original, 124, original.length), Arrays.copyOfRange(copied, 124, copied.length)));
+
+		// a modified array is encoded again, and the file can be overwritten in place
+		MLArray first = content.values().iterator().next();
+		MLDouble added = new MLDouble("added", new double[]{1.0, 2.0}, 1);
+		List<MLArray> arrays = new ArrayList<MLArray>(content.values());
+		arrays.add(added);
+		new MatFileWriter(file, arrays);
+		MatFileReader reread = new MatFileReader(file);
+		assertEquals(ByteOrder.LITTLE_ENDIAN, reread.getMatFileHeader().getByteOrder());
+		assertEquals(first.contentToString(), reread.getMLArray(first.getName()).contentToString());
+		assertEquals(added, reread.getMLArray("added"));
+	}
+
+	@Test
+	public void testWritingKeepsOriginsCurrent() throws IOException {
+		File file = getTestFile("cell.mat");
+		byte[] original = readBytes(file);
+		MatFileReader reader = new MatFileReader();
+		reader.setRetainOrigins(true);
+		Map<String, MLArray> content = reader.read(file, new MatFileFilter(), MatFileReader.MEMORY_MAPPED_FILE);
+
+		// writing chars and cells, even nested in structures, doesn't count as modifying them
+		MatFileIncrementalWriter incremental = new MatFileIncrementalWriter(getTempFile("cellincremental.mat"));
+		incremental.write(content.values());
+		incremental.close();
+		File first = getTempFile("cellfirst.mat");
+		new MatFileWriter(first, content.values());
+		for (MLArray array : content.values()) {
+			assertTrue(array.getOrigin().isCurrent(array));
+		}
+
+		// so the second write still copies the original bytes
+		File second = getTempFile("cellsecond.mat");
+		new MatFileWriter(second, content.values());
+		byte[] copied = readBytes(second);
+		assertEquals(original.length, copied.length);
+		assertTrue(Arrays.equals(Arrays.copyOfRange(original, 124, original.length), Arrays.copyOfRange(copied, 124, copied.length)));
+
+		// overwriting the origins goes through a temporary file, whatever the length of the name
+		File shortName = getTempFile("c");
+		new MatFileWriter(shortName, Arrays.<MLArray> asList(new MLChar("s", "short")));
+		reader = new MatFileReader();
+		reader.setRetainOrigins(true);
+		content = reader.read(shortName, new MatFileFilter(), MatFileReader.MEMORY_MAPPED_FILE);
+		new MatFileWriter(shortName, content.values());
+		assertEquals("short", ((MLChar) new MatFileReader(shortName).getMLArray("s")).getString(0));
+	}
+
+	@Test
+	public void testModificationStamp() throws IOException {
+		MatFileReader reader = new MatFileReader();
+		reader.setRetainOrigins(true);
+		reader.read(MatIOTest.class.getResourceAsStream("/cell.mat"));
+		MLStructure struct = (MLStructure) reader.getMLArray("cel");
+		assertTrue(struct.getOrigin().getFile() == null);
+		assertTrue(struct.getOrigin().isCurrent(struct));
+
+		struct.name = "renamed";
+		Assert.assertFalse(struct.getOrigin().isCurrent(struct));
+		struct.name = "cel";
+		assertTrue(struct.getOrigin().isCurrent(struct));
+
+		// modifying a field modifies the structure
+		MLArray field = struct.getAllFields().iterator().next();
+		field.getDimensions();
+		assertTrue(struct.getOrigin().isCurrent(struct));
+		if (field instanceof MLNumericArray) {
+			((MLNumericArray<?>) field).getRealByteBuffer();
+		} else if (field instanceof MLChar) {
+			((MLChar) field).exportChar();
+		} else if (field instanceof MLCell) {
+			((MLCell) field).cells();
+		} else {
+			((MLStructure) field).getFields(0);
+		}
+		Assert.assertFalse(struct.getOrigin().isCurrent(struct));
+	}
+
+	private static byte[] readBytes(File file) throws IOException {
+		byte[] bytes = new byte[(int) file.length()];
+		java.io.DataInputStream input = new java.io.DataInputStream(new java.io.FileInputStream(file));
+		try {
+			input.readFully(bytes);
+		} finally {
+			input.close();
+		}
+		return bytes;
+	}
+
+	@Test
+	public void testIncrementalAppendLittleEndian() throws IOException {
+		File file = getTestFile("cell.mat");
+		Map<String, MLArray> before = new MatFileReader(file).getContent();
+
+		MLDouble complex = new MLDouble("complex", new int[]{3, 1}, MLArray.mxDOUBLE_CLASS, MLArray.mtFLAG_COMPLEX);
+		complex.set(1.5, 0);
+		complex.setImaginary(-8.5, 2);
+		MLCell cell = new MLCell("cellAppended", new int[]{1, 2});
+		cell.set(new MLInt64("", new long[]{1, -2, 3}, 1), 0);
+		MLStructure struct = new MLStructure("", new int[]{1, 1});
+		struct.setField("f", new MLChar("", "field"));
+		cell.set(struct, 1);
+
+		MatFileIncrementalWriter writer = new MatFileIncrementalWriter(file, true);
+		writer.write(complex);
+		writer.write(cell);
+		writer.close();
+
+		MatFileReader mfr = new MatFileReader(file);
+		assertEquals(ByteOrder.LITTLE_ENDIAN, mfr.getMatFileHeader().getByteOrder());
+		for (Map.Entry<String, MLArray> entry : before.entrySet()) {
+			assertEquals(entry.getValue().contentToString(), mfr.getMLArray(entry.getKey()).contentToString());
+		}
+		assertEquals(complex, mfr.getMLArray("complex"));
+		MLCell readCell = (MLCell) mfr.getMLArray("cellAppended");
+		assertEquals(cell.get(0), readCell.get(0));
+		assertEquals("field", ((MLChar) ((MLStructure) readCell.get(1)).getField("f")).getString(0));
+	}
+
+	@Test
+	public void testReadFromChannelAndBuffer() throws Exception {
+		File file = getTestFile("cell.mat");
+		Map<String, MLArray> expected = new MatFileReader(file).getContent();
+
+		RandomAccessFile raFile = new RandomAccessFile(file, "r");
+		try {
+			assertContent(expected, new MatFileReader().read(raFile.getChannel(), new MatFileFilter()));
+			assertEquals(0, raFile.getChannel().position());
+		} finally {
+			raFile.close();
+		}
+
+		// a caller-owned buffer which holds the file after some other bytes
+		byte[] bytes = readBytes(file);
+		ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length + 13);
+		buffer.position(13);
+		buffer.put(bytes);
+		buffer.position(13);
+		assertContent(expected, new MatFileReader().read(buffer, new MatFileFilter()));
+		assertEquals(13, buffer.position());
+		assertEquals(ByteOrder.BIG_ENDIAN, buffer.order());
+		assertEquals(bytes[0], buffer.get(13));
+
+		// SeekableByteChannel is only available since Java 7
+		Class<?> paths;
+		try {
+			paths = Class.forName("java.nio.file.Paths");
+		} catch (ClassNotFoundException e) {
+			return;
+		}
+		Object path = paths.getMethod("get", String.class, String[].class).invoke(null, file.getPath(), new String[0]);
+		Class<?> files = Class.forName("java.nio.file.Files");
+		Class<?> openOptions = Class.forName("[Ljava.nio.file.OpenOption;");
+		ByteChannel channel = (ByteChannel) files.getMethod("newByteChannel", Class.forName("java.nio.file.Path"), openOptions)
+				.invoke(null, path, java.lang.reflect.Array.newInstance(openOptions.getComponentType(), 0));
+		try {
+			assertContent(expected, MatFile.readFull(channel).getContent());
+		} finally {
+			channel.close();
+		}
+	}
+
+	@Test
+	public void testIterator() throws IOException {
+		File file = getTestFile("cell.mat");
+		Map<String, MLArray> expected = new MatFileReader(file).getContent();
+		Map<String, MLArray> actual = new LinkedHashMap<String, MLArray>();
+		MatFileIterator iterator = new MatFileReader().iterator(file, new MatFileFilter());
+		try {
+			while (iterator.hasNext()) {
+				MLArray array = iterator.next();
+				actual.put(array.getName(), array);
+			}
+		} finally {
+			iterator.close();
+		}
+		assertContent(expected, actual);
+
+		List<MLArray> arrays = Arrays.<MLArray> asList(new MLDouble("a", new double[]{1.0, 2.0}, 1), new MLChar("b", "text"), new MLDouble("c", new double[]{3.0}, 1));
+		File written = temp.newFile("iterated.mat");
+		new MatFileWriter(written, arrays);
+		RandomAccessFile raFile = new RandomAccessFile(written, "r");
+		try {
+			iterator = new MatFileReader().iterator(raFile.getChannel(), new MatFileFilter(new String[]{"a", "c"}));
+			assertEquals(arrays.get(0), iterator.next());
+			assertEquals(arrays.get(2), iterator.next());
+			assertFalse(iterator.hasNext());
+		} finally {
+			raFile.close();
+		}
+	}
+
+	@Test
+	public void testIteratorReadAhead() throws IOException {
+		List<MLArray> arrays = new ArrayList<MLArray>();
+		for (int i = 0; i < 30; i++) {
+			double[] values = new double[500 * (i % 4 + 1)];
+			Arrays.fill(values, i);
+			arrays.add(new MLDouble("a" + i, values, 1));
+		}
+		File file = temp.newFile("readahead.mat");
+		new MatFileWriter(file, arrays);
+
+		// a budget smaller than a single array still reads one ahead
+		for (long maxBytes : new long[]{1, 1 << 20}) {
+			MatFileIterator iterator = new MatFileReader().iterator(file, new MatFileFilter()).setReadAhead(3, maxBytes);
+			try {
+				for (MLArray array : arrays) {
+					assertEquals(array, iterator.next());
+				}
+				assertFalse(iterator.hasNext());
+			} finally {
+				iterator.close();
+			}
+		}
+
+		// closing early stops the thread
+		MatFileIterator iterator = new MatFileReader().iterator(file, new MatFileFilter()).setReadAhead(2, Long.MAX_VALUE);
+		assertEquals(arrays.get(0), iterator.next());
+		iterator.close();
+		try {
+			iterator.hasNext();
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			assertEquals("The iterator is closed.", e.getMessage());
+		}
+
+		// closing before the first read doesn't start the thread
+		iterator = new MatFileReader().iterator(file, new MatFileFilter()).setReadAhead(2, Long.MAX_VALUE);
+		iterator.close();
+		try {
+			iterator.next();
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			assertEquals("The iterator is closed.", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testStorageAllocators() throws IOException {
+		MLDouble complex = new MLDouble("c", new int[]{100, 10}, MLArray.mxDOUBLE_CLASS, MLArray.mtFLAG_COMPLEX);
+		for (int i = 0; i < complex.getSize(); i++) {
+			complex.set(i * 0.5, i);
+			complex.setImaginary(-i * 0.5, i);
+		}
+		MLCell cell = new MLCell("cell", new int[]{1, 2});
+		cell.set(new MLInt32("i", new int[]{1, 2, 3}, 1), 0);
+		cell.set(new MLUInt8("u", new byte[]{4, 5}, 1), 1);
+		File file = temp.newFile("allocators.mat");
+		new MatFileWriter(file, Arrays.<MLArray> asList(complex, cell));
+
+		MatFileReader reader = new MatFileReader();
+		reader.setStorageAllocator(StorageAllocator.DIRECT);
+		Map<String, MLArray> content = reader.read(file, MatFileReader.HEAP_BYTE_BUFFER);
+		assertEquals(complex, content.get("c"));
+		assertTrue(((MLDouble) content.get("c")).getRealView().isDirect());
+
+		// closing the content gives its storage back to the pool, for the next read
+		PooledStorageAllocator pool = new PooledStorageAllocator(true, 1 << 20);
+		reader.setStorageAllocator(pool);
+		for (int pass = 0; pass < 3; pass++) {
+			content = reader.read(file, MatFileReader.HEAP_BYTE_BUFFER);
+			assertEquals(complex, content.get("c"));
+			assertEquals(cell.contentToString(), content.get("cell").contentToString());
+			assertEquals(0, pool.getRetainedBytes());
+			for (MLArray array : content.values()) {
+				array.close();
+			}
+			assertEquals(2 * 8192 + 16 + 2, pool.getRetainedBytes());
+		}
+
+		ArenaStorageAllocator arena = new ArenaStorageAllocator(ByteBuffer.allocateDirect(1 << 16));
+		reader.setStorageAllocator(arena);
+		assertEquals(complex, reader.read(file, MatFileReader.HEAP_BYTE_BUFFER).get("c"));
+		// the bytes of the last array start at a multiple of 8
+		assertEquals(2 * 8000 + 12 + 4 + 2, arena.getUsedBytes());
+		arena.reset();
+		assertEquals(complex, reader.read(file, MatFileReader.HEAP_BYTE_BUFFER).get("c"));
+	}
+
+	@Test
+	public void testSpillingStorageAllocator() throws IOException {
+		MLDouble large = new MLDouble("large", new int[]{1000, 100}, MLArray.mxDOUBLE_CLASS, MLArray.mtFLAG_COMPLEX);
+		for (int i = 0; i < large.getSize(); i++) {
+			large.set(Math.sqrt(i), i);
+			large.setImaginary(-i * 0.25, i);
+		}
+		MLInt8 small = new MLInt8("small", new byte[]{1, 2, 3}, 1);
+		File file = temp.newFile("spill.mat");
+		new MatFileWriter(file, Arrays.<MLArray> asList(large, small));
+
+		File directory = temp.newFolder("spill");
+		SpillingStorageAllocator spill = new SpillingStorageAllocator(1 << 16, directory);
+		MatFileReader reader = new MatFileReader();
+		reader.setStorageAllocator(spill);
+		Map<String, MLArray> content = reader.read(file, MatFileReader.HEAP_BYTE_BUFFER);
+		assertEquals(large, content.get("large"));
+		assertEquals(small, content.get("small"));
+		assertEquals(2 * 800000, spill.getSpilledBytes());
+		assertEquals(2, directory.listFiles().length);
+
+		MLDouble spilled = (MLDouble) content.get("large");
+		spilled.setDouble(42.0, 999, 99);
+		assertEquals(42.0, spilled.get(999, 99), 0.0);
+		spilled.close();
+		assertEquals(0, spill.getSpilledBytes());
+		assertEquals(0, directory.listFiles().length);
+
+		reader.read(file, MatFileReader.HEAP_BYTE_BUFFER);
+		assertEquals(2, spill.getSpilledFiles().size());
+		spill.close();
+		assertEquals(0, directory.listFiles().length);
+	}
+
+	@Test
+	public void testSpillingBeyondMemoryLimit() throws IOException {
+		MLDouble large = new MLDouble("large", new int[]{1000, 1000});
+		for (int i = 0; i < large.getSize(); i++) {
+			large.setDouble(Math.sin(i * 0.001), i);
+		}
+		File file = temp.newFile("beyond.mat");
+		new MatFileWriter(file, Arrays.<MLArray> asList(large, new MLChar("text", "after")));
+
+		// the compressed variable is inflated straight into the spilled storage
+		SpillingStorageAllocator spill = new SpillingStorageAllocator(1 << 16, temp.newFolder("beyond"));
+		MatFileReader reader = new MatFileReader();
+		reader.setStorageAllocator(spill);
+		reader.setMemoryLimit(1 << 20);
+		RandomAccessFile raFile = new RandomAccessFile(file, "r");
+		try {
+			Map<String, MLArray> content = reader.read(raFile.getChannel(), new MatFileFilter());
+			assertEquals(large, content.get("large"));
+			assertEquals("after", ((MLChar) content.get("text")).getString(0));
+			assertEquals(8000000, spill.getSpilledBytes());
+
+			reader.setStorageAllocator(StorageAllocator.HEAP);
+			try {
+				reader.read(raFile.getChannel(), new MatFileFilter());
+				Assert.fail();
+			} catch (MatFileBudgetException e) {
+				// on the heap, the same variable exceeds the limit
+			}
+		} finally {
+			raFile.close();
+			spill.close();
+		}
+	}
+
+	@Test
+	public void testConversions() throws IOException {
+		MLInt16 counts = new MLInt16("counts", new short[]{-32768, -3, 0, 7, 32767}, 1);
+		MLDouble signal = new MLDouble("signal", new int[]{1, 3}, MLArray.mxDOUBLE_CLASS, MLArray.mtFLAG_COMPLEX);
+		signal.set(1.5, 0);
+		signal.set(-2.5, 1);
+		signal.set(1e300, 2);
+		signal.setImaginary(0.25, 0);
+		MLUInt64 large = new MLUInt64("large", new long[]{-1L, 5L}, 1);
+		MLDouble huge = new MLDouble("huge", new double[]{1e19, -1e19, 5}, 1);
+		File file = temp.newFile("convert.mat");
+		new MatFileWriter(file, Arrays.<MLArray> asList(counts, signal, large, huge));
+
+		MatFileReader reader = new MatFileReader();
+		reader.setConversion("counts", MatFileConversion.scaled(MLArray.mxDOUBLE_CLASS, 0.5, 100));
+		reader.setConversion("signal", MatFileConversion.to(MLArray.mxINT8_CLASS));
+		reader.setConversion("large", MatFileConversion.to(MLArray.mxDOUBLE_CLASS));
+		reader.setConversion("huge", MatFileConversion.to(MLArray.mxINT64_CLASS));
+		Map<String, MLArray> content = reader.read(file, MatFileReader.HEAP_BYTE_BUFFER);
+
+		MLDouble scaled = (MLDouble) content.get("counts");
+		assertEquals(MLArray.mxDOUBLE_CLASS, scaled.getType());
+		assertTrue(Arrays.equals(new double[]{-16284, 98.5, 100, 103.5, 16483.5}, scaled.getColumnPackedCopy()));
+
+		// rounded half away from zero, and saturated
+		MLInt8 narrowed = (MLInt8) content.get("signal");
+		assertTrue(narrowed.isComplex());
+		assertTrue(Arrays.equals(new byte[]{2, -3, 127}, narrowed.getColumnPackedCopy()));
+		assertEquals(0, narrowed.getImaginaryByte(0));
+
+		assertEquals(0x1p64, ((MLDouble) content.get("large")).getDouble(0), 0.0);
+		assertEquals(5.0, ((MLDouble) content.get("large")).getDouble(1), 0.0);
+
+		// int64 saturates beyond +-2^63
+		assertTrue(Arrays.equals(new long[]{Long.MAX_VALUE, Long.MIN_VALUE, 5}, ((MLInt64) content.get("huge")).getColumnPackedCopy()));
+
+		// uint32 values are read unsigned, which MatFileWriter can't write yet
+		ByteBuffer words = ByteBuffer.allocate(8);
+		words.putInt(0, (int) 3000000000L).putInt(4, 7);
+		MLDouble unsigned = new MLDouble("unsigned", new int[]{1, 2});
+		new MatFileInputStream(words, MatDataTypes.miUINT32).readToByteBuffer(unsigned.getRealByteBuffer(), 2, unsigned, 1, 0,
+				Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, false);
+		assertTrue(Arrays.equals(new double[]{3000000000.0, 7}, unsigned.getColumnPackedCopy()));
+
+		reader.setConversion("signal", null);
+		assertEquals(signal, reader.read(file, MatFileReader.HEAP_BYTE_BUFFER).get("signal"));
+		try {
+			MatFileConversion.to(MLArray.mxCELL_CLASS);
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+			// not numeric
+		}
+	}
+
+	@Test
+	public void testReadInto() throws IOException {
+		MatFileReader reader = new MatFileReader();
+		reader.setConversion("counts", MatFileConversion.scaled(MLArray.mxDOUBLE_CLASS, 2, 0));
+		MLDouble signal = new MLDouble("signal", new int[]{100, 2}, MLArray.mxDOUBLE_CLASS, MLArray.mtFLAG_COMPLEX);
+		MLDouble counts = new MLDouble("counts", new int[]{1, 3});
+		Map<String, MLNumericArray<?>> targets = new LinkedHashMap<String, MLNumericArray<?>>();
+		targets.put("signal", signal);
+		targets.put("counts", counts);
+
+		for (int pass = 0; pass < 3; pass++) {
+			MLDouble written = new MLDouble("signal", new int[]{100, 2}, MLArray.mxDOUBLE_CLASS, MLArray.mtFLAG_COMPLEX);
+			for (int i = 0; i < written.getSize(); i++) {
+				written.set(pass * 1000.0 + i, i);
+				written.setImaginary((double) -i, i);
+			}
+			List<MLArray> arrays = Arrays.<MLArray> asList(new MLChar("skipped", "text"), written, new MLInt16("counts", new short[]{1, 2, (short) pass}, 1));
+			File file = temp.newFile("into" + pass + ".mat");
+			if (pass == 1) {
+				new MatFileWriter().write(file, arrays, MatFileWriter.GATHERING_WRITE);
+			} else {
+				new MatFileWriter(file, arrays);
+			}
+			reader.readInto(file, targets);
+			assertEquals(written, signal);
+			assertTrue(Arrays.equals(new double[]{2, 4, 2 * pass}, counts.getColumnPackedCopy()));
+		}
+
+		// a mismatch fails before the matching variables are decoded
+		double[] before = signal.getColumnPackedCopy();
+		File file = temp.newFile("mismatch.mat");
+		new MatFileWriter(file, Arrays.<MLArray> asList(new MLDouble("signal", new int[]{100, 2}, MLArray.mxDOUBLE_CLASS, MLArray.mtFLAG_COMPLEX), new MLInt16("counts", new short[]{1, 2}, 1)));
+		try {
+			reader.readInto(file, targets);
+			Assert.fail();
+		} catch (MatlabIOException e) {
+			assertTrue(e.getMessage().contains("counts"));
+		}
+		assertTrue(Arrays.equals(before, signal.getColumnPackedCopy()));
+
+		// so does a frozen target
+		MLDouble frozen = new MLDouble("counts", new int[]{1, 3});
+		frozen.freeze();
+		targets.put("counts", frozen);
+		try {
+			reader.readInto(new File(temp.getRoot(), "into0.mat"), targets);
+			Assert.fail();
+		} catch (MatlabIOException e) {
+			assertTrue(e.getMessage().contains("frozen"));
+		}
+		assertTrue(Arrays.equals(before, signal.getColumnPackedCopy()));
+		targets.put("counts", counts);
+
+		// the scratch buffers count against the memory limit
+		reader.setMemoryLimit(1000);
+		try {
+			reader.readInto(new File(temp.getRoot(), "into0.mat"), targets);
+			Assert.fail();
+		} catch (MatFileBudgetException e) {
+			assertTrue(e.getMessage().contains("exceeds the memory limit"));
+		}
+		reader.setMemoryLimit(Long.MAX_VALUE);
+		targets.remove("counts");
+		targets.put("missing", counts);
+		try {
+			reader.readInto(new File(temp.getRoot(), "into0.mat"), targets);
+			Assert.fail();
+		} catch (MatlabIOException e) {
+			assertTrue(e.getMessage().contains("missing"));
+		}
+	}
+
+	@Test
+	public void testMemoryLimit() throws IOException {
+		MLDouble small = new MLDouble("a", new double[]{1.0, 2.0, 3.0}, 1);
+		// compresses to a few hundred bytes, but inflates to 800 KB
+		MLDouble large = new MLDouble("b", new double[100000], 1);
+		File file = temp.newFile("budget.mat");
+		new MatFileWriter(file, Arrays.<MLArray> asList(small, large));
+
+		MatFileReader reader = new MatFileReader();
+		reader.setMemoryLimit(100000);
+		try {
+			reader.read(file, MatFileReader.HEAP_BYTE_BUFFER);
+			Assert.fail();
+		} catch (MatFileBudgetException e) {
+			// expected
+		}
+		reader.setSkipOversized(true);
+		Map<String, MLArray> content = reader.read(file, MatFileReader.HEAP_BYTE_BUFFER);
+		assertEquals(1, content.size());
+		assertEquals(small, content.get("a"));
+
+		// the inflated element and the array both count, and are released after each read
+		MemoryBudget budget = new MemoryBudget(2 << 20);
+		reader = new MatFileReader();
+		reader.setMemoryBudget(budget);
+		assertEquals(large, reader.read(file, MatFileReader.HEAP_BYTE_BUFFER).get("b"));
+		assertEquals(0, budget.getReservedBytes());
+		MatFileIterator iterator = reader.iterator(file, new MatFileFilter());
+		try {
+			assertEquals(small, iterator.next());
+			assertEquals(large, iterator.next());
+		} finally {
+			iterator.close();
+		}
+		assertEquals(0, budget.getReservedBytes());
+
+		// reading the whole file into a buffer counts as well
+		reader = new MatFileReader();
+		reader.setMemoryLimit(file.length() - 1);
+		for (int policy : new int[]{MatFileReader.HEAP_BYTE_BUFFER, MatFileReader.DIRECT_BYTE_BUFFER}) {
+			try {
+				reader.read(file, policy);
+				Assert.fail();
+			} catch (MatFileBudgetException e) {
+				assertTrue(e.getMessage().contains("a file of " + file.length() + " bytes"));
+			}
+		}
+		budget = new MemoryBudget(file.length() + (2 << 20));
+		reader = new MatFileReader();
+		reader.setMemoryBudget(budget);
+		assertEquals(large, reader.read(file, MatFileReader.DIRECT_BYTE_BUFFER).get("b"));
+		assertEquals(0, budget.getReservedBytes());
+
+		// cells are inflated whole, and the grown buffer is released after each read
+		MLCell cell = new MLCell("c", new int[]{1, 1});
+		cell.set(large, 0);
+		File cells = temp.newFile("budgetcell.mat");
+		new MatFileWriter(cells, Arrays.<MLArray> asList(cell));
+		assertEquals(large, ((MLCell) reader.read(cells, MatFileReader.HEAP_BYTE_BUFFER).get("c")).get(0));
+		assertEquals(0, budget.getReservedBytes());
+
+		// dimensions which declare 16 GB are rejected before allocating anything
+		File forged = temp.newFile("forged.mat");
+		new MatFileWriter().write(forged, Arrays.<MLArray> asList(small), MatFileWriter.GATHERING_WRITE);
+		RandomAccessFile raFile = new RandomAccessFile(forged, "rw");
+		raFile.seek(160);
+		assertEquals(1, raFile.readInt());
+		raFile.seek(160);
+		raFile.writeInt(Integer.MAX_VALUE / 2);
+		raFile.close();
+		reader = new MatFileReader();
+		reader.setMemoryLimit(1 << 20);
+		try {
+			reader.read(forged, MatFileReader.HEAP_BYTE_BUFFER);
+			Assert.fail();
+		} catch (MatFileBudgetException e) {
+			assertTrue(e.getMessage().contains("exceeds the memory limit"));
+		}
+	}
+
+	/** Records the last progress, and cancels once <code>cancelAt</code> variables or coded bytes are reached. */
+	private static class RecordingListener implements MatFileProgressListener {
+		long fileBytes, codedBytes;
+		int variables, calls;
+		int cancelAtVariables = Integer.MAX_VALUE;
+		long cancelAtCodedBytes = Long.MAX_VALUE;
+
+		@Override
+		public void progress(long fileBytes, long codedBytes, int variables) {
+			assertTrue(fileBytes >= this.fileBytes && codedBytes >= this.codedBytes && variables >= this.variables);
+			this.fileBytes = fileBytes;
+			this.codedBytes = codedBytes;
+			this.variables = variables;
+			calls++;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return variables >= cancelAtVariables || codedBytes >= cancelAtCodedBytes;
+		}
+	}
+
+	@Test
+	public void testProgressAndCancellation() throws IOException {
+		List<MLArray> arrays = new ArrayList<MLArray>();
+		for (int i = 0; i < 5; i++) {
+			double[] values = new double[100000];
+			for (int j = 0; j < values.length; j++) {
+				values[j] = Math.sin(i + j);
+			}
+			arrays.add(new MLDouble("a" + i, values, 1));
+		}
+		File file = temp.newFile("progress.mat");
+		RecordingListener listener = new RecordingListener();
+		MatFileWriter writer = new MatFileWriter();
+		writer.setProgressListener(listener);
+		writer.write(file, arrays);
+		assertEquals(5, listener.variables);
+		assertEquals(file.length(), listener.fileBytes);
+		assertTrue(listener.codedBytes > 5 * 800000);
+		assertTrue(listener.calls > 5 * 800000 / MatFileProgress.INTERVAL);
+
+		listener = new RecordingListener();
+		MatFileReader reader = new MatFileReader();
+		reader.setProgressListener(listener);
+		reader.read(file, MatFileReader.HEAP_BYTE_BUFFER);
+		assertEquals(5, listener.variables);
+		assertEquals(file.length(), listener.fileBytes);
+		assertTrue(listener.codedBytes > 5 * 800000);
+
+		// between elements, and while inflating the first one
+		RecordingListener betweenElements = new RecordingListener();
+		betweenElements.cancelAtVariables = 2;
+		RecordingListener whileInflating = new RecordingListener();
+		whileInflating.cancelAtCodedBytes = 1;
+		for (RecordingListener cancelling : new RecordingListener[]{betweenElements, whileInflating}) {
+			reader.setProgressListener(cancelling);
+			try {
+				reader.read(file, MatFileReader.MEMORY_MAPPED_FILE);
+				Assert.fail();
+			} catch (MatFileCancelledException e) {
+				// expected
+			}
+		}
+		assertEquals(2, betweenElements.variables);
+		assertEquals(0, whileInflating.variables);
+
+		// a cancelled incremental write leaves the file valid
+		File incremental = temp.newFile("incremental.mat");
+		MatFileIncrementalWriter incrementalWriter = new MatFileIncrementalWriter(incremental);
+		RecordingListener cancelling = new RecordingListener();
+		cancelling.cancelAtVariables = 1;
+		incrementalWriter.setProgressListener(cancelling);
+		incrementalWriter.write(arrays.get(0));
+		try {
+			incrementalWriter.write(arrays.get(1));
+			Assert.fail();
+		} catch (MatFileCancelledException e) {
+			// expected
+		}
+		incrementalWriter.close();
+		Map<String, MLArray> content = new MatFileReader(incremental).getContent();
+		assertEquals(1, content.size());
+		assertEquals(arrays.get(0), content.get("a0"));
+	}
+
+	private static void assertContent(Map<String, MLArray> expected, Map<String, MLArray> actual) {
+		assertEquals(expected.keySet(), actual.keySet());
+		for (Map.Entry<String, MLArray> entry : expected.entrySet()) {
+			assertEquals(entry.getValue().contentToString(), actual.get(entry.getKey()).contentToString());
+		}
+	}
+
+	@Test
+	public void testUncompressedWritePolicies() throws IOException {
+		MLDouble complex = new MLDouble("complex", new int[]{3, 5}, MLArray.mxDOUBLE_CLASS, MLArray.mtFLAG_COMPLEX);
+		for (int i = 0; i < 15; i++) {
+			complex.set(i * 1.5, i);
+			complex.setImaginary(-i * 1.0, i);
+		}
+		MLInt8 odd = new MLInt8("odd", new byte[][]{{1, 2, 3}, {4, 5, 6}, {7, 8, 9}});
+		MLInt8 small = new MLInt8("small", new byte[][]{{-1, 2}});
+		MLDouble empty = new MLDouble("empty", new int[]{0, 0});
+		MLStructure struct = new MLStructure("struct", new int[]{1, 1});
+		struct.setField("f", new MLDouble("", new double[]{1.0, 2.0, 3.0}, 1));
+		List<MLArray> arrays = Arrays.<MLArray> asList(complex, odd, small, empty, new MLChar("char", "text"), struct);
+
+		File compressed = getTempFile("compressed.mat");
+		new MatFileWriter().write(compressed, arrays, MatFileWriter.COMPRESSED);
+		for (int policy : new int[]{MatFileWriter.MEMORY_MAPPED_FILE, MatFileWriter.GATHERING_WRITE}) {
+			File file = getTempFile("uncompressed" + policy + ".mat");
+			new MatFileWriter().write(file, arrays, policy);
+			assertEquals(file.length(), MatFileIndex.scan(file).getEndOffset());
+			assertTrue(file.length() > compressed.length());
+
+			MatFileReader reader = new MatFileReader(file);
+			assertEquals(arrays.size(), reader.getContent().size());
+			assertEquals(complex, reader.getMLArray("complex"));
+			assertEquals(odd, reader.getMLArray("odd"));
+			assertEquals(small, reader.getMLArray("small"));
+			assertEquals(empty, reader.getMLArray("empty"));
+			assertEquals("text", ((MLChar) reader.getMLArray("char")).getString(0));
+			assertEquals(struct.getField("f"), ((MLStructure) reader.getMLArray("struct")).getField("f"));
+		}
+	}
+
 	/**
 	 * 
 	 * <pre>
@@ -218,6 +218,25 @@ public class MatlabMCOSTest {
 		assertThat(((MLDouble) obj.getFields(3).get("test_text")).get(0), equalTo(4.0));
 	}
 
+	@Test
+	public void testIteratingMCOS() throws IOException {
+		File file = fileFromStream("/mcos/simplesingletext_multiple.mat");
+		Map<String, MLArray> content = new MatFileReader(file).getContent();
+		MatFileIterator iterator = new MatFileReader().iterator(file, new MatFileFilter());
+		try {
+			int count = 0;
+			while (iterator.hasNext()) {
+				MLObject obj = (MLObject) iterator.next();
+				assertThat(obj.getClassName(), equalTo("SimpleSingleText"));
+				assertThat(obj.contentToString(), equalTo(content.get(obj.getName()).contentToString()));
+				count++;
+			}
+			assertThat(count, equalTo(content.size()));
+		} finally {
+			iterator.close();
+		}
+	}
+
 	private File fileFromStream(String location) throws IOException {
 		String outname = location.replace("/", "_");
 		File f = folder.newFile(outname);
@@ -0,0 +1,246 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.jmatio.common.MatDataTypes;
+import com.jmatio.types.MLArray;
+import com.jmatio.types.MLDouble;
+import com.jmatio.types.MLInt8;
+
+public class RandomAccessMatFileTest {
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	private static double valueAt(int i) {
+		return Math.floor(Math.sin(i / 100.0) * 1000) + i % 7;
+	}
+
+	private MLDouble signal(int length) {
+		double[] values = new double[length];
+		for (int i = 0; i < length; i++) {
+			values[i] = valueAt(i);
+		}
+		return new MLDouble("signal", values, 1);
+	}
+
+	@Test
+	public void testInflaterResumesFromCheckpoints() throws IOException {
+		Random random = new Random(0);
+		byte[] data = new byte[300000];
+		for (int i = 0; i < data.length; i++) {
+			// a mix of incompressible and repetitive stretches
+			data[i] = (i / 20000) % 2 == 0 ? (byte) random.nextInt() : (byte) (i % 251 / 3);
+		}
+		int[][] settings = {{Deflater.NO_COMPRESSION, Deflater.DEFAULT_STRATEGY}, {Deflater.BEST_SPEED, Deflater.DEFAULT_STRATEGY},
+				{Deflater.BEST_COMPRESSION, Deflater.DEFAULT_STRATEGY}, {Deflater.DEFAULT_COMPRESSION, Deflater.HUFFMAN_ONLY}};
+		for (int[] setting : settings) {
+			Deflater deflater = new Deflater(setting[0]);
+			deflater.setStrategy(setting[1]);
+			deflater.setInput(data);
+			deflater.finish();
+			byte[] compressed = new byte[data.length * 2];
+			int length = 0;
+			while (!deflater.finished()) {
+				length += deflater.deflate(compressed, length, compressed.length - length);
+			}
+			deflater.end();
+			File file = temp.newFile();
+			FileOutputStream output = new FileOutputStream(file);
+			output.write(compressed, 0, length);
+			output.close();
+
+			RandomAccessFile raFile = new RandomAccessFile(file, "r");
+			try {
+				List<InflateCheckpoint> checkpoints = new ArrayList<InflateCheckpoint>();
+				ResumableInflater inflater = new ResumableInflater(raFile.getChannel(), 0, length);
+				inflater.recordCheckpoints(checkpoints, 10000, 10000);
+				assertTrue(Arrays.equals(data, inflateAll(inflater)));
+				assertTrue(checkpoints.size() > 1);
+
+				for (InflateCheckpoint checkpoint : checkpoints) {
+					inflater = new ResumableInflater(raFile.getChannel(), 0, length, checkpoint);
+					int from = (int) checkpoint.getOutputOffset();
+					assertTrue(Arrays.equals(Arrays.copyOfRange(data, from, data.length), inflateAll(inflater)));
+				}
+			} finally {
+				raFile.close();
+			}
+		}
+	}
+
+	private static byte[] inflateAll(ResumableInflater inflater) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(1000000);
+		while (inflater.read(buf) >= 0) {}
+		return Arrays.copyOf(buf.array(), buf.position());
+	}
+
+	@Test
+	public void testReadWindows() throws IOException {
+		MLDouble signal = signal(200000);
+		File compressed = temp.newFile("compressed.mat");
+		new MatFileWriter(compressed, Arrays.<MLArray> asList(signal));
+		File uncompressed = temp.newFile("uncompressed.mat");
+		new MatFileWriter().write(uncompressed, Arrays.<MLArray> asList(signal), MatFileWriter.GATHERING_WRITE);
+
+		for (File file : new File[]{compressed, uncompressed}) {
+			RandomAccessMatFile raFile = new RandomAccessMatFile(file);
+			try {
+				raFile.setCheckpointSpan(1 << 16);
+				assertEquals(MatDataTypes.miDOUBLE, raFile.getDataType("signal"));
+				assertEquals(200000, raFile.getLength("signal"));
+				if (file == compressed) {
+					assertTrue(raFile.buildCheckpoints("signal") > 5);
+				}
+				for (int first : new int[]{199000, 0, 123456, 65536 / 8 - 3}) {
+					DoubleBuffer window = raFile.readReal("signal", first, 1000).asDoubleBuffer();
+					for (int i = 0; i < 1000; i++) {
+						assertEquals(valueAt(first + i), window.get(i), 0.0);
+					}
+				}
+			} finally {
+				raFile.close();
+			}
+		}
+	}
+
+	@Test
+	public void testHyperslab() throws IOException {
+		MLDouble cube = new MLDouble("cube", new int[]{40, 30, 20}, MLArray.mxDOUBLE_CLASS, MLArray.mtFLAG_COMPLEX);
+		for (int i = 0; i < cube.getSize(); i++) {
+			cube.set((double) i, i);
+			cube.setImaginary(-i / 2.0, i);
+		}
+		MLInt8 bytes = new MLInt8("bytes", new int[]{1, 300});
+		for (int i = 0; i < 300; i++) {
+			bytes.set((byte) i, i);
+		}
+		List<MLArray> arrays = Arrays.<MLArray> asList(cube, bytes, signal(200000));
+		File compressed = temp.newFile("compressed.mat");
+		new MatFileWriter(compressed, arrays);
+		File uncompressed = temp.newFile("uncompressed.mat");
+		new MatFileWriter().write(uncompressed, arrays, MatFileWriter.MEMORY_MAPPED_FILE);
+
+		int[] start = {3, 1, 2};
+		int[] count = {5, 4, 3};
+		int[] stride = {7, 9, 6};
+		for (File file : new File[]{compressed, uncompressed}) {
+			RandomAccessMatFile raFile = new RandomAccessMatFile(file);
+			try {
+				raFile.setCheckpointSpan(1 << 14);
+				MLDouble slab = (MLDouble) raFile.readHyperslab("cube", start, count, stride);
+				assertTrue(Arrays.equals(count, slab.getDimensions()));
+				for (int i = 0; i < count[0]; i++) {
+					for (int j = 0; j < count[1]; j++) {
+						for (int k = 0; k < count[2]; k++) {
+							int source = cube.getIndex(start[0] + i * stride[0], start[1] + j * stride[1], start[2] + k * stride[2]);
+							int target = slab.getIndex(i, j, k);
+							assertEquals(cube.getReal(source), slab.getReal(target));
+							assertEquals(cube.getImaginary(source), slab.getImaginary(target));
+						}
+					}
+				}
+
+				MLInt8 everyThird = (MLInt8) raFile.readHyperslab("bytes", new int[]{0, 1}, new int[]{1, 100}, new int[]{1, 3});
+				for (int i = 0; i < 100; i++) {
+					assertEquals((byte) (1 + 3 * i), (byte) everyThird.get(i));
+				}
+
+				// decimation far apart, and across checkpoints on the second pass
+				for (int pass = 0; pass < 2; pass++) {
+					MLDouble decimated = (MLDouble) raFile.readHyperslab("signal", new int[]{0, 5}, new int[]{1, 200}, new int[]{1, 1000});
+					for (int i = 0; i < 200; i++) {
+						assertEquals(valueAt(5 + 1000 * i), decimated.get(i), 0.0);
+					}
+				}
+			} finally {
+				raFile.close();
+			}
+		}
+	}
+
+	@Test
+	public void testSidecar() throws IOException {
+		MLDouble signal = signal(100000);
+		MLDouble other = new MLDouble("other", new double[]{1.0, 2.0}, 1);
+		File file = temp.newFile("sidecar.mat");
+		new MatFileWriter(file, Arrays.<MLArray> asList(other, signal));
+		MatFileIndex scanned = MatFileIndex.scan(file);
+		assertNull(MatFileSidecar.read(file, null));
+
+		RandomAccessMatFile raFile = new RandomAccessMatFile(file);
+		raFile.setCheckpointSpan(1 << 16);
+		int checkpoints = raFile.buildCheckpoints("signal");
+		raFile.writeSidecar();
+		raFile.close();
+
+		Map<Long, List<InflateCheckpoint>> loaded = new HashMap<Long, List<InflateCheckpoint>>();
+		MatFileIndex index = MatFileSidecar.read(file, loaded);
+		assertEquals(scanned.getEntries().toString(), index.getEntries().toString());
+		assertEquals(8 + 100000 * 8 + 8 + 48, index.getEntry("signal").getUncompressedLength());
+		assertEquals(checkpoints, loaded.get(index.getEntry("signal").getOffset()).size());
+		raFile = new RandomAccessMatFile(file);
+		try {
+			assertEquals(valueAt(99999), raFile.readReal("signal", 99999, 1).getDouble(), 0.0);
+		} finally {
+			raFile.close();
+		}
+
+		// a filtered read only inflates the selected variables
+		MatFileReader reader = new MatFileReader(file, new MatFileFilter(new String[]{"other"}));
+		assertEquals(1, reader.getContent().size());
+		assertEquals(other, reader.getMLArray("other"));
+
+		// a stale sidecar is ignored
+		new MatFileEditor(file).delete("other").commit();
+		assertNull(MatFileSidecar.read(file, null));
+		assertEquals(Arrays.asList("signal"), Arrays.asList(MatFileIndex.open(file).getNames().toArray()));
+		assertEquals(signal, new MatFileReader(file, new MatFileFilter(new String[]{"signal"})).getMLArray("signal"));
+	}
+
+	@Test
+	public void testComplexAndSmallArrays() throws IOException {
+		MLDouble complex = new MLDouble("complex", new int[]{2, 3}, MLArray.mxDOUBLE_CLASS, MLArray.mtFLAG_COMPLEX);
+		for (int i = 0; i < 6; i++) {
+			complex.set(i + 0.5, i);
+			complex.setImaginary(-i - 0.25, i);
+		}
+		MLInt8 small = new MLInt8("small", new byte[][]{{-1, 2, 3}});
+		File file = temp.newFile("complex.mat");
+		new MatFileWriter(file, Arrays.<MLArray> asList(complex, small));
+
+		RandomAccessMatFile raFile = new RandomAccessMatFile(file);
+		try {
+			assertEquals(-4.25, raFile.readImaginary("complex", 4, 2).getDouble(), 0.0);
+			assertEquals(5.5, raFile.readReal("complex", 5, 1).getDouble(), 0.0);
+			assertEquals(MatDataTypes.miINT8, raFile.getDataType("small"));
+			assertEquals(3, raFile.readReal("small", 2, 1).get());
+		} finally {
+			raFile.close();
+		}
+	}
+}
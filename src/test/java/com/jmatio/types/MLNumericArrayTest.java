@@ -5,6 +5,17 @@
  */
 package com.jmatio.types;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -23,4 +34,366 @@ public class MLNumericArrayTest {
 			}
 		}
 	}
+
+	@Test
+	public void testTypedViewsAndPackedCopies() {
+		int[] dims = new int[]{2, 3, 4};
+		MLDouble cube = new MLDouble("cube", dims, MLArray.mxDOUBLE_CLASS, MLArray.mtFLAG_COMPLEX);
+		for (int i = 0; i < cube.getSize(); i++) {
+			cube.set(i * 1.5, i);
+			cube.setImaginary(-i * 1.0, i);
+		}
+		long stamp = cube.getModificationStamp();
+
+		DoubleBuffer real = cube.getRealDoubleBuffer();
+		Assert.assertEquals(cube.getSize(), real.remaining());
+		Assert.assertEquals(7.5, real.get(5), 0.0);
+		Assert.assertEquals(-5.0, cube.getImaginaryDoubleBuffer().get(5), 0.0);
+		try {
+			real.put(0, 1.0);
+			Assert.fail();
+		} catch (ReadOnlyBufferException e) {
+			// expected
+		}
+
+		double[] copy = new double[cube.getSize() + 1];
+		cube.copyImaginaryTo(copy, 1);
+		Assert.assertEquals(-23.0, copy[24], 0.0);
+		Assert.assertEquals(33.0, cube.getColumnPackedCopy()[22], 0.0);
+
+		double[] rows = cube.getRowPackedCopy();
+		int i = 0;
+		for (int m = 0; m < dims[0]; m++) {
+			for (int n = 0; n < dims[1]; n++) {
+				for (int p = 0; p < dims[2]; p++) {
+					Assert.assertEquals(cube.get(m, n, p), rows[i++], 0.0);
+				}
+			}
+		}
+		Assert.assertEquals(stamp, cube.getModificationStamp());
+
+		MLInt8 bytes = new MLInt8("bytes", new byte[][]{{1, 2, 3}, {4, 5, 6}});
+		Assert.assertArrayEquals(new byte[]{1, 4, 2, 5, 3, 6}, bytes.getColumnPackedCopy());
+		Assert.assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6}, bytes.getRowPackedCopy());
+		Assert.assertArrayEquals(new byte[]{4, 5, 6}, bytes.getArray()[1]);
+		MLInt64 longs = new MLInt64("longs", new long[]{7, 8, 9, 10}, 2);
+		Assert.assertEquals(10, longs.getRealLongBuffer().get(3));
+		Assert.assertArrayEquals(new long[]{7, 9, 8, 10}, longs.getRowPackedCopy());
+	}
+
+	@Test
+	public void testPrimitiveAccessors() {
+		MLDouble cube = new MLDouble("cube", new int[]{3, 4, 5}, MLArray.mxDOUBLE_CLASS, MLArray.mtFLAG_COMPLEX);
+		for (int i = 0; i < 3; i++) {
+			for (int j = 0; j < 4; j++) {
+				for (int k = 0; k < 5; k++) {
+					cube.setDouble(i + 10 * j + 100 * k, i, j, k);
+				}
+			}
+		}
+		Assert.assertEquals(321.0, cube.get(1, 2, 3), 0.0);
+		Assert.assertEquals(321.0, cube.getDouble(1, 2, 3), 0.0);
+		Assert.assertEquals(cube.getDouble(cube.getIndex(2, 3, 4)), cube.getDouble(2, 3, 4), 0.0);
+		int position = cube.getRealByteBuffer().position();
+		cube.setImaginaryDouble(-1.5, 7);
+		Assert.assertEquals(-1.5, cube.getImaginary(7), 0.0);
+		Assert.assertEquals(-1.5, cube.getImaginaryDouble(7), 0.0);
+		cube.setDouble(cube.getDouble(0, 0, 1), 2, 3, 4);
+		Assert.assertEquals(position, cube.getRealByteBuffer().position());
+
+		MLInt32 matrix = new MLInt32("matrix", new int[]{2, 3});
+		long stamp = matrix.getModificationStamp();
+		matrix.setInt(42, 1, 2);
+		matrix.setInt(43, 1, 1);
+		long modified = matrix.getModificationStamp();
+		Assert.assertTrue(modified != stamp);
+		Assert.assertEquals(modified, matrix.getModificationStamp());
+		matrix.setInt(44, 0, 0);
+		Assert.assertTrue(matrix.getModificationStamp() != modified);
+		Assert.assertEquals(42, matrix.get(1, 2).intValue());
+		Assert.assertEquals(42, matrix.getInt(5));
+		Assert.assertEquals(0, matrix.getImaginaryInt(5));
+
+		MLUInt8 bytes = new MLUInt8("bytes", new int[]{2, 2});
+		bytes.setByte((byte) 200, 1, 1);
+		Assert.assertEquals((byte) 200, bytes.getByte(3));
+		try {
+			new MLSingle("flat", new Float[]{1f, 2f}, 1).getFloat(0, 0, 0);
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+			// a 2D array has no 3D index
+		}
+	}
+
+	@Test
+	public void testConcurrentReadsOfFrozenArrays() throws Exception {
+		final MLDouble array = new MLDouble("shared", new int[]{1000, 3}, MLArray.mxDOUBLE_CLASS, MLArray.mtFLAG_COMPLEX);
+		final MLDouble copy = new MLDouble("shared", new int[]{1000, 3}, MLArray.mxDOUBLE_CLASS, MLArray.mtFLAG_COMPLEX);
+		for (int i = 0; i < array.getSize(); i++) {
+			array.set((double) i, i);
+			array.setImaginary((double) -i, i);
+			copy.set((double) i, i);
+			copy.setImaginary((double) -i, i);
+		}
+		MLCell cell = new MLCell("cell", new int[]{1, 1});
+		cell.set(array, 0);
+		cell.freeze();
+		Assert.assertTrue(array.isFrozen());
+		final int hash = array.hashCode();
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+			for (int t = 0; t < 8; t++) {
+				results.add(executor.submit(new Callable<Boolean>() {
+					@Override
+					public Boolean call() {
+						for (int pass = 0; pass < 20; pass++) {
+							for (int i = 0; i < array.getSize(); i++) {
+								if (array.get(i) != i || array.getImaginary(i) != -i) {
+									return false;
+								}
+							}
+							if (array.hashCode() != hash || !array.equals(copy)) {
+								return false;
+							}
+						}
+						return true;
+					}
+				}));
+			}
+			for (Future<Boolean> result : results) {
+				Assert.assertTrue(result.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		long stamp = array.getModificationStamp();
+		try {
+			array.set(1.0, 0);
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			// frozen
+		}
+		try {
+			array.getRealByteBuffer();
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			// frozen
+		}
+		try {
+			cell.set(array, 0);
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			// frozen
+		}
+		Assert.assertEquals(0.0, array.getDouble(0), 0.0);
+		Assert.assertEquals(stamp, array.getModificationStamp());
+	}
+
+	@Test
+	public void testPrimitiveConstructorsAndWrap() {
+		double[] values = {1, 2, 3, 4, 5, 6};
+		MLDouble packed = new MLDouble("x", values, 2);
+		Assert.assertEquals(new MLDouble("x", new Double[]{1.0, 2.0, 3.0, 4.0, 5.0, 6.0}, 2), packed);
+		Assert.assertEquals(packed, new MLDouble("x", new double[][]{{1, 3, 5}, {2, 4, 6}}));
+		Assert.assertEquals(6f, new MLSingle("f", new float[][]{{1, 3, 5}, {2, 4, 6}}).getFloat(1, 2), 0f);
+		Assert.assertEquals(-7L, new MLInt64("l", new long[]{5, -7}, 1).getLong(0, 1));
+		Assert.assertEquals(3, new MLUInt8("b", new byte[][]{{1, 2}, {3, 4}}).getByte(1, 0));
+		try {
+			new MLDouble("x", new double[][]{{1, 3, 5}, {2, 4}});
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+			// a short row
+		}
+		try {
+			new MLInt16("s", new short[][]{{1}, {2, 4}});
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+			// a long row
+		}
+
+		ByteBuffer storage = ByteBuffer.allocate(6 * 8);
+		storage.asDoubleBuffer().put(values);
+		MLDouble wrapped = MLDouble.wrap("x", new int[]{2, 3}, storage);
+		Assert.assertEquals(packed, wrapped);
+		storage.putDouble(8, 20.0);
+		Assert.assertEquals(20.0, wrapped.get(1, 0), 0.0);
+		wrapped.set(new Double[]{6.0, 5.0, 4.0, 3.0, 2.0, 1.0});
+		Assert.assertEquals(6.0, storage.getDouble(0), 0.0);
+		Assert.assertEquals(0, storage.position());
+
+		MLInt32 complex = MLInt32.wrap("c", new int[]{1, 2}, ByteBuffer.allocate(8), ByteBuffer.allocate(8));
+		Assert.assertTrue(complex.isComplex());
+		Assert.assertEquals(MLArray.mxUINT32_CLASS, MLUInt32.wrap("u", new int[]{1, 1}, ByteBuffer.allocate(4)).getType());
+		try {
+			MLDouble.wrap("x", new int[]{2, 3}, ByteBuffer.allocate(6 * 8).order(ByteOrder.LITTLE_ENDIAN));
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+			// the storage is big-endian
+		}
+		try {
+			MLDouble.wrap("x", new int[]{2, 4}, storage);
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+			// too short
+		}
+	}
+
+	@Test
+	public void testColumnSpliterators() throws Exception {
+		int rows = 7;
+		int columns = 300;
+		MLDouble matrix = new MLDouble("m", new int[]{rows, columns}, MLArray.mxDOUBLE_CLASS, MLArray.mtFLAG_COMPLEX);
+		double expected = 0;
+		for (int i = 0; i < rows * columns; i++) {
+			matrix.set(i * 0.5, i);
+			matrix.setImaginary((double) -i, i);
+			expected += i * 0.5;
+		}
+		matrix.freeze();
+
+		// split on column boundaries down to single columns, then down to single elements
+		List<ColumnSpliterator> parts = new ArrayList<ColumnSpliterator>();
+		List<ColumnSpliterator> pending = new ArrayList<ColumnSpliterator>();
+		pending.add(matrix.getRealSpliterator());
+		while (!pending.isEmpty()) {
+			ColumnSpliterator part = pending.remove(pending.size() - 1);
+			long size = part.estimateSize();
+			ColumnSpliterator prefix = part.trySplit();
+			if (prefix == null) {
+				Assert.assertEquals(1, size);
+				parts.add(part);
+			} else {
+				if (size >= 2 * rows) {
+					Assert.assertEquals(0, part.nextIndex() % rows);
+				}
+				pending.add(part);
+				pending.add(prefix);
+			}
+		}
+		Assert.assertEquals(rows * columns, parts.size());
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Double>> sums = new ArrayList<Future<Double>>();
+			for (final ColumnSpliterator part : parts) {
+				sums.add(executor.submit(new Callable<Double>() {
+					@Override
+					public Double call() {
+						double sum = 0;
+						while (part.hasNext()) {
+							sum += part.nextDouble();
+						}
+						return sum;
+					}
+				}));
+			}
+			double sum = 0;
+			for (Future<Double> partial : sums) {
+				sum += partial.get();
+			}
+			Assert.assertEquals(expected, sum, 0.0);
+		} finally {
+			executor.shutdown();
+		}
+
+		// a cursor which stopped mid-column splits on the next boundary
+		ColumnSpliterator imaginary = matrix.getImaginarySpliterator();
+		Assert.assertEquals(0L, imaginary.nextLong());
+		Assert.assertEquals(-1, imaginary.nextInt());
+		ColumnSpliterator prefix = imaginary.trySplit();
+		Assert.assertEquals(2, prefix.nextIndex());
+		Assert.assertEquals(0, imaginary.nextIndex() % rows);
+		Assert.assertEquals(rows * columns - 2, prefix.estimateSize() + imaginary.estimateSize());
+
+		// a column vector splits at its middle element
+		ColumnSpliterator vector = new MLDouble("v", new double[]{1, 2, 3, 4, 5}, 5).getRealSpliterator();
+		prefix = vector.trySplit();
+		Assert.assertEquals(2, prefix.estimateSize());
+		Assert.assertEquals(2, vector.nextIndex());
+		Assert.assertEquals(3.0, vector.nextDouble(), 0.0);
+
+		ColumnSpliterator bytes = new MLUInt8("b", new byte[]{-1, 2}, 2).getRealSpliterator();
+		Assert.assertNotNull(bytes.trySplit());
+		Assert.assertEquals(2.0, bytes.nextDouble(), 0.0);
+		bytes = new MLUInt8("b", new byte[]{-1, 2}, 2).getRealSpliterator();
+		Assert.assertEquals(-1.0, bytes.nextDouble(), 0.0);
+		Assert.assertNull(bytes.trySplit());
+		Assert.assertEquals(2L, bytes.nextLong());
+		Assert.assertFalse(bytes.hasNext());
+		Assert.assertEquals(3, new MLSingle("f", new float[]{3.75f}, 1).getRealSpliterator().nextInt());
+		Assert.assertEquals(-5L, new MLInt64("l", new long[]{-5}, 1).getRealSpliterator().nextLong());
+	}
+
+	@Test
+	public void testStridedViews() {
+		int[] dims = {4, 5, 3, 6};
+		MLDouble video = new MLDouble("video", dims, MLArray.mxDOUBLE_CLASS, MLArray.mtFLAG_COMPLEX);
+		for (int i = 0; i < video.getSize(); i++) {
+			video.setDouble(i, i);
+			video.setImaginaryDouble(-i, i);
+		}
+
+		// a single frame is contiguous, and shares the storage
+		ArrayView frame = video.view().select(3, 2);
+		Assert.assertArrayEquals(new int[]{4, 5, 3}, frame.getDimensions());
+		Assert.assertTrue(frame.isContiguous());
+		Assert.assertEquals(video.getIndex(1, 2, 0, 2), frame.getSourceIndex(1, 2, 0));
+		video.setDouble(-1.0, video.getIndex(3, 4, 2, 2));
+		Assert.assertEquals(-1.0, frame.getReal(3, 4, 2).doubleValue(), 0.0);
+		MLDouble copy = (MLDouble) frame.materialize("frame");
+		Assert.assertArrayEquals(new int[]{4, 5, 3}, copy.getDimensions());
+		for (int i = 0; i < copy.getSize(); i++) {
+			Assert.assertEquals(video.get(frame.getSourceIndex(i)), copy.get(i));
+			Assert.assertEquals(video.getImaginary(frame.getSourceIndex(i)), copy.getImaginary(i));
+		}
+
+		// strided, permuted and squeezed views are copied run by run
+		ArrayView strided = video.view().slice(0, 1, 4, 2).slice(3, 0, 6, 4).permute(3, 2, 1, 0);
+		Assert.assertArrayEquals(new int[]{2, 3, 5, 2}, strided.getDimensions());
+		Assert.assertFalse(strided.isContiguous());
+		MLDouble permuted = (MLDouble) strided.materialize("p");
+		for (int a = 0; a < 2; a++) {
+			for (int b = 0; b < 3; b++) {
+				for (int c = 0; c < 5; c++) {
+					for (int d = 0; d < 2; d++) {
+						Assert.assertEquals(video.get(1 + 2 * d, c, b, 4 * a), permuted.get(a, b, c, d));
+					}
+				}
+			}
+		}
+		ArrayView row = video.view().select(0, 3).select(1, 1).squeeze();
+		Assert.assertArrayEquals(new int[]{5, 6}, row.getDimensions());
+		Assert.assertEquals(video.get(3, 4, 1, 5), row.getReal(4, 5));
+		Assert.assertArrayEquals(new int[]{3, 1}, video.view().slice(0, 0, 1).slice(1, 0, 1).select(3, 0).squeeze().getDimensions());
+		Assert.assertArrayEquals(new int[]{1, 5}, video.view().slice(0, 0, 1).select(2, 0).select(2, 0).squeeze().getDimensions());
+
+		MLInt8 matrix = new MLInt8("m", new byte[][]{{1, 2, 3}, {4, 5, 6}});
+		MLInt8 transposed = (MLInt8) matrix.view().transpose().materialize("t");
+		Assert.assertEquals(new MLInt8("t", new byte[][]{{1, 4}, {2, 5}, {3, 6}}), transposed);
+		Assert.assertArrayEquals(new int[]{2, 1}, matrix.view().select(1, 2).getDimensions());
+
+		MLCell cells = new MLCell("c", new int[]{2, 2});
+		cells.set(new MLChar("a", "a"), 0, 1);
+		cells.set(new MLChar("b", "b"), 1, 0);
+		ArrayView cellView = cells.view().transpose();
+		Assert.assertSame(cells.get(0, 1), cellView.getCell(1, 0));
+		MLCell cellCopy = (MLCell) cellView.materialize("t");
+		Assert.assertSame(cells.get(1, 0), cellCopy.get(0, 1));
+
+		try {
+			video.view().slice(1, 2, 6);
+			Assert.fail();
+		} catch (IndexOutOfBoundsException e) {
+			// past the dimension
+		}
+		try {
+			video.view().permute(0, 1, 1, 3);
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+			// not a permutation
+		}
+	}
 }